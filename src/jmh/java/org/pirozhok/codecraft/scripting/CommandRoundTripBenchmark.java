@@ -0,0 +1,67 @@
+package org.pirozhok.codecraft.scripting;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Путь команды от скрипта до результата: постановка в {@link CommandQueue}, разбор очереди
+ * "главным потоком" и ожидание future, как в {@link ScriptManager#executeCommandSafe}.
+ * tickMicros = 0 - очередь разбирается непрерывно (чистые накладные расходы),
+ * 50000 - раз в настоящий тик сервера.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CommandRoundTripBenchmark {
+    @Param({"0", "50000"})
+    public long tickMicros;
+
+    private StubCommandDispatcher dispatcher;
+    private CommandQueue queue;
+    private FakeServerThread serverThread;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dispatcher = new StubCommandDispatcher();
+        queue = new CommandQueue(dispatcher);
+        serverThread = new FakeServerThread(queue, TimeUnit.MICROSECONDS.toNanos(tickMicros));
+        serverThread.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        serverThread.shutdown();
+        queue.clear();
+    }
+
+    @Benchmark
+    public int queuedCommand() {
+        return ScriptManager.awaitCommand("say hello", queue.submit(null, ScriptSource.SERVER, "say hello", null));
+    }
+
+    // Несколько скриптов одновременно ждут свои команды
+    @Benchmark
+    @Threads(4)
+    public int queuedCommandContended() {
+        return ScriptManager.awaitCommand("time add 1", queue.submit(null, ScriptSource.SERVER, "time add 1", null));
+    }
+
+    // Команда из главного потока выполняется сразу, без очереди
+    @Benchmark
+    public Integer directCommand() {
+        CompletableFuture<Integer> future = queue.runNow(null, ScriptSource.SERVER, "say hello", null);
+        return future.getNow(0);
+    }
+}
@@ -0,0 +1,127 @@
+package org.pirozhok.codecraft.scripting;
+
+import org.graalvm.polyglot.Engine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import javax.script.ScriptException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Стоимость подготовки и запуска скрипта: создание движка и контекста, установка привязок,
+ * холодный запуск (новый исходник в новом контексте) и тёплый (кэшированный исходник в контексте из пула).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EngineBenchmark {
+    static final String SCRIPT = """
+            var total = 0;
+            for (var i = 0; i < 100; i++) {
+                total += i * 2;
+            }
+            var message = 'total=' + total;
+            message;
+            """;
+
+    private UniversalScriptEngine engine;
+    private PreparedScript warmScript;
+    private ScriptSession warmSession;
+    private ScriptSession bindingSession;
+    private GlobalAPI global;
+    private ScriptConsole console;
+    private MappetContext mappetContext;
+    private long coldCounter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ScriptException {
+        engine = new UniversalScriptEngine();
+        warmScript = engine.compile("bench_warm", ScriptExecutionContext.wrapScript(SCRIPT));
+        warmSession = engine.openSession();
+        warmSession.markBaseline();
+
+        global = new GlobalAPI(null, "bench");
+        console = new ScriptConsole("bench");
+        mappetContext = new MappetContext(null, "bench");
+        bindingSession = engine.openSession();
+        installBindings(bindingSession);
+        bindingSession.markBaseline();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        warmSession.close();
+        bindingSession.close();
+    }
+
+    // Отдельный движок, как при первом запуске сервера; в моде он создаётся один раз и общий для всех
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object engineCreation() {
+        Engine created = Engine.newBuilder()
+                .option("engine.WarnInterpreterOnly", "false")
+                .build();
+        created.close();
+        return created;
+    }
+
+    @Benchmark
+    public Object contextCreation() {
+        ScriptSession session = engine.openSession();
+        session.close();
+        return session;
+    }
+
+    // Те же привязки, что ставит пул контекстов
+    @Benchmark
+    public Object bindingSetup() {
+        installBindings(bindingSession);
+        return bindingSession;
+    }
+
+    // Очистка области между запусками вместе с восстановлением привязок
+    @Benchmark
+    public boolean scopeReset() {
+        boolean clean = bindingSession.reset();
+        installBindings(bindingSession);
+        return clean;
+    }
+
+    // Исходник каждый раз новый, поэтому разбор не берётся из кэша движка
+    @Benchmark
+    public Object coldEval() throws ScriptException {
+        String code = ScriptExecutionContext.wrapScript(SCRIPT + "\n// " + coldCounter++);
+        PreparedScript script = engine.compile("bench_cold", code);
+        try (ScriptSession session = engine.openSession()) {
+            return session.eval(script);
+        }
+    }
+
+    @Benchmark
+    public Object warmEval() throws ScriptException {
+        Object result = warmSession.eval(warmScript);
+        warmSession.reset();
+        return result;
+    }
+
+    @Benchmark
+    public String wrapScript() {
+        return ScriptExecutionContext.wrapScript(SCRIPT);
+    }
+
+    private void installBindings(ScriptSession session) {
+        session.put("server", null);
+        session.put("global", global);
+        session.put("console", console);
+        session.put("c", mappetContext);
+        session.put("context", mappetContext);
+    }
+}
@@ -0,0 +1,46 @@
+package org.pirozhok.codecraft.scripting;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Поток, изображающий главный поток сервера: раз в тик разбирает очередь команд,
+ * как это делает {@link ScriptManager#tick()}. При tickNanos = 0 очередь разбирается непрерывно -
+ * так измеряются накладные расходы очереди без ожидания следующего тика.
+ */
+final class FakeServerThread extends Thread {
+    private final CommandQueue queue;
+    private final long tickNanos;
+    private volatile boolean running = true;
+
+    FakeServerThread(CommandQueue queue, long tickNanos) {
+        super("CodeCraft-FakeServer");
+        this.queue = queue;
+        this.tickNanos = tickNanos;
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        long nextTick = System.nanoTime();
+        while (running) {
+            queue.drain();
+            if (tickNanos > 0) {
+                nextTick += tickNanos;
+                long delay = nextTick - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(delay);
+                } else {
+                    nextTick = System.nanoTime();
+                }
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+        queue.drain();
+    }
+
+    void shutdown() throws InterruptedException {
+        running = false;
+        join();
+    }
+}
@@ -0,0 +1,72 @@
+package org.pirozhok.codecraft.scripting;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import javax.script.ScriptException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Цена вызова Java из скрипта: цикл с вызовом метода объекта c сравнивается с таким же циклом без вызова.
+ * Разница, делённая на число итераций, - накладные расходы одного перехода через границу JS/Java.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HostCallBenchmark {
+    static final int CALLS = 1000;
+
+    private UniversalScriptEngine engine;
+    private ScriptSession session;
+    private PreparedScript hostLoop;
+    private PreparedScript plainLoop;
+    private PreparedScript stringLoop;
+
+    @Setup
+    public void setUp() throws ScriptException {
+        engine = new UniversalScriptEngine();
+        session = engine.openSession();
+        session.put("c", new MappetContext(null, "bench"));
+        session.put("probe", new Probe());
+        hostLoop = engine.compile("bench_host", "var n = 0; for (var i = 0; i < " + CALLS + "; i++) { if (c.getServer() === null) n++; } n;");
+        plainLoop = engine.compile("bench_plain", "var n = 0; for (var i = 0; i < " + CALLS + "; i++) { if (i >= 0) n++; } n;");
+        stringLoop = engine.compile("bench_string", "var s = ''; for (var i = 0; i < " + CALLS + "; i++) { s = probe.echo('line ' + i); } s;");
+    }
+
+    @TearDown
+    public void tearDown() {
+        session.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public Object hostCall() throws ScriptException {
+        return session.eval(hostLoop);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public Object plainLoop() throws ScriptException {
+        return session.eval(plainLoop);
+    }
+
+    // Вызов со строковым аргументом и результатом: строка переходит границу в обе стороны
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public Object hostCallWithString() throws ScriptException {
+        return session.eval(stringLoop);
+    }
+
+    public static final class Probe {
+        public String echo(String text) {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.pirozhok.codecraft.scripting;
+
+import net.minecraft.ChatFormatting;
+import net.minecraft.network.chat.Component;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сборка сообщения скрипта. Старый путь tellrawGold: JSON-строка, которую команда tellraw разбирала обратно
+ * в Component (разбор самой команды Brigadier сюда не входит, его меряет {@link CommandRoundTripBenchmark}).
+ * Новый путь: Component сразу, форматированный текст через {@link ScriptText} и склейка строк за тик.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageBenchmark {
+    static final int LINES_PER_TICK = 10;
+
+    private String text;
+    private String styledJson;
+    private ScriptMessages messages;
+    private List<ScriptMessages.Outgoing> tick;
+
+    @Setup
+    public void setUp() {
+        text = "Игрок \"Steve\" набрал 42 очка";
+        styledJson = "{\"text\":\"\",\"extra\":[{\"text\":\"Счёт: \",\"color\":\"gray\"},"
+                + "{\"text\":\"42\",\"color\":\"gold\",\"bold\":true,"
+                + "\"hoverEvent\":{\"action\":\"show_text\",\"contents\":\"Нажми для деталей\"},"
+                + "\"clickEvent\":{\"action\":\"run_command\",\"value\":\"/score\"}}]}";
+        messages = new ScriptMessages();
+        tick = new ArrayList<>(LINES_PER_TICK);
+        for (int i = 0; i < LINES_PER_TICK; i++) {
+            tick.add(new ScriptMessages.Outgoing(null, "bench", null, ScriptMessages.Kind.CHAT, Component.literal("line " + i), null));
+        }
+    }
+
+    // Как tellrawGold до перехода на Component: экранирование, JSON и разбор
+    @Benchmark
+    public Component tellrawGoldJson() {
+        return Component.Serializer.fromJson("{\"text\":\"" + escapeJson(text) + "\",\"color\":\"gold\"}");
+    }
+
+    @Benchmark
+    public Component tellrawGoldComponent() {
+        return Component.literal(text).withStyle(ChatFormatting.GOLD);
+    }
+
+    // c.tellraw(json) с несколькими частями и событиями
+    @Benchmark
+    public Component styledJson() {
+        return Component.Serializer.fromJson(styledJson);
+    }
+
+    // То же сообщение через c.text(...)
+    @Benchmark
+    public Component styledText() {
+        return new ScriptText(null, "bench", "Счёт: ").gray()
+                .then("42").gold().bold().hover("Нажми для деталей").click("/score")
+                .build();
+    }
+
+    // Склейка строк одного игрока за тик в сообщения чата
+    @Benchmark
+    public List<ScriptMessages.Outgoing> composeTick() {
+        return messages.composeChat(tick);
+    }
+
+    private static String escapeJson(String text) {
+        return text.replace("\\", "\\\\")
+                .replace("\"", "\\\"")
+                .replace("\n", "\\n")
+                .replace("\r", "\\r")
+                .replace("\t", "\\t");
+    }
+}
@@ -0,0 +1,48 @@
+package org.pirozhok.codecraft.scripting;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.builder.RequiredArgumentBuilder;
+import net.minecraft.server.MinecraftServer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Диспетчер команд для бенчмарков вместо сервера: настоящий Brigadier с парой команд,
+ * похожих на те, что вызывают скрипты, но без мира и игроков. Разбор команды стоит столько же,
+ * сколько на сервере, а выполнение почти ничего - так видны накладные расходы самого пути команды.
+ */
+final class StubCommandDispatcher implements CommandQueue.Runner {
+    private static final Object SOURCE = new Object();
+
+    private final CommandDispatcher<Object> dispatcher = new CommandDispatcher<>();
+    private final LongAdder executed = new LongAdder();
+
+    StubCommandDispatcher() {
+        dispatcher.register(LiteralArgumentBuilder.literal("say")
+                .then(RequiredArgumentBuilder.<Object, String>argument("message", StringArgumentType.greedyString())
+                        .executes(context -> {
+                            executed.increment();
+                            return 1;
+                        })));
+        dispatcher.register(LiteralArgumentBuilder.literal("time")
+                .then(LiteralArgumentBuilder.literal("add")
+                        .then(RequiredArgumentBuilder.<Object, Integer>argument("value", IntegerArgumentType.integer(0))
+                                .executes(context -> {
+                                    executed.increment();
+                                    return IntegerArgumentType.getInteger(context, "value");
+                                }))));
+    }
+
+    // Сервер не нужен: как и performPrefixedCommand, принимаем команду с косой чертой и без
+    @Override
+    public int run(MinecraftServer server, ScriptSource source, String command) throws Exception {
+        return dispatcher.execute(command.startsWith("/") ? command.substring(1) : command, SOURCE);
+    }
+
+    long getExecutedCount() {
+        return executed.sum();
+    }
+}
@@ -0,0 +1,83 @@
+package org.pirozhok.codecraft.scripting;
+
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.players.PlayerList;
+import net.minecraft.world.level.storage.LevelResource;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Сервер без мира для нагрузочного теста. Настоящий {@link MinecraftServer} без мира не создать,
+ * поэтому это mock, у которого реализовано только то, чем пользуется скриптовый рантайм:
+ * главный поток (им считается {@link FakeTickLoop}), папка мира во временном каталоге
+ * и список из заданного числа игроков, который считает отправленные им сообщения.
+ */
+final class FakeServer {
+    private final MinecraftServer server;
+    private final PlayerList playerList;
+    private final List<ServerPlayer> players = new ArrayList<>();
+    private final LongAdder broadcasts = new LongAdder();
+    private volatile Thread mainThread;
+
+    FakeServer(Path worldDir, int playerCount) {
+        for (int i = 0; i < playerCount; i++) {
+            String name = "Player" + i;
+            ServerPlayer player = mock(ServerPlayer.class);
+            when(player.getScoreboardName()).thenReturn(name);
+            when(player.getName()).thenReturn(Component.literal(name));
+            players.add(player);
+        }
+
+        playerList = mock(PlayerList.class);
+        when(playerList.getPlayers()).thenReturn(players);
+        when(playerList.getPlayerCount()).thenReturn(playerCount);
+        when(playerList.getPlayerByName(any())).thenAnswer(invocation -> findPlayer(invocation.getArgument(0)));
+        doAnswer(invocation -> {
+            broadcasts.increment();
+            return null;
+        }).when(playerList).broadcastSystemMessage(any(), anyBoolean());
+
+        server = mock(MinecraftServer.class);
+        when(server.isSameThread()).thenAnswer(invocation -> Thread.currentThread() == mainThread);
+        when(server.getWorldPath(any())).thenAnswer(invocation -> worldDir.resolve(((LevelResource) invocation.getArgument(0)).getId()));
+        when(server.getPlayerList()).thenReturn(playerList);
+        when(server.getPlayerCount()).thenReturn(playerCount);
+    }
+
+    private ServerPlayer findPlayer(String name) {
+        for (ServerPlayer player : players) {
+            if (player.getScoreboardName().equals(name)) {
+                return player;
+            }
+        }
+        return null;
+    }
+
+    void setMainThread(Thread mainThread) {
+        this.mainThread = mainThread;
+    }
+
+    MinecraftServer getServer() {
+        return server;
+    }
+
+    int getPlayerCount() {
+        return players.size();
+    }
+
+    // Сообщения всем игрокам (ошибки и остановки скриптов, c.sendMessage)
+    long getBroadcastCount() {
+        return broadcasts.sum();
+    }
+}
@@ -0,0 +1,79 @@
+package org.pirozhok.codecraft.scripting;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Главный поток поддельного сервера: 20 раз в секунду вызывает {@link ScriptManager#tick()}
+ * и замеряет, сколько занял каждый тик. Если тик не уложился в 50 мс, следующий начинается сразу,
+ * как у настоящего сервера, который отстаёт.
+ */
+final class FakeTickLoop extends Thread {
+    static final long TICK_NANOS = 50_000_000L;
+
+    private final ScriptManager manager;
+    private volatile boolean running = true;
+
+    private volatile LatencyHistogram tickTime = new LatencyHistogram();
+    private final LongAdder ticks = new LongAdder();
+    private final LongAdder overruns = new LongAdder();
+
+    FakeTickLoop(ScriptManager manager) {
+        super("Server thread");
+        this.manager = manager;
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        long nextTick = System.nanoTime();
+        while (running) {
+            long start = System.nanoTime();
+            try {
+                manager.tick();
+            } catch (RuntimeException e) {
+                System.err.println("FakeTickLoop: Tick failed: " + e);
+            }
+            long duration = System.nanoTime() - start;
+            tickTime.record(duration);
+            ticks.increment();
+            if (duration > TICK_NANOS) {
+                overruns.increment();
+            }
+
+            nextTick += TICK_NANOS;
+            long delay = nextTick - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            } else {
+                nextTick = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Начинает новый замер, например после фазы без нагрузки.
+     */
+    void resetStats() {
+        tickTime = new LatencyHistogram();
+        ticks.reset();
+        overruns.reset();
+    }
+
+    LatencyHistogram getTickTime() {
+        return tickTime;
+    }
+
+    long getTicks() {
+        return ticks.sum();
+    }
+
+    long getOverruns() {
+        return overruns.sum();
+    }
+
+    void shutdown() throws InterruptedException {
+        running = false;
+        join();
+    }
+}
@@ -0,0 +1,191 @@
+package org.pirozhok.codecraft.scripting;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Параметры нагрузочного прогона и генерация скриптов для него. Скрипты бывают четырёх видов,
+ * доля каждого задаётся смесью (--mix wait:1,compute:1,commands:1):
+ * <ul>
+ *     <li>wait - корутина, которая только ждёт тики и не держит поток;</li>
+ *     <li>sleep - старый стиль с global.sleep, держит рабочий поток (в кооперативном режиме заменяется на wait);</li>
+ *     <li>compute - вычисления каждый тик;</li>
+ *     <li>commands - заданное число команд в секунду через c.execAsync.</li>
+ * </ul>
+ */
+final class LoadScenario {
+    enum Kind {
+        WAIT, SLEEP, COMPUTE, COMMANDS
+    }
+
+    String name = "mixed";
+    int scripts = 200;
+    int players = 100;
+    int commandsPerSecond = 5;
+    int computeIterations = 20_000;
+    long sleepMs = 100;
+    long durationSeconds = 30;
+    long baselineSeconds = 5;
+    ScriptManager.ExecutionMode mode = ScriptManager.ExecutionMode.THREADED;
+    long tickBudgetMs = TickBudgetExecutor.DEFAULT_BUDGET_MS;
+    int workers = ScriptScheduler.defaultWorkers();
+    int queueCapacity = ScriptScheduler.DEFAULT_QUEUE_CAPACITY;
+    int poolSize = ScriptContextPool.DEFAULT_MAX_SIZE;
+    final Map<Kind, Integer> mix = new EnumMap<>(Kind.class);
+
+    static LoadScenario preset(String name) {
+        LoadScenario scenario = new LoadScenario();
+        scenario.name = name;
+        switch (name) {
+            case "idle" -> scenario.mix.put(Kind.WAIT, 1);
+            case "sleep" -> scenario.mix.put(Kind.SLEEP, 1);
+            case "compute" -> scenario.mix.put(Kind.COMPUTE, 1);
+            case "commands" -> scenario.mix.put(Kind.COMMANDS, 1);
+            case "mixed" -> {
+                scenario.mix.put(Kind.SLEEP, 1);
+                scenario.mix.put(Kind.COMPUTE, 1);
+                scenario.mix.put(Kind.COMMANDS, 1);
+            }
+            default -> throw new IllegalArgumentException("Unknown scenario: " + name + " (idle, sleep, compute, commands, mixed)");
+        }
+        return scenario;
+    }
+
+    /**
+     * Аргументы вида --scenario mixed --scripts 500 --mode cooperative.
+     */
+    static LoadScenario parse(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String key = args[i].substring(2);
+            String value = i + 1 < args.length && !args[i + 1].startsWith("--") ? args[++i] : "true";
+            options.put(key, value);
+        }
+
+        LoadScenario scenario = preset(options.getOrDefault("scenario", "mixed"));
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            String value = option.getValue();
+            switch (option.getKey()) {
+                case "scenario", "verbose", "out" -> {
+                }
+                case "scripts" -> scenario.scripts = Integer.parseInt(value);
+                case "players" -> scenario.players = Integer.parseInt(value);
+                case "commands-per-second" -> scenario.commandsPerSecond = Integer.parseInt(value);
+                case "compute-iterations" -> scenario.computeIterations = Integer.parseInt(value);
+                case "sleep-ms" -> scenario.sleepMs = Long.parseLong(value);
+                case "duration" -> scenario.durationSeconds = Long.parseLong(value);
+                case "baseline" -> scenario.baselineSeconds = Long.parseLong(value);
+                case "mode" -> scenario.mode = ScriptManager.ExecutionMode.valueOf(value.toUpperCase(Locale.ROOT));
+                case "tick-budget-ms" -> scenario.tickBudgetMs = Long.parseLong(value);
+                case "workers" -> scenario.workers = Integer.parseInt(value);
+                case "queue" -> scenario.queueCapacity = Integer.parseInt(value);
+                case "pool" -> scenario.poolSize = Integer.parseInt(value);
+                case "mix" -> {
+                    scenario.mix.clear();
+                    for (String part : value.split(",")) {
+                        String[] weight = part.split(":");
+                        scenario.mix.put(Kind.valueOf(weight[0].trim().toUpperCase(Locale.ROOT)),
+                                weight.length > 1 ? Integer.parseInt(weight[1].trim()) : 1);
+                    }
+                }
+                default -> throw new IllegalArgumentException("Unknown option: --" + option.getKey());
+            }
+        }
+        return scenario;
+    }
+
+    /**
+     * Виды скриптов по порядку запуска: смесь раскладывается равномерно, а не блоками.
+     */
+    List<Kind> plan() {
+        List<Kind> weighted = new ArrayList<>();
+        mix.forEach((kind, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                weighted.add(kind);
+            }
+        });
+        if (weighted.isEmpty()) {
+            weighted.add(Kind.WAIT);
+        }
+        List<Kind> plan = new ArrayList<>(scripts);
+        for (int i = 0; i < scripts; i++) {
+            plan.add(weighted.get(i % weighted.size()));
+        }
+        return plan;
+    }
+
+    String generate(Kind kind) {
+        long durationMs = durationSeconds * 1000;
+        if (kind == Kind.SLEEP && mode == ScriptManager.ExecutionMode.COOPERATIVE) {
+            kind = Kind.WAIT;
+        }
+        return switch (kind) {
+            case WAIT -> """
+                    function* main(c) {
+                        var end = Date.now() + %d;
+                        while (Date.now() < end) {
+                            yield ticks(%d);
+                        }
+                    }
+                    """.formatted(durationMs, TimerWheel.millisToTicks(sleepMs));
+            case SLEEP -> """
+                    var end = Date.now() + %d;
+                    while (Date.now() < end) {
+                        global.sleep(%d);
+                    }
+                    """.formatted(durationMs, sleepMs);
+            case COMPUTE -> """
+                    function* main(c) {
+                        var end = Date.now() + %d;
+                        var total = 0;
+                        while (Date.now() < end) {
+                            for (var i = 0; i < %d; i++) {
+                                total += Math.sqrt(i);
+                            }
+                            yield ticks(1);
+                        }
+                    }
+                    """.formatted(durationMs, computeIterations);
+            // Команд за тик может выйти дробное число, поэтому остаток копится до следующего тика
+            case COMMANDS -> """
+                    function* main(c) {
+                        var end = Date.now() + %d;
+                        var sent = 0;
+                        var due = 0;
+                        while (Date.now() < end) {
+                            for (due += %s; due >= 1; due--) {
+                                c.execAsync('say load ' + sent++);
+                            }
+                            yield ticks(1);
+                        }
+                    }
+                    """.formatted(durationMs, String.format(Locale.ROOT, "%.4f", commandsPerSecond / 20.0));
+        };
+    }
+
+    Map<String, Object> describe() {
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("name", name);
+        description.put("mode", mode.name());
+        description.put("scripts", scripts);
+        description.put("players", players);
+        description.put("commandsPerSecond", commandsPerSecond);
+        description.put("computeIterations", computeIterations);
+        description.put("sleepMs", sleepMs);
+        description.put("durationSeconds", durationSeconds);
+        description.put("workers", workers);
+        description.put("queueCapacity", queueCapacity);
+        description.put("poolSize", poolSize);
+        Map<String, Object> weights = new LinkedHashMap<>();
+        mix.forEach((kind, weight) -> weights.put(kind.name().toLowerCase(Locale.ROOT), weight));
+        description.put("mix", weights);
+        return description;
+    }
+}
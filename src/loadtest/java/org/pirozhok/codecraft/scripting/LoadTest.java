@@ -0,0 +1,229 @@
+package org.pirozhok.codecraft.scripting;
+
+import net.minecraft.SharedConstants;
+import net.minecraft.server.Bootstrap;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Нагрузочный тест скриптового рантайма без игры: {@link ScriptManager} работает с {@link FakeServer},
+ * тики идут из {@link FakeTickLoop}, команды считает {@link RecordingDispatcher}.
+ * Сначала замеряются тики без скриптов, затем запускается сценарий и замеряются те же тики под нагрузкой,
+ * пропускная способность, число потоков и память. Отчёт печатается и сохраняется в JSON.
+ * <pre>
+ * ./gradlew loadTest -PloadTestArgs="--scenario mixed --scripts 500 --players 1000 --duration 60"
+ * </pre>
+ */
+public final class LoadTest {
+    private static final long SAMPLE_INTERVAL_MS = 250;
+    private static final long STOP_TIMEOUT_MS = 10_000;
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadScenario scenario = LoadScenario.parse(args);
+        boolean verbose = List.of(args).contains("--verbose");
+        Path out = Path.of(option(args, "--out", "build/reports/loadtest/" + scenario.name + ".json"));
+
+        // Рантайм пишет в System.out на каждую команду; под нагрузкой это мерило бы консоль, а не скрипты
+        PrintStream console = System.out;
+        if (!verbose) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+
+        Path worldDir = Files.createTempDirectory("codecraft-loadtest");
+        FakeServer fakeServer = new FakeServer(worldDir, scenario.players);
+        RecordingDispatcher dispatcher = new RecordingDispatcher();
+
+        ScriptManager manager = ScriptManager.getInstance();
+        manager.setServer(fakeServer.getServer());
+        manager.getCommandQueue().setRunner(dispatcher);
+        manager.configureExecution(scenario.mode, scenario.tickBudgetMs);
+        manager.configureScheduler(scenario.workers, scenario.queueCapacity, ScriptScheduler.RejectionPolicy.REJECT);
+        manager.configureContextPool(ScriptContextPool.DEFAULT_MIN_IDLE, scenario.poolSize, ScriptContextPool.DEFAULT_IDLE_TIMEOUT_MS);
+
+        FakeTickLoop tickLoop = new FakeTickLoop(manager);
+        fakeServer.setMainThread(tickLoop);
+        tickLoop.start();
+        manager.warmUp();
+
+        List<String> names = new ArrayList<>();
+        List<LoadScenario.Kind> plan = scenario.plan();
+        for (int i = 0; i < plan.size(); i++) {
+            LoadScenario.Kind kind = plan.get(i);
+            String name = "load_" + kind.name().toLowerCase(Locale.ROOT) + "_" + i;
+            manager.createScript(name, scenario.generate(kind));
+            names.add(name);
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        console.println("LoadTest: Scenario " + scenario.describe());
+        console.println("LoadTest: Measuring idle ticks for " + scenario.baselineSeconds + " s");
+        Thread.sleep(scenario.baselineSeconds * 1000);
+        Map<String, Object> baselineTicks = tickStats(tickLoop, scenario.baselineSeconds * 1_000_000_000L);
+        System.gc();
+        long baselineHeap = memory.getHeapMemoryUsage().getUsed();
+        int baselineThreads = threads.getThreadCount();
+
+        tickLoop.resetStats();
+        threads.resetPeakThreadCount();
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTime();
+        long stepsBefore = manager.getScheduler().getCompletedCount() + manager.getTickExecutor().getStepsRun();
+
+        console.println("LoadTest: Starting " + names.size() + " scripts for " + scenario.durationSeconds + " s");
+        long start = System.nanoTime();
+        int started = 0;
+        int rejected = 0;
+        for (String name : names) {
+            if (manager.executeScript(name)) {
+                started++;
+            } else {
+                rejected++;
+            }
+        }
+        long startupNanos = System.nanoTime() - start;
+
+        long deadline = start + scenario.durationSeconds * 1_000_000_000L;
+        long peakHeap = 0;
+        int peakRunning = 0;
+        while (System.nanoTime() < deadline) {
+            Thread.sleep(SAMPLE_INTERVAL_MS);
+            peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+            peakRunning = Math.max(peakRunning, manager.getRunningCount());
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        double elapsedSeconds = elapsedNanos / 1e9;
+
+        Map<String, Object> loadTicks = tickStats(tickLoop, elapsedNanos);
+        Map<String, Object> runtime = manager.getMetrics().snapshot();
+        int threadsUnderLoad = threads.getThreadCount();
+        int peakThreads = threads.getPeakThreadCount();
+        long endHeap = memory.getHeapMemoryUsage().getUsed();
+        long steps = manager.getScheduler().getCompletedCount() + manager.getTickExecutor().getStepsRun() - stepsBefore;
+        long runs = 0;
+        for (Map.Entry<String, ScriptProfiler.Stats> entry : manager.getProfiler().snapshot()) {
+            runs += entry.getValue().getRuns();
+        }
+
+        manager.stopAllScripts();
+        long stopDeadline = System.currentTimeMillis() + STOP_TIMEOUT_MS;
+        while (manager.getRunningCount() > 0 && System.currentTimeMillis() < stopDeadline) {
+            Thread.sleep(50);
+        }
+        int leftRunning = manager.getRunningCount();
+        tickLoop.shutdown();
+        manager.shutdown();
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("scenario", scenario.describe());
+
+        Map<String, Object> scripts = new LinkedHashMap<>();
+        scripts.put("started", started);
+        scripts.put("rejected", rejected);
+        scripts.put("startupMillis", startupNanos / 1_000_000);
+        scripts.put("peakRunning", peakRunning);
+        scripts.put("finishedRuns", runs);
+        scripts.put("stepsPerSecond", steps / elapsedSeconds);
+        scripts.put("notStoppedAfterShutdown", leftRunning);
+        report.put("scripts", scripts);
+
+        Map<String, Object> commands = new LinkedHashMap<>();
+        commands.put("executed", dispatcher.getExecutedCount());
+        commands.put("perSecond", dispatcher.getExecutedCount() / elapsedSeconds);
+        commands.put("offMainThread", dispatcher.getOffThreadCount());
+        commands.put("byCommand", dispatcher.getCountsByCommand());
+        commands.put("broadcasts", fakeServer.getBroadcastCount());
+        report.put("commands", commands);
+
+        Map<String, Object> ticks = new LinkedHashMap<>();
+        ticks.put("idle", baselineTicks);
+        ticks.put("load", loadTicks);
+        report.put("ticks", ticks);
+
+        Map<String, Object> threadCounts = new LinkedHashMap<>();
+        threadCounts.put("idle", baselineThreads);
+        threadCounts.put("load", threadsUnderLoad);
+        threadCounts.put("peak", peakThreads);
+        report.put("threads", threadCounts);
+
+        Map<String, Object> heap = new LinkedHashMap<>();
+        heap.put("idleMb", baselineHeap >> 20);
+        heap.put("peakMb", peakHeap >> 20);
+        heap.put("endMb", endHeap >> 20);
+        heap.put("gcCount", gcCount() - gcCountBefore);
+        heap.put("gcMillis", gcTime() - gcTimeBefore);
+        report.put("heap", heap);
+
+        report.put("runtime", runtime);
+
+        String json = ScriptMetrics.toJson(report);
+        Files.createDirectories(out.toAbsolutePath().getParent());
+        Files.writeString(out, json);
+
+        console.println(String.format(Locale.ROOT,
+                "LoadTest: %d scripts started, %d rejected; %.1f commands/s, %.1f steps/s",
+                started, rejected, dispatcher.getExecutedCount() / elapsedSeconds, steps / elapsedSeconds));
+        console.println("LoadTest: Tick idle " + baselineTicks + ", load " + loadTicks);
+        console.println("LoadTest: Threads " + baselineThreads + " -> " + threadsUnderLoad + " (peak " + peakThreads
+                + "), heap " + (baselineHeap >> 20) + " -> " + (peakHeap >> 20) + " MB peak");
+        console.println("LoadTest: Report written to " + out.toAbsolutePath());
+        System.exit(0);
+    }
+
+    private static Map<String, Object> tickStats(FakeTickLoop tickLoop, long elapsedNanos) {
+        LatencyHistogram tickTime = tickLoop.getTickTime();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ticks", tickLoop.getTicks());
+        stats.put("tps", tickLoop.getTicks() / (elapsedNanos / 1e9));
+        stats.put("meanMicros", tickTime.getMean() / 1000);
+        stats.put("p50Micros", tickTime.percentile(50) / 1000);
+        stats.put("p99Micros", tickTime.percentile(99) / 1000);
+        stats.put("maxMicros", tickTime.getMax() / 1000);
+        stats.put("overruns", tickLoop.getOverruns());
+        return stats;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, collector.getCollectionTime());
+        }
+        return time;
+    }
+
+    private static String option(String[] args, String name, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+}
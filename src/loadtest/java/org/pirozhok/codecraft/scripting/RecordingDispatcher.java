@@ -0,0 +1,46 @@
+package org.pirozhok.codecraft.scripting;
+
+import net.minecraft.server.MinecraftServer;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Выполняет команды скриптов вместо сервера: только считает их по первому слову
+ * и проверяет, что они пришли из главного потока, как того требует настоящий диспетчер.
+ */
+final class RecordingDispatcher implements CommandQueue.Runner {
+    private final Map<String, LongAdder> byCommand = new ConcurrentHashMap<>();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder offThread = new LongAdder();
+
+    @Override
+    public int run(MinecraftServer server, ScriptSource source, String command) {
+        if (!server.isSameThread()) {
+            offThread.increment();
+        }
+        String line = command.startsWith("/") ? command.substring(1) : command;
+        int space = line.indexOf(' ');
+        String root = space < 0 ? line : line.substring(0, space);
+        byCommand.computeIfAbsent(root, key -> new LongAdder()).increment();
+        executed.increment();
+        return 1;
+    }
+
+    long getExecutedCount() {
+        return executed.sum();
+    }
+
+    // Команды, выполненные не в главном потоке; на настоящем сервере это гонка данных
+    long getOffThreadCount() {
+        return offThread.sum();
+    }
+
+    Map<String, Object> getCountsByCommand() {
+        Map<String, Object> counts = new TreeMap<>();
+        byCommand.forEach((root, count) -> counts.put(root, count.sum()));
+        return counts;
+    }
+}
@@ -3,15 +3,22 @@ package org.pirozhok.codecraft;
 import com.mojang.logging.LogUtils;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.RegisterCommandsEvent;
+import net.minecraftforge.event.TickEvent;
 import net.minecraftforge.event.server.ServerStartingEvent;
 import net.minecraftforge.event.server.ServerStoppingEvent;
 import net.minecraftforge.eventbus.api.IEventBus;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.ModLoadingContext;
 import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.config.ModConfig;
 import net.minecraftforge.fml.event.lifecycle.FMLClientSetupEvent;
 import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
 import org.pirozhok.codecraft.commands.ScriptCommand;
+import org.pirozhok.codecraft.scripting.ScriptEventListener;
+import org.pirozhok.codecraft.scripting.ScriptLimits;
+import org.pirozhok.codecraft.scripting.ScriptLog;
 import org.pirozhok.codecraft.scripting.ScriptManager;
+import org.pirozhok.codecraft.scripting.ScriptScheduler;
 import org.slf4j.Logger;
 
 @Mod(CodeCraft.MODID)
@@ -24,11 +31,15 @@ public class CodeCraft
     public CodeCraft() {
         IEventBus modEventBus = FMLJavaModLoadingContext.get().getModEventBus();
 
+        ModLoadingContext.get().registerConfig(ModConfig.Type.COMMON, CodeCraftConfig.SPEC);
+
         // Регистрируем клиентскую настройку
         modEventBus.addListener(this::clientSetup);
 
         // Регистрируем этот класс для событий Forge
         MinecraftForge.EVENT_BUS.register(this);
+        // События Forge, на которые могут подписываться скрипты
+        MinecraftForge.EVENT_BUS.register(new ScriptEventListener());
 
         System.out.println("CodeCraft: Mod constructor called");
     }
@@ -40,20 +51,95 @@ public class CodeCraft
     @SubscribeEvent
     public void onServerStarting(ServerStartingEvent event) {
         System.out.println("CodeCraft: Server starting event received");
-        ScriptManager.getInstance().setServer(event.getServer());
+        ScriptLog.setLevel(CodeCraftConfig.LOG_LEVEL.get());
+        ScriptManager manager = ScriptManager.getInstance();
+        manager.setServer(event.getServer());
         System.out.println("CodeCraft: Server instance set to ScriptManager");
+        manager.configureScriptIndex(CodeCraftConfig.SCRIPTS_RESCAN_SECONDS.get());
+        manager.configureHotReload(
+                CodeCraftConfig.SCRIPTS_HOT_RELOAD.get(),
+                CodeCraftConfig.SCRIPTS_HOT_RELOAD_DEBOUNCE_MS.get()
+        );
+
+        manager.configureContextPool(
+                CodeCraftConfig.CONTEXT_POOL_MIN_IDLE.get(),
+                CodeCraftConfig.CONTEXT_POOL_MAX_SIZE.get(),
+                CodeCraftConfig.CONTEXT_POOL_IDLE_TIMEOUT_SECONDS.get() * 1000L
+        );
+        int workers = CodeCraftConfig.SCHEDULER_WORKERS.get();
+        manager.configureScheduler(
+                workers > 0 ? workers : ScriptScheduler.defaultWorkers(),
+                CodeCraftConfig.SCHEDULER_QUEUE_CAPACITY.get(),
+                CodeCraftConfig.SCHEDULER_REJECTION_POLICY.get()
+        );
+        manager.configureExecution(
+                CodeCraftConfig.EXECUTION_MODE.get(),
+                CodeCraftConfig.TICK_BUDGET_MS.get()
+        );
+        manager.configureCommands(
+                CodeCraftConfig.COMMAND_TIMEOUT_MS.get(),
+                CodeCraftConfig.COMMAND_MAX_PER_TICK.get(),
+                CodeCraftConfig.COMMAND_PARSE_CACHE_SIZE.get()
+        );
+        manager.configureCommandSource(
+                CodeCraftConfig.COMMAND_EXECUTOR_NAME.get(),
+                CodeCraftConfig.COMMAND_PERMISSION_LEVEL.get()
+        );
+        manager.configureLimits(
+                new ScriptLimits(
+                        CodeCraftConfig.LIMIT_MAX_STATEMENTS.get(),
+                        CodeCraftConfig.LIMIT_MAX_WALL_TIME_MS.get(),
+                        CodeCraftConfig.LIMIT_MAX_CPU_TIME_MS.get(),
+                        CodeCraftConfig.LIMIT_MAX_ALLOCATION_MB.get() * (1L << 20),
+                        CodeCraftConfig.LIMIT_MAX_MAIN_THREAD_STEP_MS.get()
+                ),
+                CodeCraftConfig.LIMIT_STOP_TIMEOUT_MS.get()
+        );
+        manager.configureMetrics(
+                CodeCraftConfig.METRICS_JMX.get(),
+                CodeCraftConfig.METRICS_JSON_INTERVAL_SECONDS.get()
+        );
+        manager.configureLogs(
+                CodeCraftConfig.LOG_BUFFER_LINES.get(),
+                CodeCraftConfig.LOG_MAX_LINES_PER_SECOND.get(),
+                CodeCraftConfig.LOG_CONSOLE.get(),
+                CodeCraftConfig.LOG_FILES.get(),
+                CodeCraftConfig.LOG_MAX_FILE_KB.get() * 1024L,
+                CodeCraftConfig.LOG_MAX_FILES.get()
+        );
+        manager.configureMessages(
+                CodeCraftConfig.MESSAGES_COALESCE.get(),
+                CodeCraftConfig.MESSAGES_MAX_LINES.get(),
+                CodeCraftConfig.MESSAGES_COLLAPSE.get()
+        );
+        manager.configureWorldEdit(
+                CodeCraftConfig.WORLD_EDIT_TICK_BUDGET_MS.get(),
+                CodeCraftConfig.WORLD_EDIT_MAX_BLOCKS.get()
+        );
+        if (CodeCraftConfig.CONTEXT_POOL_WARM_ON_START.get()) {
+            manager.warmUp();
+        }
+    }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase == TickEvent.Phase.END) {
+            ScriptManager.getInstance().tick();
+        }
     }
 
     @SubscribeEvent
     public void onServerStopping(ServerStoppingEvent event) {
         System.out.println("CodeCraft: Server stopping event received");
-        ScriptManager.getInstance().stopAllScripts();
+        ScriptManager.getInstance().shutdown();
         System.out.println("CodeCraft: All scripts stopped");
     }
 
     @SubscribeEvent
     public void onRegisterCommands(RegisterCommandsEvent event) {
         System.out.println("CodeCraft: Registering commands");
+        // Диспетчер пересобран: старые разборы ссылаются на прежнее дерево команд
+        ScriptManager.getInstance().getCommandCache().invalidate();
         ScriptCommand.register(event.getDispatcher());
         System.out.println("CodeCraft: Script commands registered");
     }
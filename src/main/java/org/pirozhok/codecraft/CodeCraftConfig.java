@@ -0,0 +1,216 @@
+package org.pirozhok.codecraft;
+
+import net.minecraftforge.common.ForgeConfigSpec;
+import org.pirozhok.codecraft.scripting.BlockEdits;
+import org.pirozhok.codecraft.scripting.CommandCache;
+import org.pirozhok.codecraft.scripting.CommandQueue;
+import org.pirozhok.codecraft.scripting.ResourceGovernor;
+import org.pirozhok.codecraft.scripting.ScriptHotReload;
+import org.pirozhok.codecraft.scripting.ScriptLimits;
+import org.pirozhok.codecraft.scripting.ScriptLog;
+import org.pirozhok.codecraft.scripting.ScriptLogs;
+import org.pirozhok.codecraft.scripting.ScriptManager;
+import org.pirozhok.codecraft.scripting.ScriptMessages;
+import org.pirozhok.codecraft.scripting.ScriptMetrics;
+import org.pirozhok.codecraft.scripting.ScriptScheduler;
+import org.pirozhok.codecraft.scripting.ScriptSource;
+import org.pirozhok.codecraft.scripting.TickBudgetExecutor;
+
+public class CodeCraftConfig {
+    public static final ForgeConfigSpec SPEC;
+
+    public static final ForgeConfigSpec.IntValue SCRIPTS_RESCAN_SECONDS;
+    public static final ForgeConfigSpec.BooleanValue SCRIPTS_HOT_RELOAD;
+    public static final ForgeConfigSpec.IntValue SCRIPTS_HOT_RELOAD_DEBOUNCE_MS;
+
+    public static final ForgeConfigSpec.IntValue CONTEXT_POOL_MIN_IDLE;
+    public static final ForgeConfigSpec.IntValue CONTEXT_POOL_MAX_SIZE;
+    public static final ForgeConfigSpec.IntValue CONTEXT_POOL_IDLE_TIMEOUT_SECONDS;
+    public static final ForgeConfigSpec.BooleanValue CONTEXT_POOL_WARM_ON_START;
+
+    public static final ForgeConfigSpec.IntValue SCHEDULER_WORKERS;
+    public static final ForgeConfigSpec.IntValue SCHEDULER_QUEUE_CAPACITY;
+    public static final ForgeConfigSpec.EnumValue<ScriptScheduler.RejectionPolicy> SCHEDULER_REJECTION_POLICY;
+
+    public static final ForgeConfigSpec.EnumValue<ScriptManager.ExecutionMode> EXECUTION_MODE;
+    public static final ForgeConfigSpec.IntValue TICK_BUDGET_MS;
+
+    public static final ForgeConfigSpec.IntValue COMMAND_TIMEOUT_MS;
+    public static final ForgeConfigSpec.IntValue COMMAND_MAX_PER_TICK;
+    public static final ForgeConfigSpec.IntValue COMMAND_PARSE_CACHE_SIZE;
+    public static final ForgeConfigSpec.ConfigValue<String> COMMAND_EXECUTOR_NAME;
+    public static final ForgeConfigSpec.IntValue COMMAND_PERMISSION_LEVEL;
+
+    public static final ForgeConfigSpec.LongValue LIMIT_MAX_STATEMENTS;
+    public static final ForgeConfigSpec.IntValue LIMIT_MAX_WALL_TIME_MS;
+    public static final ForgeConfigSpec.IntValue LIMIT_MAX_CPU_TIME_MS;
+    public static final ForgeConfigSpec.IntValue LIMIT_MAX_ALLOCATION_MB;
+    public static final ForgeConfigSpec.IntValue LIMIT_MAX_MAIN_THREAD_STEP_MS;
+    public static final ForgeConfigSpec.IntValue LIMIT_STOP_TIMEOUT_MS;
+
+    public static final ForgeConfigSpec.BooleanValue METRICS_JMX;
+    public static final ForgeConfigSpec.IntValue METRICS_JSON_INTERVAL_SECONDS;
+
+    public static final ForgeConfigSpec.EnumValue<ScriptLog.Level> LOG_LEVEL;
+    public static final ForgeConfigSpec.IntValue LOG_BUFFER_LINES;
+    public static final ForgeConfigSpec.IntValue LOG_MAX_LINES_PER_SECOND;
+    public static final ForgeConfigSpec.BooleanValue LOG_CONSOLE;
+    public static final ForgeConfigSpec.BooleanValue LOG_FILES;
+    public static final ForgeConfigSpec.IntValue LOG_MAX_FILE_KB;
+    public static final ForgeConfigSpec.IntValue LOG_MAX_FILES;
+
+    public static final ForgeConfigSpec.BooleanValue MESSAGES_COALESCE;
+    public static final ForgeConfigSpec.IntValue MESSAGES_MAX_LINES;
+    public static final ForgeConfigSpec.EnumValue<ScriptMessages.Collapse> MESSAGES_COLLAPSE;
+
+    public static final ForgeConfigSpec.IntValue WORLD_EDIT_TICK_BUDGET_MS;
+    public static final ForgeConfigSpec.IntValue WORLD_EDIT_MAX_BLOCKS;
+
+    static {
+        ForgeConfigSpec.Builder builder = new ForgeConfigSpec.Builder();
+
+        builder.comment("Script files").push("scripts");
+        SCRIPTS_RESCAN_SECONDS = builder
+                .comment("Script files are indexed in memory and updated from file system events. On network storage that does not report changes, set this to re-check the folder every N seconds; 0 disables it")
+                .defineInRange("rescanSeconds", 0, 0, 86400);
+        SCRIPTS_HOT_RELOAD = builder
+                .comment("Restart a running script when its file changes. The new version is compiled in the background and the running one is kept if it fails to compile")
+                .define("hotReload", false);
+        SCRIPTS_HOT_RELOAD_DEBOUNCE_MS = builder
+                .comment("Wait this long after the last change to a file before reloading, so a burst of saves causes one reload")
+                .defineInRange("hotReloadDebounceMs", (int) ScriptHotReload.DEFAULT_DEBOUNCE_MS, 0, 60000);
+        builder.pop();
+
+        builder.comment("Pool of pre-initialized script contexts").push("contextPool");
+        CONTEXT_POOL_MIN_IDLE = builder
+                .comment("Idle contexts kept ready even when no scripts are running")
+                .defineInRange("minIdle", 2, 0, 256);
+        CONTEXT_POOL_MAX_SIZE = builder
+                .comment("Maximum number of contexts owned by the pool; extra runs get a throwaway context")
+                .defineInRange("maxSize", 16, 1, 1024);
+        CONTEXT_POOL_IDLE_TIMEOUT_SECONDS = builder
+                .comment("Idle contexts above minIdle are closed after this many seconds")
+                .defineInRange("idleTimeoutSeconds", 60, 1, 86400);
+        CONTEXT_POOL_WARM_ON_START = builder
+                .comment("Create minIdle contexts while the server is starting")
+                .define("warmOnStart", true);
+        builder.pop();
+
+        builder.comment("Worker pool that runs scripts").push("scheduler");
+        SCHEDULER_WORKERS = builder
+                .comment("Number of worker threads; 0 means half of the available processors (at least 2)")
+                .defineInRange("workers", 0, 0, 256);
+        SCHEDULER_QUEUE_CAPACITY = builder
+                .comment("Maximum number of script runs waiting for a free worker")
+                .defineInRange("queueCapacity", ScriptScheduler.DEFAULT_QUEUE_CAPACITY, 1, 65536);
+        SCHEDULER_REJECTION_POLICY = builder
+                .comment("What to do when the queue is full: REJECT the new run or REPLACE_LOWEST priority queued run")
+                .defineEnum("rejectionPolicy", ScriptScheduler.RejectionPolicy.REJECT);
+        builder.pop();
+
+        builder.comment("How script runs are driven").push("execution");
+        EXECUTION_MODE = builder
+                .comment("THREADED runs scripts on the worker pool, COOPERATIVE runs them in steps on the server thread")
+                .defineEnum("mode", ScriptManager.ExecutionMode.THREADED);
+        TICK_BUDGET_MS = builder
+                .comment("Milliseconds per server tick shared by all cooperative script steps. Checked between steps; a single step is bounded by limits.maxMainThreadStepMs")
+                .defineInRange("tickBudgetMs", (int) TickBudgetExecutor.DEFAULT_BUDGET_MS, 1, 50);
+        builder.pop();
+
+        builder.comment("Commands issued by scripts").push("commands");
+        COMMAND_TIMEOUT_MS = builder
+                .comment("How long a blocking c.exec waits for the server thread before giving up")
+                .defineInRange("timeoutMs", (int) ScriptManager.DEFAULT_COMMAND_TIMEOUT_MS, 1, 600000);
+        COMMAND_MAX_PER_TICK = builder
+                .comment("Maximum number of queued script commands executed per server tick; the rest wait for the next tick")
+                .defineInRange("maxPerTick", CommandQueue.DEFAULT_MAX_PER_TICK, 1, 1000000);
+        COMMAND_PARSE_CACHE_SIZE = builder
+                .comment("Number of parsed script commands kept for reuse; 0 parses every command again")
+                .defineInRange("parseCacheSize", CommandCache.DEFAULT_MAX_SIZE, 0, 65536);
+        COMMAND_EXECUTOR_NAME = builder
+                .comment("Name scripts run commands as, unless a script sets // @run-as")
+                .define("executorName", ScriptSource.DEFAULT_NAME);
+        COMMAND_PERMISSION_LEVEL = builder
+                .comment("Permission level of script commands (0-4). Scripts may lower it with // @permission but never raise it")
+                .defineInRange("permissionLevel", ScriptSource.DEFAULT_PERMISSION_LEVEL, 0, 4);
+        builder.pop();
+
+        ScriptLimits limits = ResourceGovernor.DEFAULT_LIMITS;
+        builder.comment("Per-step resource limits; a script can override them with // @max-... directives. 0 disables a limit").push("limits");
+        LIMIT_MAX_STATEMENTS = builder
+                .comment("Maximum JavaScript statements per step (GraalVM only)")
+                .defineInRange("maxStatements", limits.getMaxStatements(), 0L, Long.MAX_VALUE);
+        LIMIT_MAX_WALL_TIME_MS = builder
+                .comment("Maximum wall-clock time of one step, including global.sleep")
+                .defineInRange("maxWallTimeMs", (int) limits.getMaxWallTimeMs(), 0, Integer.MAX_VALUE);
+        LIMIT_MAX_CPU_TIME_MS = builder
+                .comment("Maximum CPU time of one step")
+                .defineInRange("maxCpuTimeMs", (int) limits.getMaxCpuTimeMs(), 0, Integer.MAX_VALUE);
+        LIMIT_MAX_ALLOCATION_MB = builder
+                .comment("Maximum memory allocated by one step, in megabytes")
+                .defineInRange("maxAllocationMb", (int) (limits.getMaxAllocatedBytes() >> 20), 0, 1 << 20);
+        LIMIT_MAX_MAIN_THREAD_STEP_MS = builder
+                .comment("Hard limit of one step running on the server thread (cooperative mode, inline event handlers): the step is interrupted and the script is stopped. Cannot be disabled, otherwise one script could hang the server")
+                .defineInRange("maxMainThreadStepMs", (int) limits.getMaxMainThreadStepMs(), 1, 60000);
+        LIMIT_STOP_TIMEOUT_MS = builder
+                .comment("How long a stopped script may take to reach an interruption point before its context is cancelled")
+                .defineInRange("stopTimeoutMs", (int) ResourceGovernor.DEFAULT_STOP_TIMEOUT_MS, 1, 60000);
+        builder.pop();
+
+        builder.comment("Scripting runtime metrics").push("metrics");
+        METRICS_JMX = builder
+                .comment("Expose metrics as the JMX MBean " + ScriptMetrics.OBJECT_NAME)
+                .define("jmx", true);
+        METRICS_JSON_INTERVAL_SECONDS = builder
+                .comment("Write a JSON snapshot to " + ScriptManager.METRICS_FILE + " in the world directory every N seconds; 0 disables it")
+                .defineInRange("jsonIntervalSeconds", 0, 0, 86400);
+        builder.pop();
+
+        builder.comment("Scripting runtime log").push("logging");
+        LOG_LEVEL = builder
+                .comment("Minimum level of runtime messages: DEBUG also logs every command and script run. Script output is always logged")
+                .defineEnum("level", ScriptLog.Level.INFO);
+        LOG_BUFFER_LINES = builder
+                .comment("Lines of output kept in memory per script for /script logs")
+                .defineInRange("bufferLines", ScriptLogs.DEFAULT_BUFFER_LINES, 1, 100000);
+        LOG_MAX_LINES_PER_SECOND = builder
+                .comment("Maximum output lines per second per script; extra lines are dropped. 0 disables the limit")
+                .defineInRange("maxLinesPerSecond", ScriptLogs.DEFAULT_MAX_LINES_PER_SECOND, 0, 1000000);
+        LOG_CONSOLE = builder
+                .comment("Also print script output to the server console")
+                .define("console", true);
+        LOG_FILES = builder
+                .comment("Write script output to scripts/" + ScriptLogs.LOGS_DIR + "/<name>.log")
+                .define("files", false);
+        LOG_MAX_FILE_KB = builder
+                .comment("Size at which a script log file is rotated, in kilobytes")
+                .defineInRange("maxFileKb", (int) (ScriptLogs.DEFAULT_MAX_FILE_BYTES >> 10), 1, 1 << 20);
+        LOG_MAX_FILES = builder
+                .comment("Log files kept per script, including the current one")
+                .defineInRange("maxFiles", ScriptLogs.DEFAULT_MAX_FILES, 1, 100);
+        builder.pop();
+
+        builder.comment("Chat, actionbar and title messages sent by scripts").push("messages");
+        MESSAGES_COALESCE = builder
+                .comment("Deliver messages once per tick: chat lines to the same players are merged, repeated lines from a script are dropped, only the last actionbar/title is sent")
+                .define("coalesce", true);
+        MESSAGES_MAX_LINES = builder
+                .comment("Maximum chat lines merged into one message")
+                .defineInRange("maxLinesPerMessage", ScriptMessages.DEFAULT_MAX_LINES_PER_MESSAGE, 1, 100);
+        MESSAGES_COLLAPSE = builder
+                .comment("When several chat lines reach the same players in one tick: NONE sends them all, ACTIONBAR or TITLE shows only the last one there")
+                .defineEnum("collapse", ScriptMessages.Collapse.NONE);
+        builder.pop();
+
+        builder.comment("Block changes made through c.world").push("worldEdit");
+        WORLD_EDIT_TICK_BUDGET_MS = builder
+                .comment("Main thread time per tick spent writing blocks; larger edits continue on the next ticks")
+                .defineInRange("tickBudgetMs", (int) BlockEdits.DEFAULT_BUDGET_MS, 1, 1000);
+        WORLD_EDIT_MAX_BLOCKS = builder
+                .comment("Maximum number of blocks in one edit")
+                .defineInRange("maxBlocksPerEdit", BlockEdits.DEFAULT_MAX_BLOCKS_PER_EDIT, 1, 1 << 26);
+        builder.pop();
+
+        SPEC = builder.build();
+    }
+}
@@ -1,14 +1,28 @@
 package org.pirozhok.codecraft.commands;
 
 import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.ChatFormatting;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.commands.Commands;
 import net.minecraft.network.chat.Component;
+import org.pirozhok.codecraft.scripting.LatencyHistogram;
+import org.pirozhok.codecraft.scripting.ScriptLogs;
 import org.pirozhok.codecraft.scripting.ScriptManager;
+import org.pirozhok.codecraft.scripting.ScriptProfiler;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 public class ScriptCommand {
+    private static final int DEFAULT_LOG_LINES = 10;
+    private static final DateTimeFormatter LOG_TIME = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
 
     public static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
         dispatcher.register(Commands.literal("script")
@@ -30,6 +44,21 @@ public class ScriptCommand {
                                 .executes(context -> reloadScript(context, StringArgumentType.getString(context, "name")))
                         )
                 )
+                .then(Commands.literal("stats")
+                        .executes(ScriptCommand::showStats)
+                        .then(Commands.argument("name", StringArgumentType.string())
+                                .executes(context -> showScriptStats(context, StringArgumentType.getString(context, "name")))
+                        )
+                )
+                .then(Commands.literal("logs")
+                        .then(Commands.argument("name", StringArgumentType.string())
+                                .executes(context -> showLogs(context, StringArgumentType.getString(context, "name"), DEFAULT_LOG_LINES))
+                                .then(Commands.argument("lines", IntegerArgumentType.integer(1, 100))
+                                        .executes(context -> showLogs(context, StringArgumentType.getString(context, "name"),
+                                                IntegerArgumentType.getInteger(context, "lines")))
+                                )
+                        )
+                )
         );
     }
 
@@ -43,9 +72,11 @@ public class ScriptCommand {
         } else {
             source.sendSuccess(() -> Component.translatable("gui.codecraft.script_list"), false);
             scripts.keySet().forEach(name -> {
-                String status = manager.isScriptRunning(name) ?
-                        Component.translatable("gui.codecraft.status.running").getString() :
-                        Component.translatable("gui.codecraft.status.stopped").getString();
+                String status = switch (manager.getScriptState(name)) {
+                    case QUEUED -> Component.translatable("gui.codecraft.status.queued").getString();
+                    case RUNNING -> Component.translatable("gui.codecraft.status.running").getString();
+                    case FINISHED -> Component.translatable("gui.codecraft.status.stopped").getString();
+                };
                 source.sendSuccess(() -> Component.literal("- " + name + " " + status), false);
             });
         }
@@ -112,4 +143,71 @@ public class ScriptCommand {
             return 0;
         }
     }
-}
\ No newline at end of file
+
+    private static int showStats(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+        List<Map.Entry<String, ScriptProfiler.Stats>> entries = ScriptManager.getInstance().getProfiler().snapshot();
+
+        if (entries.isEmpty()) {
+            source.sendSuccess(() -> Component.translatable("message.codecraft.stats.empty"), false);
+            return 0;
+        }
+        source.sendSuccess(() -> Component.translatable("message.codecraft.stats.header"), false);
+        for (Map.Entry<String, ScriptProfiler.Stats> entry : entries) {
+            ScriptProfiler.Stats stats = entry.getValue();
+            LatencyHistogram time = stats.getExecutionTime();
+            source.sendSuccess(() -> Component.translatable("message.codecraft.stats.line",
+                    entry.getKey(), stats.getRuns(), millis(time.getTotal()),
+                    millis(time.percentile(50)), millis(time.percentile(99)),
+                    stats.getCommands(), millis(stats.getCommandNanos())), false);
+        }
+        return entries.size();
+    }
+
+    private static int showScriptStats(CommandContext<CommandSourceStack> context, String name) {
+        CommandSourceStack source = context.getSource();
+        ScriptProfiler.Stats stats = ScriptManager.getInstance().getProfiler().find(name);
+
+        if (stats == null) {
+            source.sendFailure(Component.translatable("message.codecraft.stats.not_found", name));
+            return 0;
+        }
+        LatencyHistogram time = stats.getExecutionTime();
+        source.sendSuccess(() -> Component.translatable("message.codecraft.stats.script", name), false);
+        source.sendSuccess(() -> Component.translatable("message.codecraft.stats.runs", stats.getRuns()), false);
+        source.sendSuccess(() -> Component.translatable("message.codecraft.stats.time",
+                millis(time.getTotal()), millis(time.getMean()), millis(time.percentile(50)),
+                millis(time.percentile(99)), millis(time.getMax())), false);
+        source.sendSuccess(() -> Component.translatable("message.codecraft.stats.commands",
+                stats.getCommands(), millis(stats.getCommandNanos())), false);
+        source.sendSuccess(() -> Component.translatable("message.codecraft.stats.sleep",
+                millis(stats.getSleepNanos())), false);
+        return 1;
+    }
+
+    private static int showLogs(CommandContext<CommandSourceStack> context, String name, int count) {
+        CommandSourceStack source = context.getSource();
+        List<ScriptLogs.Line> lines = ScriptManager.getInstance().getLogs().tail(name, count);
+
+        if (lines.isEmpty()) {
+            source.sendFailure(Component.translatable("message.codecraft.logs.empty", name));
+            return 0;
+        }
+        source.sendSuccess(() -> Component.translatable("message.codecraft.logs.header", name, lines.size()), false);
+        for (ScriptLogs.Line line : lines) {
+            ChatFormatting color = switch (line.level()) {
+                case ERROR -> ChatFormatting.RED;
+                case WARN -> ChatFormatting.YELLOW;
+                default -> ChatFormatting.WHITE;
+            };
+            source.sendSuccess(() -> Component.literal(LOG_TIME.format(Instant.ofEpochMilli(line.timeMillis())) + " ")
+                    .withStyle(ChatFormatting.GRAY)
+                    .append(Component.literal(line.message()).withStyle(color)), false);
+        }
+        return lines.size();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1_000_000.0);
+    }
+}
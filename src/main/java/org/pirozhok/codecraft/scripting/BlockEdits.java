@@ -0,0 +1,483 @@
+package org.pirozhok.codecraft.scripting;
+
+import it.unimi.dsi.fastutil.shorts.ShortOpenHashSet;
+import it.unimi.dsi.fastutil.shorts.ShortSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ClientboundSectionBlocksUpdatePacket;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.levelgen.Heightmap;
+import net.minecraft.world.level.lighting.LevelLightEngine;
+import net.minecraft.world.level.lighting.LightEngine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Изменения блоков от скриптов в обход setBlock. Скрипт заранее раскладывает изменения по секциям чанков 16x16x16,
+ * а главный поток раз в тик записывает их прямо в {@link LevelChunkSection}: по одному пакету
+ * на секцию, свет пересчитывается после записи секции, соседи обновляются (если нужно) после всей правки.
+ * Большие правки растягиваются на несколько тиков, чтобы уложиться в бюджет времени.
+ * Как и /fill, правка не загружает чанки: если какой-то из её чанков не загружен, она отклоняется.
+ */
+public class BlockEdits {
+    public static final long DEFAULT_BUDGET_MS = 10;
+    public static final int DEFAULT_MAX_BLOCKS_PER_EDIT = 1 << 20;
+
+    private final Queue<Edit> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final LongAdder blocksChanged = new LongAdder();
+    private final LongAdder sectionsWritten = new LongAdder();
+    private final LongAdder packetsSent = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder deferredTicks = new LongAdder();
+
+    private volatile long budgetNanos = DEFAULT_BUDGET_MS * 1_000_000L;
+    private volatile int maxBlocksPerEdit = DEFAULT_MAX_BLOCKS_PER_EDIT;
+
+    // Правка, которая выполняется сейчас; меняет только главный поток
+    private volatile Edit current;
+
+    public void configure(long budgetMs, int maxBlocksPerEdit) {
+        this.budgetNanos = Math.max(1, budgetMs) * 1_000_000L;
+        this.maxBlocksPerEdit = Math.max(1, maxBlocksPerEdit);
+    }
+
+    public int getMaxBlocksPerEdit() {
+        return maxBlocksPerEdit;
+    }
+
+    public CompletableFuture<Integer> submit(Edit edit) {
+        depth.incrementAndGet();
+        queue.add(edit);
+        return edit.future;
+    }
+
+    /**
+     * Записывает секции накопившихся правок, пока не кончится бюджет тика. Хотя бы одна секция
+     * записывается всегда, иначе правка не продвинется. Вызывается из главного потока раз в тик.
+     */
+    public int apply() {
+        if (current == null && queue.isEmpty()) {
+            return 0;
+        }
+        long deadline = System.nanoTime() + budgetNanos;
+        int steps = 0;
+        do {
+            if (current == null) {
+                current = queue.poll();
+                if (current == null) {
+                    break;
+                }
+                depth.decrementAndGet();
+                if (!current.future.isDone()) {
+                    try {
+                        checkLoaded(current);
+                    } catch (IllegalStateException e) {
+                        failed.increment();
+                        current.future.completeExceptionally(e);
+                    }
+                }
+            }
+            // Отменённая или отклонённая правка
+            if (current.future.isDone()) {
+                current = null;
+                continue;
+            }
+            try {
+                if (!step(current)) {
+                    finish(current);
+                    current = null;
+                }
+            } catch (Exception e) {
+                failed.increment();
+                ScriptLog.warn("BlockEdits", "Block edit of {} failed: {}", current.scriptName, e.getMessage());
+                current.future.completeExceptionally(e);
+                current = null;
+            }
+            steps++;
+        } while (System.nanoTime() < deadline);
+
+        if (current != null || !queue.isEmpty()) {
+            deferredTicks.increment();
+        }
+        return steps;
+    }
+
+    /**
+     * Отменяет правки скрипта. Уже записанные секции остаются как есть. Можно вызывать из любого потока:
+     * текущая правка бросается главным потоком на следующем шаге.
+     */
+    public void cancel(String scriptName) {
+        Edit running = current;
+        if (running != null && scriptName.equals(running.scriptName)) {
+            running.future.completeExceptionally(new CancellationException("Script stopped"));
+        }
+        queue.removeIf(edit -> {
+            if (!scriptName.equals(edit.scriptName)) {
+                return false;
+            }
+            depth.decrementAndGet();
+            edit.future.completeExceptionally(new CancellationException("Script stopped"));
+            return true;
+        });
+    }
+
+    public void clear() {
+        Edit running = current;
+        if (running != null) {
+            running.future.completeExceptionally(new CancellationException("Block edits cleared"));
+        }
+        Edit edit;
+        while ((edit = queue.poll()) != null) {
+            depth.decrementAndGet();
+            edit.future.completeExceptionally(new CancellationException("Block edits cleared"));
+        }
+    }
+
+    // Один шаг правки: запись секции или пачка обновлений соседей. false - правка закончена
+    private boolean step(Edit edit) {
+        if (edit.sections.hasNext()) {
+            writeSection(edit, edit.sections.next());
+            return true;
+        }
+        if (edit.neighbors != null && edit.neighborIndex < edit.neighborCount) {
+            int end = Math.min(edit.neighborCount, edit.neighborIndex + LevelChunkSection.SECTION_SIZE);
+            BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+            for (int i = edit.neighborIndex; i < end; i++) {
+                pos.set(edit.neighbors[i]);
+                edit.level.blockUpdated(pos, edit.level.getBlockState(pos).getBlock());
+            }
+            edit.neighborIndex = end;
+            return edit.neighborIndex < edit.neighborCount;
+        }
+        return false;
+    }
+
+    // Проверка всех чанков до первой записи, чтобы правка не осталась наполовину записанной
+    private static void checkLoaded(Edit edit) {
+        long last = Long.MIN_VALUE;
+        for (SectionEdit part : edit.parts) {
+            long chunk = (long) part.chunkX << 32 | part.chunkZ & 0xFFFFFFFFL;
+            if (chunk != last) {
+                loadedChunk(edit.level, part);
+                last = chunk;
+            }
+        }
+    }
+
+    // Загрузка чанка синхронно в главном потоке остановила бы тик, поэтому незагруженный чанк - ошибка
+    private static LevelChunk loadedChunk(ServerLevel level, SectionEdit part) {
+        LevelChunk chunk = level.getChunkSource().getChunkNow(part.chunkX, part.chunkZ);
+        if (chunk == null) {
+            throw new IllegalStateException("Chunk " + part.chunkX + ", " + part.chunkZ + " is not loaded");
+        }
+        return chunk;
+    }
+
+    private void finish(Edit edit) {
+        completed.increment();
+        edit.future.complete(edit.changed);
+    }
+
+    private void writeSection(Edit edit, SectionEdit part) {
+        ServerLevel level = edit.level;
+        // Чанк мог выгрузиться с момента проверки в начале правки
+        LevelChunk chunk = loadedChunk(level, part);
+        LevelChunkSection section = chunk.getSection(chunk.getSectionIndexFromSectionY(part.sectionY));
+        LevelLightEngine light = level.getChunkSource().getLightEngine();
+        boolean wasEmpty = section.hasOnlyAir();
+
+        int baseX = SectionPos.sectionToBlockCoord(part.chunkX);
+        int baseY = SectionPos.sectionToBlockCoord(part.sectionY);
+        int baseZ = SectionPos.sectionToBlockCoord(part.chunkZ);
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        ShortSet changed = new ShortOpenHashSet();
+        List<BlockPos> lightChecks = new ArrayList<>();
+        List<BlockPos> blockEntities = null;
+
+        for (int i = 0, size = part.size(); i < size; i++) {
+            int local = part.position(i);
+            int x = local >> 8 & 15;
+            int y = local & 15;
+            int z = local >> 4 & 15;
+            BlockState state = part.state(i);
+            BlockState old = section.setBlockState(x, y, z, state, false);
+            if (old == state) {
+                continue;
+            }
+            changed.add((short) local);
+            pos.set(baseX + x, baseY + y, baseZ + z);
+
+            for (Map.Entry<Heightmap.Types, Heightmap> heightmap : chunk.getHeightmaps()) {
+                heightmap.getValue().update(x, baseY + y, z, state);
+            }
+            // Тот же блок в другом состоянии (сундук повернули) сохраняет блок-сущность с содержимым
+            boolean sameBlock = state.is(old.getBlock());
+            if (old.hasBlockEntity() && !sameBlock) {
+                chunk.removeBlockEntity(pos);
+            }
+            // Точки интереса (кровати, верстаки профессий) и прочие побочные эффекты смены блока
+            level.onBlockStateChange(pos, old, state);
+            if (LightEngine.hasDifferentLightProperties(level, pos, old, state)) {
+                chunk.getSkyLightSources().update(chunk, x, baseY + y, z);
+                lightChecks.add(pos.immutable());
+            }
+            if (state.hasBlockEntity()) {
+                BlockEntity existing = sameBlock ? chunk.getBlockEntity(pos, LevelChunk.EntityCreationType.CHECK) : null;
+                if (existing != null) {
+                    existing.setBlockState(state);
+                }
+                if (blockEntities == null) {
+                    blockEntities = new ArrayList<>();
+                }
+                blockEntities.add(pos.immutable());
+            }
+            edit.recordNeighbor(pos.asLong());
+        }
+
+        sectionsWritten.increment();
+        if (changed.isEmpty()) {
+            return;
+        }
+        edit.changed += changed.size();
+        blocksChanged.add(changed.size());
+        chunk.setUnsaved(true);
+
+        // Свет пересчитывается движком освещения позже, вместе с остальными изменениями тика
+        SectionPos sectionPos = SectionPos.of(part.chunkX, part.sectionY, part.chunkZ);
+        boolean empty = section.hasOnlyAir();
+        if (empty != wasEmpty) {
+            light.updateSectionStatus(sectionPos, empty);
+        }
+        for (BlockPos check : lightChecks) {
+            light.checkBlock(check);
+        }
+
+        List<ServerPlayer> players = level.getChunkSource().chunkMap.getPlayers(chunk.getPos(), false);
+        if (players.isEmpty()) {
+            if (blockEntities != null) {
+                for (BlockPos blockEntityPos : blockEntities) {
+                    chunk.getBlockEntity(blockEntityPos, LevelChunk.EntityCreationType.IMMEDIATE);
+                }
+            }
+            return;
+        }
+        send(players, new ClientboundSectionBlocksUpdatePacket(sectionPos, changed, section));
+        if (blockEntities != null) {
+            for (BlockPos blockEntityPos : blockEntities) {
+                BlockEntity blockEntity = chunk.getBlockEntity(blockEntityPos, LevelChunk.EntityCreationType.IMMEDIATE);
+                Packet<?> update = blockEntity != null ? blockEntity.getUpdatePacket() : null;
+                if (update != null) {
+                    send(players, update);
+                }
+            }
+        }
+    }
+
+    private void send(List<ServerPlayer> players, Packet<?> packet) {
+        for (ServerPlayer player : players) {
+            player.connection.send(packet);
+        }
+        packetsSent.add(players.size());
+    }
+
+    public int getDepth() {
+        return depth.get() + (current != null ? 1 : 0);
+    }
+
+    public long getBlocksChanged() {
+        return blocksChanged.sum();
+    }
+
+    public long getSectionsWritten() {
+        return sectionsWritten.sum();
+    }
+
+    public long getPacketsSent() {
+        return packetsSent.sum();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    // Тики, после которых правки остались недописанными из-за бюджета
+    public long getDeferredTicks() {
+        return deferredTicks.sum();
+    }
+
+    /**
+     * Правка одного скрипта, уже разложенная по секциям. Собирается в потоке скрипта через {@link Builder}.
+     */
+    public static final class Edit {
+        private final ServerLevel level;
+        private final String scriptName;
+        private final List<SectionEdit> parts;
+        private final Iterator<SectionEdit> sections;
+        private final CompletableFuture<Integer> future = new CompletableFuture<>();
+        // Изменённые позиции для обновления соседей; null - соседи не обновляются
+        private long[] neighbors;
+        private int neighborCount;
+        private int neighborIndex;
+        private int changed;
+
+        private Edit(ServerLevel level, String scriptName, List<SectionEdit> sections, boolean updateNeighbors) {
+            this.level = level;
+            this.scriptName = scriptName;
+            this.parts = sections;
+            this.sections = sections.iterator();
+            this.neighbors = updateNeighbors ? new long[64] : null;
+        }
+
+        private void recordNeighbor(long pos) {
+            if (neighbors == null) {
+                return;
+            }
+            if (neighborCount == neighbors.length) {
+                neighbors = Arrays.copyOf(neighbors, neighborCount * 2);
+            }
+            neighbors[neighborCount++] = pos;
+        }
+    }
+
+    /**
+     * Раскладывает блоки по секциям. Не потокобезопасен: собирается одним потоком и отдаётся в {@link #submit}.
+     */
+    public static final class Builder {
+        private final ServerLevel level;
+        private final String scriptName;
+        private final int maxBlocks;
+        private final int minY;
+        private final int maxY;
+        private final Map<Long, SectionEdit> sections = new LinkedHashMap<>();
+        private long blocks;
+
+        public Builder(ServerLevel level, String scriptName, int maxBlocks) {
+            this.level = level;
+            this.scriptName = scriptName;
+            this.maxBlocks = maxBlocks;
+            this.minY = level.getMinBuildHeight();
+            this.maxY = level.getMaxBuildHeight();
+        }
+
+        // Блоки вне высоты мира пропускаются, как у fill
+        public void set(int x, int y, int z, BlockState state) {
+            if (y < minY || y >= maxY) {
+                return;
+            }
+            count(1);
+            int chunkX = SectionPos.blockToSectionCoord(x);
+            int sectionY = SectionPos.blockToSectionCoord(y);
+            int chunkZ = SectionPos.blockToSectionCoord(z);
+            SectionEdit section = sections.computeIfAbsent(SectionPos.asLong(chunkX, sectionY, chunkZ),
+                    key -> new SectionEdit(chunkX, sectionY, chunkZ));
+            section.add((x & 15) << 8 | (z & 15) << 4 | (y & 15), state);
+        }
+
+        /**
+         * Заполняет параллелепипед; границы включительно и в любом порядке.
+         */
+        public void fill(int x1, int y1, int z1, int x2, int y2, int z2, BlockState state) {
+            int minX = Math.min(x1, x2), maxX = Math.max(x1, x2);
+            int minZ = Math.min(z1, z2), maxZ = Math.max(z1, z2);
+            int fromY = Math.max(minY, Math.min(y1, y2));
+            int toY = Math.min(maxY - 1, Math.max(y1, y2));
+            if (fromY > toY) {
+                return;
+            }
+            count((long) (maxX - minX + 1) * (toY - fromY + 1) * (maxZ - minZ + 1));
+            // Обход по секциям, а не по блокам: каждая секция получает сразу весь свой кусок
+            for (int chunkX = SectionPos.blockToSectionCoord(minX); chunkX <= SectionPos.blockToSectionCoord(maxX); chunkX++) {
+                for (int chunkZ = SectionPos.blockToSectionCoord(minZ); chunkZ <= SectionPos.blockToSectionCoord(maxZ); chunkZ++) {
+                    for (int sectionY = SectionPos.blockToSectionCoord(fromY); sectionY <= SectionPos.blockToSectionCoord(toY); sectionY++) {
+                        int cx = chunkX, sy = sectionY, cz = chunkZ;
+                        SectionEdit section = sections.computeIfAbsent(SectionPos.asLong(cx, sy, cz), key -> new SectionEdit(cx, sy, cz));
+                        int baseX = cx << 4, baseY = sy << 4, baseZ = cz << 4;
+                        for (int y = Math.max(fromY, baseY); y <= Math.min(toY, baseY + 15); y++) {
+                            for (int z = Math.max(minZ, baseZ); z <= Math.min(maxZ, baseZ + 15); z++) {
+                                for (int x = Math.max(minX, baseX); x <= Math.min(maxX, baseX + 15); x++) {
+                                    section.add((x & 15) << 8 | (z & 15) << 4 | (y & 15), state);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        private void count(long added) {
+            blocks += added;
+            if (blocks > maxBlocks) {
+                throw new IllegalArgumentException("Too many blocks in one edit: " + blocks + ", the limit is " + maxBlocks);
+            }
+        }
+
+        public long getBlockCount() {
+            return blocks;
+        }
+
+        public Edit build(boolean updateNeighbors) {
+            return new Edit(level, scriptName, new ArrayList<>(sections.values()), updateNeighbors);
+        }
+    }
+
+    // Изменения одной секции: упакованная позиция внутри секции (x << 8 | z << 4 | y) и новое состояние
+    private static final class SectionEdit {
+        private final int chunkX;
+        private final int sectionY;
+        private final int chunkZ;
+        private short[] positions = new short[16];
+        private BlockState[] states = new BlockState[16];
+        private int size;
+
+        private SectionEdit(int chunkX, int sectionY, int chunkZ) {
+            this.chunkX = chunkX;
+            this.sectionY = sectionY;
+            this.chunkZ = chunkZ;
+        }
+
+        private void add(int position, BlockState state) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+                states = Arrays.copyOf(states, size * 2);
+            }
+            positions[size] = (short) position;
+            states[size] = state;
+            size++;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private int position(int index) {
+            return positions[index];
+        }
+
+        private BlockState state(int index) {
+            return states[index];
+        }
+    }
+}
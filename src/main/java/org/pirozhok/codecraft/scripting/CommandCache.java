@@ -0,0 +1,123 @@
+package org.pirozhok.codecraft.scripting;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.ParseResults;
+import net.minecraft.commands.CommandSourceStack;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Кэш разобранных команд: скрипты раз за разом шлют одни и те же строки, а полный разбор Brigadier
+ * дороже самого выполнения многих команд. Ключ - строка команды и источник, от имени которого она разобрана,
+ * потому что {@link ParseResults} хранит источник внутри. Селекторы (@a, @p) вычисляются при выполнении,
+ * так что повторное выполнение разобранной команды видит текущее состояние мира.
+ * <p>
+ * Разбор привязан к дереву команд, поэтому кэш сбрасывается, когда сервер пересобирает диспетчер
+ * (перезагрузка датапаков, RegisterCommandsEvent). Используется только из главного потока.
+ */
+public class CommandCache {
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private final Entries entries = new Entries();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    private volatile int maxSize = DEFAULT_MAX_SIZE;
+    // Диспетчер, которым разобраны команды в кэше
+    private CommandDispatcher<CommandSourceStack> dispatcher;
+
+    // 0 отключает кэш
+    public synchronized void configure(int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        if (this.maxSize == 0) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Разобранная команда из кэша или новый разбор. sourceKey однозначно описывает источник:
+     * одинаковый ключ означает, что источник можно использовать повторно; null - источник меняется
+     * от вызова к вызову, и команда разбирается заново. source создаётся только при промахе.
+     */
+    public synchronized ParseResults<CommandSourceStack> parse(CommandDispatcher<CommandSourceStack> dispatcher, String sourceKey,
+                                                               Supplier<CommandSourceStack> source, String command) {
+        if (this.dispatcher != dispatcher) {
+            if (this.dispatcher != null) {
+                invalidate();
+            }
+            this.dispatcher = dispatcher;
+        }
+        if (maxSize == 0 || sourceKey == null) {
+            misses.increment();
+            return dispatcher.parse(command, source.get());
+        }
+
+        Key key = new Key(sourceKey, command);
+        ParseResults<CommandSourceStack> parse = entries.get(key);
+        if (parse != null) {
+            hits.increment();
+            return parse;
+        }
+        misses.increment();
+        parse = dispatcher.parse(command, source.get());
+        entries.put(key, parse);
+        return parse;
+    }
+
+    public synchronized void invalidate() {
+        if (!entries.isEmpty()) {
+            invalidations.increment();
+            ScriptLog.debug("CommandCache", "Command dispatcher changed, dropping {} parsed commands", entries.size());
+        }
+        entries.clear();
+        dispatcher = null;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    private record Key(String source, String command) {
+    }
+
+    // LinkedHashMap в порядке обращений: самая давно использованная команда вытесняется первой
+    private final class Entries extends LinkedHashMap<Key, ParseResults<CommandSourceStack>> {
+        private Entries() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, ParseResults<CommandSourceStack>> eldest) {
+            if (size() > maxSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
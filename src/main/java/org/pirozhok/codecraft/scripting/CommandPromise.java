@@ -0,0 +1,86 @@
+package org.pirozhok.codecraft.scripting;
+
+import javax.script.ScriptException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Результат асинхронной команды для скриптов. Поддерживает then(...), поэтому его можно
+ * использовать с await и Promise.all. Колбэки выполняются в потоке скрипта через его очередь сообщений.
+ */
+public class CommandPromise {
+    private final String command;
+    private final CompletableFuture<Integer> future;
+    private final ScriptExecutionContext owner;
+
+    // Доступны только из выполнения скрипта
+    private final List<Object[]> callbacks = new ArrayList<>();
+    private boolean delivered;
+
+    CommandPromise(String command, CompletableFuture<Integer> future, ScriptExecutionContext owner) {
+        this.command = command;
+        this.future = future;
+        this.owner = owner;
+
+        if (owner != null) {
+            owner.retainOperation();
+            future.whenComplete((result, error) -> owner.post(this::deliver));
+        }
+    }
+
+    public CommandPromise then(Object onResolve) throws ScriptException {
+        return then(onResolve, null);
+    }
+
+    public CommandPromise then(Object onResolve, Object onReject) throws ScriptException {
+        if (owner == null) {
+            throw new IllegalStateException("Command callbacks are only available inside a running script");
+        }
+        Object[] pair = {onResolve, onReject};
+        if (delivered) {
+            call(pair);
+        } else {
+            callbacks.add(pair);
+        }
+        return this;
+    }
+
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    /**
+     * Блокирующее ожидание: true, если команда выполнилась успешно.
+     */
+    public boolean get() {
+        return getResult() > 0;
+    }
+
+    /**
+     * Блокирующее ожидание результата performPrefixedCommand; 0 при ошибке или таймауте.
+     */
+    public int getResult() {
+        return ScriptManager.awaitCommand(command, future, owner);
+    }
+
+    private void deliver() throws ScriptException {
+        delivered = true;
+        owner.releaseOperation();
+        for (Object[] pair : callbacks) {
+            call(pair);
+        }
+        callbacks.clear();
+    }
+
+    private void call(Object[] pair) throws ScriptException {
+        if (future.isCompletedExceptionally()) {
+            if (pair[1] != null) {
+                Throwable error = future.handle((result, e) -> e).join();
+                owner.invokeCallback(pair[1], String.valueOf(error != null ? error.getMessage() : null));
+            }
+        } else if (pair[0] != null) {
+            owner.invokeCallback(pair[0], future.join());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.pirozhok.codecraft.scripting;
+
+import net.minecraft.server.MinecraftServer;
+
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Очередь команд от скриптов. Скрипты только добавляют команды, а главный поток раз в тик
+ * выполняет их пачкой по порядку, не больше заданного числа за тик. Остаток ждёт следующего тика.
+ */
+public class CommandQueue {
+    public static final int DEFAULT_MAX_PER_TICK = 1000;
+
+    @FunctionalInterface
+    public interface Runner {
+        int run(MinecraftServer server, ScriptSource source, String command) throws Exception;
+    }
+
+    private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder deferredTicks = new LongAdder();
+    // От постановки в очередь до результата и только выполнение в главном потоке
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram executionTime = new LatencyHistogram();
+
+    private volatile Runner runner;
+    private volatile int maxPerTick = DEFAULT_MAX_PER_TICK;
+    private volatile int lastTickCount;
+
+    public CommandQueue(Runner runner) {
+        this.runner = runner;
+    }
+
+    public void configure(int maxPerTick) {
+        this.maxPerTick = Math.max(1, maxPerTick);
+    }
+
+    public void setRunner(Runner runner) {
+        this.runner = runner;
+    }
+
+    /**
+     * source - от чьего имени выполняется команда.
+     * stats - статистика скрипта, которому засчитывается время главного потока на эту команду; может быть null.
+     */
+    public CompletableFuture<Integer> submit(MinecraftServer server, ScriptSource source, String command, ScriptProfiler.Stats stats) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        depth.incrementAndGet();
+        submitted.increment();
+        queue.add(new Pending(server, source, command, future, stats, System.nanoTime()));
+        return future;
+    }
+
+    /**
+     * Выполняет команду сразу, минуя очередь. Только из главного потока.
+     */
+    public CompletableFuture<Integer> runNow(MinecraftServer server, ScriptSource source, String command, ScriptProfiler.Stats stats) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        submitted.increment();
+        complete(new Pending(server, source, command, future, stats, System.nanoTime()));
+        return future;
+    }
+
+    /**
+     * Выполняет накопившиеся команды в порядке поступления. Вызывается из главного потока раз в тик.
+     */
+    public int drain() {
+        int limit = maxPerTick;
+        int count = 0;
+        Pending pending;
+        while (count < limit && (pending = queue.poll()) != null) {
+            depth.decrementAndGet();
+            complete(pending);
+            count++;
+        }
+        if (count == limit && !queue.isEmpty()) {
+            deferredTicks.increment();
+        }
+        lastTickCount = count;
+        return count;
+    }
+
+    /**
+     * Отменяет все невыполненные команды: ожидающие их скрипты получат ошибку, а не повиснут.
+     */
+    public void clear() {
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            depth.decrementAndGet();
+            pending.future.completeExceptionally(new CancellationException("Command queue cleared"));
+        }
+    }
+
+    private void complete(Pending pending) {
+        long start = System.nanoTime();
+        try {
+            int result = runner.run(pending.server, pending.source, pending.command);
+            executed.increment();
+            pending.future.complete(result);
+        } catch (Exception e) {
+            failed.increment();
+            ScriptLog.warn("CommandQueue", "Error executing command: {} - {}", pending.command, e.getMessage());
+            pending.future.completeExceptionally(e);
+        } finally {
+            long end = System.nanoTime();
+            executionTime.record(end - start);
+            latency.record(end - pending.submittedAt);
+            if (pending.stats != null) {
+                pending.stats.recordCommandTime(end - start);
+            }
+        }
+    }
+
+    public int getDepth() {
+        return depth.get();
+    }
+
+    public int getMaxPerTick() {
+        return maxPerTick;
+    }
+
+    public int getLastTickCount() {
+        return lastTickCount;
+    }
+
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    public long getExecutedCount() {
+        return executed.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    // Тики, после которых в очереди остались команды из-за лимита
+    public long getDeferredTicks() {
+        return deferredTicks.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public LatencyHistogram getExecutionTime() {
+        return executionTime;
+    }
+
+    private record Pending(MinecraftServer server, ScriptSource source, String command, CompletableFuture<Integer> future, ScriptProfiler.Stats stats, long submittedAt) {
+    }
+}
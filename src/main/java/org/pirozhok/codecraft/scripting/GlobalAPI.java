@@ -2,24 +2,181 @@ package org.pirozhok.codecraft.scripting;
 
 import net.minecraft.server.MinecraftServer;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class GlobalAPI {
     private final MinecraftServer server;
-    private final String scriptName;
+    private volatile String scriptName;
+    private volatile ScriptExecutionContext owner;
+
+    // Таймеры текущего запуска; доступны только из выполнения скрипта
+    private final Map<Long, ScriptTimer> timers = new HashMap<>();
+    private long nextTimerId;
 
     public GlobalAPI(MinecraftServer server, String scriptName) {
         this.server = server;
         this.scriptName = scriptName;
     }
 
+    // Объекты API живут вместе с контекстом из пула и переназначаются на каждый новый запуск
+    void setOwner(ScriptExecutionContext owner) {
+        // Таймеры предыдущего запуска не должны сработать в чужом скрипте
+        for (ScriptTimer timer : timers.values()) {
+            timer.done = true;
+            timer.handle.cancel();
+        }
+        timers.clear();
+        this.owner = owner;
+        this.scriptName = owner != null ? owner.getScriptName() : null;
+    }
+
     public void print(Object obj) {
-        System.out.println("[" + scriptName + "] " + String.valueOf(obj));
+        ScriptManager.getInstance().getLogs().write(scriptName, ScriptLog.Level.INFO, String.valueOf(obj));
     }
 
     public void sleep(long milliseconds) {
+        if (server != null && server.isSameThread()) {
+            // В кооперативном режиме скрипт выполняется в главном потоке, sleep остановил бы весь сервер
+            throw new IllegalStateException("global.sleep is not available in cooperative execution mode");
+        }
+        long start = System.nanoTime();
         try {
             Thread.sleep(milliseconds);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+        } finally {
+            long slept = System.nanoTime() - start;
+            String name = scriptName;
+            if (name != null) {
+                ScriptManager.getInstance().getProfiler().get(name).recordSleep(slept);
+            }
+            ScriptExecutionContext context = owner;
+            if (context != null) {
+                context.recordBlocked(slept);
+            }
+        }
+    }
+
+    // Таймеры не занимают поток: колбэк выполнится в скрипте, когда наступит нужный тик
+    public long setTimeout(Object callback, long milliseconds) {
+        return schedule(TimerWheel.millisToTicks(milliseconds), 0, callback);
+    }
+
+    public long setInterval(Object callback, long milliseconds) {
+        long ticks = TimerWheel.millisToTicks(milliseconds);
+        return schedule(ticks, ticks, callback);
+    }
+
+    public long after(long ticks, Object callback) {
+        return schedule(ticks, 0, callback);
+    }
+
+    // Для корутин: yield ticks(n) / yield until(fn)
+    public ScriptWait ticks(long ticks) {
+        return ScriptWait.ticks(ticks);
+    }
+
+    public ScriptWait until(Object condition) {
+        return ScriptWait.until(condition);
+    }
+
+    /**
+     * Вызывает resume, когда наступит то, что корутина отдала через yield: число или ticks(n) - через
+     * столько тиков, until(fn) - когда fn вернёт true, результат c.execAsync - когда команда выполнится,
+     * пустой yield - на следующем тике.
+     */
+    public void waitFor(Object awaited, Object resume) {
+        if (awaited instanceof CommandPromise promise) {
+            try {
+                promise.then(resume);
+            } catch (Exception e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+            return;
+        }
+        if (awaited instanceof Number number) {
+            awaited = ScriptWait.ticks(number.longValue());
+        } else if (awaited == null) {
+            awaited = ScriptWait.ticks(1);
+        } else if (!(awaited instanceof ScriptWait)) {
+            throw new IllegalArgumentException("Cannot wait for " + awaited + ", yield ticks(n), until(fn) or a number of ticks");
+        }
+
+        ScriptWait wait = (ScriptWait) awaited;
+        if (!wait.isCondition()) {
+            after(wait.getTicks(), resume);
+            return;
+        }
+
+        long[] id = new long[1];
+        id[0] = schedule(1, 1, current -> {
+            if (Boolean.TRUE.equals(current.invokeCallback(wait.getCondition()))) {
+                cancel(id[0]);
+                current.invokeCallback(resume);
+            }
+        });
+    }
+
+    public boolean cancel(long id) {
+        ScriptTimer timer = timers.remove(id);
+        if (timer == null) {
+            return false;
+        }
+        timer.handle.cancel();
+        if (!timer.done) {
+            timer.done = true;
+            owner.releaseOperation();
+        }
+        return true;
+    }
+
+    private long schedule(long delayTicks, long periodTicks, Object callback) {
+        return schedule(delayTicks, periodTicks, current -> current.invokeCallback(callback));
+    }
+
+    private long schedule(long delayTicks, long periodTicks, TimerAction action) {
+        ScriptExecutionContext current = owner;
+        if (current == null) {
+            throw new IllegalStateException("Timers are only available inside a running script");
+        }
+
+        long id = ++nextTimerId;
+        ScriptTimer timer = new ScriptTimer(action, periodTicks > 0);
+        // Скрипт остаётся активным, пока таймер не сработал или не отменён
+        current.retainOperation();
+        timer.handle = ScriptManager.getInstance().getTimerWheel()
+                .schedule(delayTicks, periodTicks, () -> current.post(() -> fire(current, id, timer)));
+        timers.put(id, timer);
+        return id;
+    }
+
+    private void fire(ScriptExecutionContext current, long id, ScriptTimer timer) throws Exception {
+        if (timer.done) {
+            return;
+        }
+        if (!timer.periodic) {
+            timer.done = true;
+            timers.remove(id);
+            current.releaseOperation();
+        }
+        timer.action.run(current);
+    }
+
+    @FunctionalInterface
+    private interface TimerAction {
+        void run(ScriptExecutionContext current) throws Exception;
+    }
+
+    private static final class ScriptTimer {
+        private final TimerAction action;
+        private final boolean periodic;
+        private TimerWheel.Timer handle;
+        private boolean done;
+
+        private ScriptTimer(TimerAction action, boolean periodic) {
+            this.action = action;
+            this.periodic = periodic;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+package org.pirozhok.codecraft.scripting;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Кольцевой буфер фиксированного размера: много писателей, один читатель, без блокировок.
+ * Писатель занимает номер ячейки через CAS и кладёт в неё запись; читатель забирает записи строго
+ * по порядку номеров и ждёт, пока занятая ячейка заполнится. Если буфер полон, запись отбрасывается -
+ * писатель никогда не ждёт читателя.
+ */
+final class LogRing<T> {
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    // Пишет только читатель
+    private volatile long tail;
+
+    LogRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    boolean offer(T item) {
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail >= slots.length()) {
+                return false;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+        slots.set((int) (sequence & mask), item);
+        return true;
+    }
+
+    /**
+     * Следующая запись или null, если буфер пуст или очередная ячейка ещё заполняется. Только для читателя.
+     */
+    T poll() {
+        long sequence = tail;
+        int index = (int) (sequence & mask);
+        T item = slots.get(index);
+        if (item == null) {
+            return null;
+        }
+        slots.lazySet(index, null);
+        tail = sequence + 1;
+        return item;
+    }
+
+    // Номер, который получит следующая запись
+    long claimed() {
+        return head.get();
+    }
+
+    long consumed() {
+        return tail;
+    }
+
+    int capacity() {
+        return slots.length();
+    }
+}
@@ -1,17 +1,54 @@
 package org.pirozhok.codecraft.scripting;
 
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import net.minecraft.ChatFormatting;
+import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.ComponentUtils;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.Level;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class MappetContext {
     private final MinecraftServer server;
-    private final String scriptName;
+    private volatile String scriptName;
+    private volatile ScriptExecutionContext owner;
+
+    // Изменение блоков без команд: c.world.fill(...), c.world.setBlocks(...)
+    public final ScriptWorld world = new ScriptWorld(this, Level.OVERWORLD);
+
+    // Подписки текущего запуска; доступны только из выполнения скрипта
+    private final Map<Long, ScriptEvents.Subscription> subscriptions = new HashMap<>();
+    private long nextSubscriptionId;
 
     public MappetContext(MinecraftServer server, String scriptName) {
         this.server = server;
         this.scriptName = scriptName;
-        System.out.println("MappetContext: Created for script: " + scriptName + ", server: " + (server != null ? "available" : "null"));
+        ScriptLog.debug("MappetContext", "Created for script: {}, server: {}", scriptName, server != null ? "available" : "null");
+    }
+
+    void setOwner(ScriptExecutionContext owner) {
+        // Подписки предыдущего запуска снимаются вместе с ним
+        ScriptEvents events = ScriptManager.getInstance().getEvents();
+        for (ScriptEvents.Subscription subscription : subscriptions.values()) {
+            events.unsubscribe(subscription);
+        }
+        subscriptions.clear();
+        this.owner = owner;
+        this.scriptName = owner != null ? owner.getScriptName() : null;
+    }
+
+    String getScriptName() {
+        return scriptName;
+    }
+
+    ScriptExecutionContext getOwner() {
+        return owner;
     }
 
     public MinecraftServer getSubject() {
@@ -23,9 +60,8 @@ public class MappetContext {
     }
 
     public boolean executeCommand(String command) {
-        System.out.println("MappetContext: executeCommand: " + command);
-        boolean result = ScriptManager.executeCommandSafe(server, command);
-        System.out.println("MappetContext: Command result: " + result);
+        boolean result = ScriptManager.awaitCommand(command, submit(command), owner) > 0;
+        ScriptLog.debug("MappetContext", "executeCommand: {} Result: {}", command, result);
         return result;
     }
 
@@ -33,55 +69,169 @@ public class MappetContext {
         return executeCommand(command);
     }
 
+    // Не блокирует скрипт: результат можно получить через then(...) или await
+    public CommandPromise execAsync(String command) {
+        return new CommandPromise(command, submit(command), owner);
+    }
+
+    // Команды идут от имени источника скрипта (директивы @run-as, @permission и другие)
+    private CompletableFuture<Integer> submit(String command) {
+        ScriptExecutionContext context = owner;
+        return ScriptManager.submitCommand(server, command, scriptName, context != null ? context.getSource() : null);
+    }
+
+    /**
+     * Подписывает функцию на событие (player_join, player_leave, player_respawn, block_break, block_place, chat).
+     * Обработчик выполняется в потоке скрипта; с inline = true - сразу в главном потоке, если скрипт не занят,
+     * и тогда он может отменить событие через e.cancel(). Возвращает id подписки для off(id).
+     */
+    public long on(String type, Object handler) {
+        return on(type, handler, false);
+    }
+
+    public long on(String type, Object handler, boolean inline) {
+        ScriptExecutionContext current = owner;
+        if (current == null) {
+            throw new IllegalStateException("Event handlers are only available inside a running script");
+        }
+        ScriptEvents.Type eventType = ScriptEvents.Type.byId(type);
+        long id = ++nextSubscriptionId;
+        // Скрипт остаётся запущенным, пока у него есть подписки
+        current.retainOperation();
+        subscriptions.put(id, ScriptManager.getInstance().getEvents().subscribe(eventType, current, handler, inline));
+        return id;
+    }
+
+    public boolean off(long id) {
+        ScriptEvents.Subscription subscription = subscriptions.remove(id);
+        if (subscription == null) {
+            return false;
+        }
+        ScriptManager.getInstance().getEvents().unsubscribe(subscription);
+        owner.releaseOperation();
+        return true;
+    }
+
     // Mappet-style command execution
     public boolean command(String command) {
         return executeCommand(command);
     }
 
+    // Сообщения строятся сразу как Component и рассылаются главным потоком без команды tellraw
     public void sendMessage(String message) {
-        System.out.println("MappetContext: sendMessage: " + message);
-        if (server != null) {
-            server.getPlayerList().broadcastSystemMessage(Component.literal(message), false);
-        } else {
-            System.err.println("MappetContext: Cannot send message - server is null");
-        }
+        ScriptLog.debug("MappetContext", "sendMessage: {}", message);
+        send(null, Component.literal(message), false);
     }
 
+    /**
+     * target - имя игрока, массив имён или "all".
+     */
+    public void sendTo(Object target, String message) {
+        send(target, Component.literal(message), false);
+    }
+
+    public void actionbar(String message) {
+        send(null, Component.literal(message), true);
+    }
+
+    public void actionbar(Object target, String message) {
+        send(target, Component.literal(message), true);
+    }
+
+    public void title(String title) {
+        title(null, title, null);
+    }
+
+    public void title(String title, String subtitle) {
+        title(null, title, subtitle);
+    }
+
+    public void title(Object target, String title, String subtitle) {
+        ScriptManager.getInstance().getMessages().sendTitle(server, scriptName, ScriptMessages.targets(target),
+                Component.literal(title), subtitle != null ? Component.literal(subtitle) : null);
+    }
+
+    // Форматированное сообщение: c.text("a").gold().then("b").bold().send()
+    public ScriptText text(String text) {
+        return new ScriptText(server, scriptName, text);
+    }
+
+    /**
+     * Сообщение в формате JSON, как у команды tellraw, всем игрокам. Селекторы, счёт и NBT в нём
+     * разрешаются для каждого игрока от имени источника скрипта, как это делает tellraw @a.
+     */
     public void tellraw(String jsonMessage) {
-        System.out.println("MappetContext: tellraw: " + jsonMessage);
-        executeCommand("tellraw @a " + jsonMessage);
+        ScriptLog.debug("MappetContext", "tellraw: {}", jsonMessage);
+        Component message;
+        try {
+            message = Component.Serializer.fromJson(jsonMessage);
+        } catch (RuntimeException e) {
+            ScriptLog.warn("MappetContext", "Invalid tellraw JSON: {} - {}", jsonMessage, e.getMessage());
+            return;
+        }
+        if (message == null) {
+            return;
+        }
+        if (!needsResolve(jsonMessage) || server == null) {
+            send(null, message, false);
+            return;
+        }
+        ScriptExecutionContext context = owner;
+        ScriptSource source = context != null ? context.getSource() : ScriptSource.SERVER;
+        String name = scriptName;
+        server.execute(() -> tellrawResolved(source, name, message));
+    }
+
+    // Только такие компоненты зависят от получателя; лишнее совпадение лишь отправит сообщение медленным путём
+    private static boolean needsResolve(String jsonMessage) {
+        return jsonMessage.contains("\"selector\"") || jsonMessage.contains("\"score\"") || jsonMessage.contains("\"nbt\"");
+    }
+
+    // Главный поток: как ComponentUtils.updateForEntity в команде tellraw
+    private void tellrawResolved(ScriptSource source, String name, Component message) {
+        CommandSourceStack stack;
+        try {
+            stack = source.resolve(server);
+        } catch (IllegalStateException e) {
+            ScriptLog.warn("MappetContext", "Cannot send tellraw from {}: {}", name, e.getMessage());
+            return;
+        }
+        ScriptMessages messages = ScriptManager.getInstance().getMessages();
+        for (ServerPlayer player : server.getPlayerList().getPlayers()) {
+            try {
+                messages.send(server, name, List.of(player.getScoreboardName()), ComponentUtils.updateForEntity(stack, message, player, 0), false);
+            } catch (CommandSyntaxException e) {
+                ScriptLog.warn("MappetContext", "Cannot resolve tellraw for {}: {}", player.getScoreboardName(), e.getMessage());
+            }
+        }
     }
 
     public void tellrawText(String text) {
-        tellraw("{\"text\":\"" + escapeJson(text) + "\"}");
+        send(null, Component.literal(text), false);
     }
 
     public void tellrawGold(String text) {
-        tellraw("{\"text\":\"" + escapeJson(text) + "\",\"color\":\"gold\"}");
+        send(null, Component.literal(text).withStyle(ChatFormatting.GOLD), false);
     }
 
     public void tellrawRed(String text) {
-        tellraw("{\"text\":\"" + escapeJson(text) + "\",\"color\":\"red\"}");
+        send(null, Component.literal(text).withStyle(ChatFormatting.RED), false);
     }
 
     public void tellrawGreen(String text) {
-        tellraw("{\"text\":\"" + escapeJson(text) + "\",\"color\":\"green\"}");
+        send(null, Component.literal(text).withStyle(ChatFormatting.GREEN), false);
     }
 
-    private String escapeJson(String text) {
-        return text.replace("\\", "\\\\")
-                .replace("\"", "\\\"")
-                .replace("\n", "\\n")
-                .replace("\r", "\\r")
-                .replace("\t", "\\t");
+    private void send(Object target, Component message, boolean overlay) {
+        ScriptManager.getInstance().getMessages().send(server, scriptName, ScriptMessages.targets(target), message, overlay);
     }
 
     // Additional Mappet-like methods
     public void log(String message) {
-        System.out.println("[" + scriptName + "] " + message);
+        ScriptManager.getInstance().getLogs().write(scriptName, ScriptLog.Level.INFO, message);
     }
 
     public void error(String message) {
-        System.err.println("[" + scriptName + "] ERROR: " + message);
+        ScriptManager.getInstance().getLogs().write(scriptName, ScriptLog.Level.ERROR, message);
     }
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package org.pirozhok.codecraft.scripting;
+
+import org.graalvm.polyglot.Source;
+
+import javax.script.CompiledScript;
+
+/**
+ * Скрипт, готовый к запуску: кэшируемый {@link Source} для GraalVM
+ * или {@link CompiledScript} для запасного JSR-223 движка.
+ */
+public final class PreparedScript {
+    private final String name;
+    private final Source source;
+    private final CompiledScript compiled;
+
+    PreparedScript(String name, Source source, CompiledScript compiled) {
+        this.name = name;
+        this.source = source;
+        this.compiled = compiled;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Source getSource() {
+        return source;
+    }
+
+    public CompiledScript getCompiled() {
+        return compiled;
+    }
+}
@@ -0,0 +1,207 @@
+package org.pirozhok.codecraft.scripting;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Следит за выполняющимися шагами скриптов и останавливает те, что вышли за свои {@link ScriptLimits}.
+ * Лимит инструкций проверяет сам GraalVM, время, процессорное время и объём выделенной памяти
+ * раз в {@link #CHECK_INTERVAL_MS} проверяет отдельный поток. Шаг в главном потоке останавливается точно
+ * по истечении maxMainThreadStepMs: для него заводится отдельный таймер. Остановка выполняется в отдельных потоках,
+ * чтобы ожидание одного скрипта не задерживало проверку остальных: сначала мягкое прерывание контекста,
+ * а если скрипт не остановился за отведённое время - отмена с закрытием контекста.
+ */
+public class ResourceGovernor {
+    public static final long CHECK_INTERVAL_MS = 50;
+    public static final long DEFAULT_STOP_TIMEOUT_MS = 1000;
+    public static final ScriptLimits DEFAULT_LIMITS = new ScriptLimits(0, 0, 30_000, 0, 250);
+
+    private final Map<ScriptExecutionContext, Step> steps = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor watchdog;
+    // Остановка ждёт скрипт до stopTimeoutMs, поэтому идёт не в потоке надзора
+    private final ExecutorService stopper = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "CodeCraft-Stopper");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final com.sun.management.ThreadMXBean allocations;
+
+    private volatile ScriptLimits defaults = DEFAULT_LIMITS;
+    private volatile long stopTimeoutMs = DEFAULT_STOP_TIMEOUT_MS;
+
+    private final LongAdder kills = new LongAdder();
+    private final LongAdder stops = new LongAdder();
+
+    public ResourceGovernor() {
+        this.allocations = threads instanceof com.sun.management.ThreadMXBean sun && sun.isThreadAllocatedMemorySupported()
+                ? sun : null;
+        this.watchdog = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "CodeCraft-Governor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Таймер каждого шага в главном потоке почти всегда отменяется - не копим их в очереди
+        watchdog.setRemoveOnCancelPolicy(true);
+        watchdog.scheduleWithFixedDelay(this::check, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void configure(ScriptLimits defaults, long stopTimeoutMs) {
+        this.defaults = defaults;
+        this.stopTimeoutMs = Math.max(1, stopTimeoutMs);
+    }
+
+    public ScriptLimits getDefaults() {
+        return defaults;
+    }
+
+    /**
+     * Вызывается потоком, который начинает выполнять шаг скрипта.
+     */
+    void beginStep(ScriptExecutionContext context, boolean mainThread) {
+        Thread thread = Thread.currentThread();
+        long id = thread.getId();
+        Step step = new Step(id, mainThread, System.nanoTime(), cpuTime(id), allocated(id));
+        steps.put(context, step);
+        long maxMainThreadStepMs = context.getLimits().getMaxMainThreadStepMs();
+        if (mainThread && maxMainThreadStepMs > 0) {
+            step.deadline = watchdog.schedule(() -> expire(context, step, maxMainThreadStepMs), maxMainThreadStepMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void endStep(ScriptExecutionContext context) {
+        Step step = steps.remove(context);
+        if (step != null && step.deadline != null) {
+            step.deadline.cancel(false);
+        }
+    }
+
+    // Только в потоке надзора: шаг в главном потоке не уложился в свой лимит
+    private void expire(ScriptExecutionContext context, Step step, long maxMainThreadStepMs) {
+        if (steps.get(context) != step || step.violated) {
+            return;
+        }
+        step.violated = true;
+        kills.increment();
+        ScriptManager.getInstance().killScript(context, "шаг в главном потоке дольше " + maxMainThreadStepMs + " мс");
+    }
+
+    /**
+     * Останавливает текущий шаг скрипта, не блокируя вызывающий поток.
+     */
+    void terminate(ScriptExecutionContext context) {
+        stopStep(context);
+    }
+
+    // Не блокирует: один шаг останавливается не больше чем одним потоком за раз
+    private void stopStep(ScriptExecutionContext context) {
+        Step step = steps.get(context);
+        if (step == null || !step.stopping.compareAndSet(false, true)) {
+            return;
+        }
+        stopper.execute(() -> {
+            // Пока скрипт не получил контекст, прерывать нечего - попробуем на следующей проверке
+            if (context.interruptExecution(stopTimeoutMs)) {
+                stops.increment();
+            } else {
+                step.stopping.set(false);
+            }
+        });
+    }
+
+    private void check() {
+        long now = System.nanoTime();
+        for (Map.Entry<ScriptExecutionContext, Step> entry : steps.entrySet()) {
+            ScriptExecutionContext context = entry.getKey();
+            Step step = entry.getValue();
+            if (context.isStopRequested()) {
+                stopStep(context);
+                continue;
+            }
+            if (step.violated) {
+                continue;
+            }
+            String violation = findViolation(context.getLimits(), step, now);
+            if (violation != null) {
+                step.violated = true;
+                kills.increment();
+                ScriptManager.getInstance().killScript(context, violation);
+            }
+        }
+    }
+
+    private String findViolation(ScriptLimits limits, Step step, long now) {
+        long elapsedMs = (now - step.startNanos) / 1_000_000;
+        if (step.mainThread && limits.getMaxMainThreadStepMs() > 0 && elapsedMs > limits.getMaxMainThreadStepMs()) {
+            return "шаг в главном потоке дольше " + limits.getMaxMainThreadStepMs() + " мс";
+        }
+        if (limits.getMaxWallTimeMs() > 0 && elapsedMs > limits.getMaxWallTimeMs()) {
+            return "время выполнения больше " + limits.getMaxWallTimeMs() + " мс";
+        }
+        if (limits.getMaxCpuTimeMs() > 0 && step.startCpuNanos >= 0) {
+            long cpu = cpuTime(step.threadId);
+            if (cpu >= 0 && (cpu - step.startCpuNanos) / 1_000_000 > limits.getMaxCpuTimeMs()) {
+                return "процессорное время больше " + limits.getMaxCpuTimeMs() + " мс";
+            }
+        }
+        if (limits.getMaxAllocatedBytes() > 0 && step.startAllocated >= 0) {
+            long allocatedBytes = allocated(step.threadId);
+            if (allocatedBytes >= 0 && allocatedBytes - step.startAllocated > limits.getMaxAllocatedBytes()) {
+                return "выделено памяти больше " + (limits.getMaxAllocatedBytes() >> 20) + " МБ";
+            }
+        }
+        return null;
+    }
+
+    private long cpuTime(long threadId) {
+        try {
+            return threads.isThreadCpuTimeSupported() ? threads.getThreadCpuTime(threadId) : -1;
+        } catch (UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+    private long allocated(long threadId) {
+        return allocations != null ? allocations.getThreadAllocatedBytes(threadId) : -1;
+    }
+
+    public int getActiveSteps() {
+        return steps.size();
+    }
+
+    public long getKillCount() {
+        return kills.sum();
+    }
+
+    public long getStopCount() {
+        return stops.sum();
+    }
+
+    private static final class Step {
+        private final long threadId;
+        private final boolean mainThread;
+        private final long startNanos;
+        private final long startCpuNanos;
+        private final long startAllocated;
+        private volatile boolean violated;
+        private final AtomicBoolean stopping = new AtomicBoolean();
+        private volatile ScheduledFuture<?> deadline;
+
+        private Step(long threadId, boolean mainThread, long startNanos, long startCpuNanos, long startAllocated) {
+            this.threadId = threadId;
+            this.mainThread = mainThread;
+            this.startNanos = startNanos;
+            this.startCpuNanos = startCpuNanos;
+            this.startAllocated = startAllocated;
+        }
+    }
+}
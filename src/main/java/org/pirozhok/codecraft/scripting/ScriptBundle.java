@@ -0,0 +1,242 @@
+package org.pirozhok.codecraft.scripting;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Все скрипты мира одним файлом: заголовок с оглавлением и следом тексты скриптов подряд.
+ * Файл отображается в память целиком, при открытии читается только оглавление; текст скрипта
+ * декодируется из отображения при первом обращении, без отдельного открытия и чтения файла.
+ * <p>
+ * Формат (big-endian):
+ * <pre>
+ * int    MAGIC ("CCSB")
+ * int    VERSION
+ * int    число скриптов
+ * для каждого скрипта:
+ *   str   имя
+ *   long  смещение текста от начала файла
+ *   int   длина текста в байтах (UTF-8)
+ *   long  время изменения исходного файла
+ *   str   SHA-256 текста, как в {@link ScriptCache}
+ * тексты скриптов
+ * </pre>
+ * str - длина (unsigned short) и байты UTF-8.
+ * <p>
+ * Отображение нельзя освободить явно: его освобождает сборщик мусора, когда на набор и прочитанные
+ * из него буферы не останется ссылок.
+ * Собирается {@link #write} или из консоли:
+ * {@code java -cp ... org.pirozhok.codecraft.scripting.ScriptBundle <папка со скриптами> [файл]}.
+ */
+public final class ScriptBundle {
+    public static final String FILE_NAME = "scripts.ccsb";
+    private static final int MAGIC = 0x43435342;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 12;
+    // Запись оглавления с пустыми строками: две длины строк, смещение, длина, время изменения
+    private static final int MIN_SLOT_SIZE = 2 + 8 + 4 + 8 + 2;
+
+    private final Path path;
+    private final long size;
+    private final long lastModified;
+    private final MappedByteBuffer buffer;
+    private final Map<String, Slot> slots;
+
+    private ScriptBundle(Path path, long size, long lastModified, MappedByteBuffer buffer, Map<String, Slot> slots) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.buffer = buffer;
+        this.slots = slots;
+    }
+
+    /**
+     * Отображает файл в память и читает оглавление. Повреждённый или чужой файл - IOException.
+     */
+    public static ScriptBundle open(Path path) throws IOException {
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Script bundle is larger than 2 GB: " + path);
+            }
+            // Отображение остаётся действительным и после закрытия канала
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new ScriptBundle(path, size, lastModified, buffer, readIndex(buffer, path));
+        }
+    }
+
+    private static Map<String, Slot> readIndex(ByteBuffer buffer, Path path) throws IOException {
+        ByteBuffer header = buffer.duplicate();
+        try {
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a script bundle: " + path);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported script bundle version " + version + ": " + path);
+            }
+            int count = header.getInt();
+            // Размер таблицы берётся из файла: проверяем его до выделения памяти
+            if (count < 0 || count > header.remaining() / MIN_SLOT_SIZE) {
+                throw new IOException("Corrupted script bundle, invalid script count " + count + ": " + path);
+            }
+            Map<String, Slot> slots = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String name = readString(header);
+                long offset = header.getLong();
+                int length = header.getInt();
+                long lastModified = header.getLong();
+                String hash = readString(header);
+                if (offset < 0 || length < 0 || offset + length > buffer.capacity()) {
+                    throw new IOException("Corrupted script bundle, " + name + " is out of bounds: " + path);
+                }
+                slots.put(name, new Slot(name, (int) offset, length, lastModified, hash));
+            }
+            return Collections.unmodifiableMap(slots);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated script bundle: " + path);
+        }
+    }
+
+    // Строка оглавления: длина (unsigned short) и байты UTF-8
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public Set<String> names() {
+        return slots.keySet();
+    }
+
+    public int count() {
+        return slots.size();
+    }
+
+    public Slot slot(String name) {
+        return slots.get(name);
+    }
+
+    /**
+     * Текст скрипта в UTF-8 прямо из отображённого файла, без копирования; null - скрипта нет в наборе.
+     */
+    public ByteBuffer source(String name) {
+        Slot slot = slots.get(name);
+        if (slot == null) {
+            return null;
+        }
+        return buffer.asReadOnlyBuffer().position(slot.offset).limit(slot.offset + slot.length).slice();
+    }
+
+    public String read(String name) {
+        ByteBuffer source = source(name);
+        return source != null ? StandardCharsets.UTF_8.decode(source).toString() : null;
+    }
+
+    /**
+     * Собирает набор из всех .js файлов папки. Файл пишется рядом и подменяется целиком,
+     * так что сервер, который читает старый набор, не увидит его недописанным.
+     * Возвращает число скриптов.
+     */
+    public static int write(Path directory, Path target) throws IOException {
+        Map<String, Source> sources = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + ScriptIndex.EXTENSION)) {
+            for (Path file : stream) {
+                String fileName = file.getFileName().toString();
+                String name = fileName.substring(0, fileName.length() - ScriptIndex.EXTENSION.length());
+                if (name.isEmpty() || !Files.isRegularFile(file)) {
+                    continue;
+                }
+                byte[] bytes = Files.readAllBytes(file);
+                String content = new String(bytes, StandardCharsets.UTF_8);
+                sources.put(name, new Source(name.getBytes(StandardCharsets.UTF_8), bytes, Files.getLastModifiedTime(file).toMillis(),
+                        ScriptCache.hash(content).getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+
+        // Оглавление идёт перед текстами, поэтому смещения считаются от его полного размера
+        long offset = HEADER_SIZE;
+        for (Source source : sources.values()) {
+            offset += MIN_SLOT_SIZE + source.name.length + source.hash.length;
+        }
+
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sources.size());
+            for (Source source : sources.values()) {
+                writeBytes(out, source.name);
+                out.writeLong(offset);
+                out.writeInt(source.content.length);
+                out.writeLong(source.lastModified);
+                writeBytes(out, source.hash);
+                offset += source.content.length;
+            }
+            for (Source source : sources.values()) {
+                out.write(source.content);
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return sources.size();
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("Value is too long for a script bundle: " + bytes.length + " bytes");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: ScriptBundle <scripts directory> [bundle file, default <directory>/" + FILE_NAME + "]");
+            System.exit(2);
+        }
+        Path directory = Path.of(args[0]);
+        Path target = args.length > 1 ? Path.of(args[1]) : directory.resolve(FILE_NAME);
+        long start = System.nanoTime();
+        int count = write(directory, target);
+        System.out.println("Packed " + count + " scripts into " + target + " (" + Files.size(target) + " bytes) in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /**
+     * Запись оглавления. offset и length - байты текста в файле набора.
+     */
+    public record Slot(String name, int offset, int length, long lastModified, String hash) {
+    }
+
+    private record Source(byte[] name, byte[] content, long lastModified, byte[] hash) {
+    }
+}
@@ -0,0 +1,129 @@
+package org.pirozhok.codecraft.scripting;
+
+import javax.script.ScriptException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш скомпилированных скриптов.
+ * Ключ - имя скрипта, запись хранит хэш содержимого: если файл изменился,
+ * хэш не совпадёт и скрипт будет перекомпилирован. Старые записи вытесняются по LRU.
+ */
+public class ScriptCache {
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    private final UniversalScriptEngine engine;
+    private final Map<String, Entry> entries;
+    private volatile int maxEntries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ScriptCache(UniversalScriptEngine engine) {
+        this(engine, DEFAULT_MAX_ENTRIES);
+    }
+
+    public ScriptCache(UniversalScriptEngine engine, int maxEntries) {
+        this.engine = engine;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > ScriptCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Возвращает скомпилированную версию скрипта, компилируя его только при промахе
+     * или если содержимое файла изменилось с момента последней компиляции.
+     */
+    public PreparedScript get(String name, String content) throws ScriptException {
+        return get(name, hash(content), content);
+    }
+
+    /**
+     * То же, но с уже известным хэшем содержимого (из {@link ScriptIndex.Entry}): попадание в кэш не читает текст скрипта.
+     */
+    public PreparedScript get(String name, String hash, String content) throws ScriptException {
+        synchronized (entries) {
+            Entry entry = entries.get(name);
+            if (entry != null && entry.hash.equals(hash)) {
+                hits.incrementAndGet();
+                return entry.script;
+            }
+        }
+
+        // Компилируем вне блокировки, чтобы долгий парсинг не задерживал другие скрипты
+        misses.incrementAndGet();
+        PreparedScript compiled = engine.compile(name, ScriptExecutionContext.wrapScript(content));
+
+        synchronized (entries) {
+            entries.put(name, new Entry(hash, compiled));
+        }
+        return compiled;
+    }
+
+    public void invalidate(String name) {
+        synchronized (entries) {
+            entries.remove(name);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    public static String hash(String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 обязателен для любой JVM, сюда мы попасть не должны
+            return Integer.toHexString(content.hashCode()) + ":" + content.length();
+        }
+    }
+
+    private record Entry(String hash, PreparedScript script) {
+    }
+}
@@ -1,21 +1,25 @@
 package org.pirozhok.codecraft.scripting;
 
 public class ScriptConsole {
-    private final String scriptName;
+    private volatile String scriptName;
 
     public ScriptConsole(String scriptName) {
         this.scriptName = scriptName;
     }
 
+    void setScriptName(String scriptName) {
+        this.scriptName = scriptName;
+    }
+
     public void log(String message) {
-        System.out.println("[" + scriptName + "] " + message);
+        ScriptManager.getInstance().getLogs().write(scriptName, ScriptLog.Level.INFO, message);
     }
 
     public void error(String message) {
-        System.err.println("[" + scriptName + "] ERROR: " + message);
+        ScriptManager.getInstance().getLogs().write(scriptName, ScriptLog.Level.ERROR, message);
     }
 
     public void warn(String message) {
-        System.out.println("[" + scriptName + "] WARN: " + message);
+        ScriptManager.getInstance().getLogs().write(scriptName, ScriptLog.Level.WARN, message);
     }
 }
\ No newline at end of file
@@ -0,0 +1,384 @@
+package org.pirozhok.codecraft.scripting;
+
+import net.minecraft.server.MinecraftServer;
+
+import javax.script.ScriptException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Пул заранее подготовленных контекстов выполнения.
+ * Привязки server/global/console/c/context ставятся один раз при создании контекста,
+ * при возврате в пул глобальная область очищается до исходного состояния.
+ * <p>
+ * Очистка убирает только новые глобальные имена, а изменения встроенных объектов (Array.prototype.map = ...,
+ * Math.random = ...) остаются в контексте. Поэтому контекст, в котором уже выполнялся скрипт, достаётся
+ * только запускам того же скрипта; другие скрипты получают свежие контексты. Если свежих нет и пул заполнен,
+ * самый давно не использованный свободный контекст закрывается и вместо него создаётся новый.
+ * Если все контексты пула заняты, запуск получает одноразовый контекст, который закрывается после завершения.
+ * Лимит инструкций задаётся при создании контекста, поэтому скрипт со своим лимитом тоже получает одноразовый контекст.
+ */
+public class ScriptContextPool {
+    public static final int DEFAULT_MIN_IDLE = 2;
+    public static final int DEFAULT_MAX_SIZE = 16;
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 60_000;
+
+    private final UniversalScriptEngine engine;
+    private final MinecraftServer server;
+    private final long statementLimit;
+
+    // Последний возвращённый контекст лежит в начале - он самый "тёплый"
+    private final Deque<PooledSession> idle = new ArrayDeque<>();
+    private int pooledCount;
+    private boolean closed;
+
+    private volatile int minIdle = DEFAULT_MIN_IDLE;
+    private volatile int maxSize = DEFAULT_MAX_SIZE;
+    private volatile long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong overflow = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong dedicated = new AtomicLong();
+
+    public ScriptContextPool(UniversalScriptEngine engine, MinecraftServer server, long statementLimit) {
+        this.engine = engine;
+        this.server = server;
+        this.statementLimit = statementLimit;
+    }
+
+    public void configure(int minIdle, int maxSize, long idleTimeoutMs) {
+        this.maxSize = Math.max(1, maxSize);
+        this.minIdle = Math.max(0, Math.min(minIdle, this.maxSize));
+        this.idleTimeoutMs = Math.max(1, idleTimeoutMs);
+    }
+
+    public PooledSession acquire(ScriptExecutionContext owner) {
+        if (owner != null && owner.getLimits().getMaxStatements() != statementLimit) {
+            PooledSession session = new PooledSession(engine.openSession(owner.getLimits().getMaxStatements()), server, false);
+            created.incrementAndGet();
+            dedicated.incrementAndGet();
+            session.attach(owner);
+            return session;
+        }
+
+        String scriptName = owner != null ? owner.getScriptName() : null;
+        PooledSession session;
+        boolean pooled = false;
+        List<PooledSession> expired;
+
+        synchronized (this) {
+            expired = collectExpired(System.currentTimeMillis());
+            session = takeIdle(scriptName);
+            if (session == null && !closed) {
+                if (pooledCount < maxSize) {
+                    pooledCount++;
+                    pooled = true;
+                } else {
+                    // Все свободные контексты заняты другими скриптами: место самого старого достаётся новому
+                    PooledSession foreign = idle.pollLast();
+                    if (foreign != null) {
+                        expired = new ArrayList<>(expired);
+                        expired.add(foreign);
+                        pooled = true;
+                    }
+                }
+            }
+        }
+        closeAll(expired);
+
+        if (session != null) {
+            reused.incrementAndGet();
+        } else {
+            session = createSession(pooled);
+            if (!pooled) {
+                overflow.incrementAndGet();
+            }
+        }
+
+        session.attach(owner);
+        return session;
+    }
+
+    public void release(PooledSession session) {
+        session.detach();
+
+        if (!session.pooled) {
+            session.close();
+            return;
+        }
+
+        boolean reusable = !session.broken && !session.session.isCancelled() && session.resetScope();
+        List<PooledSession> expired = List.of();
+
+        synchronized (this) {
+            if (reusable && !closed) {
+                session.lastUsed = System.currentTimeMillis();
+                idle.addFirst(session);
+                expired = collectExpired(session.lastUsed);
+                session = null;
+            } else {
+                pooledCount--;
+            }
+        }
+
+        if (session != null) {
+            session.close();
+        }
+        closeAll(expired);
+    }
+
+    /**
+     * Создаёт контексты, пока в пуле не наберётся minIdle свободных.
+     */
+    public int warmUp() {
+        int warmed = 0;
+        while (true) {
+            synchronized (this) {
+                if (closed || idle.size() >= minIdle || pooledCount >= maxSize) {
+                    break;
+                }
+                pooledCount++;
+            }
+
+            PooledSession session;
+            try {
+                session = createSession(true);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    pooledCount--;
+                }
+                throw e;
+            }
+            session.lastUsed = System.currentTimeMillis();
+
+            synchronized (this) {
+                idle.addLast(session);
+            }
+            warmed++;
+        }
+        return warmed;
+    }
+
+    public void evictIdle() {
+        List<PooledSession> expired;
+        synchronized (this) {
+            expired = collectExpired(System.currentTimeMillis());
+        }
+        closeAll(expired);
+    }
+
+    public void close() {
+        List<PooledSession> sessions;
+        synchronized (this) {
+            closed = true;
+            sessions = new ArrayList<>(idle);
+            pooledCount -= idle.size();
+            idle.clear();
+        }
+        closeAll(sessions);
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    public synchronized int getPooledCount() {
+        return pooledCount;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+    public long getOverflowCount() {
+        return overflow.get();
+    }
+
+    public long getEvictedCount() {
+        return evicted.get();
+    }
+
+    public long getDedicatedCount() {
+        return dedicated.get();
+    }
+
+    public long getStatementLimit() {
+        return statementLimit;
+    }
+
+    private PooledSession createSession(boolean pooled) {
+        PooledSession session = new PooledSession(engine.openSession(statementLimit), server, pooled);
+        created.incrementAndGet();
+        return session;
+    }
+
+    // Вызывается под блокировкой пула: самый тёплый контекст этого скрипта, иначе ещё не использованный
+    private PooledSession takeIdle(String scriptName) {
+        PooledSession fresh = null;
+        for (Iterator<PooledSession> it = idle.iterator(); it.hasNext(); ) {
+            PooledSession candidate = it.next();
+            if (candidate.scriptName != null && candidate.scriptName.equals(scriptName)) {
+                it.remove();
+                return candidate;
+            }
+            if (candidate.scriptName == null && fresh == null) {
+                fresh = candidate;
+            }
+        }
+        if (fresh != null) {
+            idle.remove(fresh);
+        }
+        return fresh;
+    }
+
+    // Вызывается под блокировкой пула; самые старые свободные контексты лежат в конце очереди
+    private List<PooledSession> collectExpired(long now) {
+        List<PooledSession> expired = null;
+        while (idle.size() > minIdle) {
+            PooledSession oldest = idle.peekLast();
+            if (now - oldest.lastUsed < idleTimeoutMs) {
+                break;
+            }
+            idle.pollLast();
+            pooledCount--;
+            if (expired == null) {
+                expired = new ArrayList<>();
+            }
+            expired.add(oldest);
+        }
+        return expired != null ? expired : List.of();
+    }
+
+    private void closeAll(List<PooledSession> sessions) {
+        for (PooledSession session : sessions) {
+            if (session.pooled) {
+                evicted.incrementAndGet();
+            }
+            session.close();
+        }
+    }
+
+    /**
+     * Контекст из пула вместе с объектами API, которые в нём установлены.
+     */
+    public static final class PooledSession {
+        private final ScriptSession session;
+        private final MinecraftServer server;
+        private final GlobalAPI global;
+        private final ScriptConsole console;
+        private final MappetContext mappetContext;
+        private final boolean pooled;
+        private volatile boolean broken;
+        private volatile ScriptExecutionContext owner;
+        // Скрипт, который выполнялся в контексте; null - контекст ещё не использовался
+        private String scriptName;
+        private long lastUsed;
+
+        private PooledSession(ScriptSession session, MinecraftServer server, boolean pooled) {
+            this.session = session;
+            this.server = server;
+            this.pooled = pooled;
+            this.global = new GlobalAPI(server, null);
+            this.console = new ScriptConsole(null);
+            this.mappetContext = new MappetContext(server, null);
+
+            installBindings();
+            session.markBaseline();
+        }
+
+        private void installBindings() {
+            // Global objects
+            session.put("server", server);
+            session.put("global", global);
+            session.put("console", console);
+
+            // Mappet-style context object
+            session.put("c", mappetContext);
+            session.put("context", mappetContext);
+        }
+
+        private void attach(ScriptExecutionContext owner) {
+            this.owner = owner;
+            if (owner != null) {
+                scriptName = owner.getScriptName();
+                session.resetLimits();
+            }
+            global.setOwner(owner);
+            console.setScriptName(owner != null ? owner.getScriptName() : null);
+            mappetContext.setOwner(owner);
+        }
+
+        private void detach() {
+            attach(null);
+        }
+
+        private boolean resetScope() {
+            if (!session.reset()) {
+                return false;
+            }
+            // Скрипт мог перезаписать привязки через неявные глобальные переменные
+            try {
+                installBindings();
+                return true;
+            } catch (RuntimeException e) {
+                return false;
+            }
+        }
+
+        public Object eval(PreparedScript script) throws ScriptException {
+            try {
+                return session.eval(script);
+            } catch (RuntimeException e) {
+                // Ошибка на уровне движка, а не скрипта - такой контекст в пул не возвращаем
+                broken = true;
+                throw e;
+            }
+        }
+
+        public Object invoke(Object callback, Object... args) throws ScriptException {
+            try {
+                return session.invoke(callback, args);
+            } catch (RuntimeException e) {
+                broken = true;
+                throw e;
+            }
+        }
+
+        public void resetLimits() {
+            session.resetLimits();
+        }
+
+        /**
+         * Прерывает выполнение, только если контекст всё ещё принадлежит этому запуску.
+         */
+        public boolean interrupt(ScriptExecutionContext expectedOwner, long timeoutMillis) {
+            return owner == expectedOwner && session.interrupt(timeoutMillis);
+        }
+
+        public boolean isCancelled() {
+            return session.isCancelled();
+        }
+
+        private void close() {
+            try {
+                session.close();
+            } catch (RuntimeException e) {
+                ScriptLog.warn("ScriptContextPool", "Failed to close context: {}", e.getMessage());
+            }
+        }
+    }
+}
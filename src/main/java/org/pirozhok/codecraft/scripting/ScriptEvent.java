@@ -0,0 +1,89 @@
+package org.pirozhok.codecraft.scripting;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraftforge.eventbus.api.Event;
+
+/**
+ * Событие, которое получает обработчик скрипта. Отменить исходное событие Forge можно
+ * только из обработчика, выполняемого в главном потоке (on(type, fn, true)), пока событие рассылается.
+ * Обработчик, ушедший в очередь скрипта, отменить его не может, даже если выполняется во время рассылки.
+ */
+public class ScriptEvent {
+    private final ScriptEvents.Type type;
+    private final Event source;
+    private final ServerPlayer player;
+    private final BlockPos pos;
+    private final String block;
+    private final String message;
+    // Поток, в котором сейчас выполняется обработчик с inline = true; только он может отменить событие
+    private volatile Thread canceller;
+
+    public ScriptEvent(ScriptEvents.Type type, Event source, ServerPlayer player, BlockPos pos, String block, String message) {
+        this.type = type;
+        this.source = source;
+        this.player = player;
+        this.pos = pos;
+        this.block = block;
+        this.message = message;
+    }
+
+    public String getType() {
+        return type.getId();
+    }
+
+    public ScriptEvents.Type getEventType() {
+        return type;
+    }
+
+    public ServerPlayer getPlayer() {
+        return player;
+    }
+
+    public String getPlayerName() {
+        return player != null ? player.getScoreboardName() : null;
+    }
+
+    public BlockPos getPos() {
+        return pos;
+    }
+
+    public int getX() {
+        return pos != null ? pos.getX() : 0;
+    }
+
+    public int getY() {
+        return pos != null ? pos.getY() : 0;
+    }
+
+    public int getZ() {
+        return pos != null ? pos.getZ() : 0;
+    }
+
+    public String getBlock() {
+        return block;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean isCancelable() {
+        return source != null && source.isCancelable();
+    }
+
+    public boolean cancel() {
+        if (canceller != Thread.currentThread() || !isCancelable()) {
+            return false;
+        }
+        source.setCanceled(true);
+        return true;
+    }
+
+    /**
+     * Разрешает отмену текущему потоку на время прямого вызова обработчика; null - запрещает.
+     */
+    void setCanceller(Thread canceller) {
+        this.canceller = canceller;
+    }
+}
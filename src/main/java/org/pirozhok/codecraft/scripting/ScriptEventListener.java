@@ -0,0 +1,81 @@
+package org.pirozhok.codecraft.scripting;
+
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraftforge.event.ServerChatEvent;
+import net.minecraftforge.event.entity.player.PlayerEvent;
+import net.minecraftforge.event.level.BlockEvent;
+import net.minecraftforge.eventbus.api.Event;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.registries.ForgeRegistries;
+
+/**
+ * Переводит события Forge в события скриптов. Если на тип события никто не подписан,
+ * объект события для скриптов даже не создаётся.
+ */
+public class ScriptEventListener {
+    @SubscribeEvent
+    public void onPlayerJoin(PlayerEvent.PlayerLoggedInEvent event) {
+        publishPlayer(ScriptEvents.Type.PLAYER_JOIN, event, event.getEntity());
+    }
+
+    @SubscribeEvent
+    public void onPlayerLeave(PlayerEvent.PlayerLoggedOutEvent event) {
+        publishPlayer(ScriptEvents.Type.PLAYER_LEAVE, event, event.getEntity());
+    }
+
+    @SubscribeEvent
+    public void onPlayerRespawn(PlayerEvent.PlayerRespawnEvent event) {
+        publishPlayer(ScriptEvents.Type.PLAYER_RESPAWN, event, event.getEntity());
+    }
+
+    @SubscribeEvent
+    public void onBlockBreak(BlockEvent.BreakEvent event) {
+        ScriptEvents events = ScriptManager.getInstance().getEvents();
+        if (events.hasSubscribers(ScriptEvents.Type.BLOCK_BREAK)) {
+            events.publish(new ScriptEvent(ScriptEvents.Type.BLOCK_BREAK, event, asServerPlayer(event.getPlayer()),
+                    event.getPos(), blockId(event.getState()), null));
+        }
+    }
+
+    @SubscribeEvent
+    public void onBlockPlace(BlockEvent.EntityPlaceEvent event) {
+        ScriptEvents events = ScriptManager.getInstance().getEvents();
+        if (events.hasSubscribers(ScriptEvents.Type.BLOCK_PLACE)) {
+            events.publish(new ScriptEvent(ScriptEvents.Type.BLOCK_PLACE, event, asServerPlayer(event.getEntity()),
+                    event.getPos(), blockId(event.getPlacedBlock()), null));
+        }
+    }
+
+    @SubscribeEvent
+    public void onChat(ServerChatEvent event) {
+        ScriptEvents events = ScriptManager.getInstance().getEvents();
+        if (events.hasSubscribers(ScriptEvents.Type.CHAT)) {
+            events.publish(new ScriptEvent(ScriptEvents.Type.CHAT, event, event.getPlayer(),
+                    null, null, event.getRawText()));
+        }
+    }
+
+    private static void publishPlayer(ScriptEvents.Type type, Event event, Entity player) {
+        ScriptEvents events = ScriptManager.getInstance().getEvents();
+        if (events.hasSubscribers(type)) {
+            ServerPlayer serverPlayer = asServerPlayer(player);
+            events.publish(new ScriptEvent(type, event, serverPlayer,
+                    serverPlayer != null ? serverPlayer.blockPosition() : null, null, null));
+        }
+    }
+
+    private static ServerPlayer asServerPlayer(Entity entity) {
+        return entity instanceof ServerPlayer player ? player : null;
+    }
+
+    private static String blockId(BlockState state) {
+        if (state == null) {
+            return null;
+        }
+        ResourceLocation key = ForgeRegistries.BLOCKS.getKey(state.getBlock());
+        return key != null ? key.toString() : null;
+    }
+}
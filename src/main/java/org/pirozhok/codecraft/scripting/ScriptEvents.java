@@ -0,0 +1,139 @@
+package org.pirozhok.codecraft.scripting;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Подписки скриптов на игровые события, разложенные по типам событий.
+ * Событие без подписчиков стоит одну проверку пустого списка.
+ */
+public class ScriptEvents {
+    public enum Type {
+        PLAYER_JOIN("player_join"),
+        PLAYER_LEAVE("player_leave"),
+        PLAYER_RESPAWN("player_respawn"),
+        BLOCK_BREAK("block_break"),
+        BLOCK_PLACE("block_place"),
+        CHAT("chat");
+
+        private final String id;
+
+        Type(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public static Type byId(String id) {
+            for (Type type : values()) {
+                if (type.id.equals(id)) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown event type: " + id + ", expected one of " + Arrays.toString(ids()));
+        }
+
+        private static String[] ids() {
+            return Arrays.stream(values()).map(Type::getId).toArray(String[]::new);
+        }
+    }
+
+    // Индекс по ordinal типа; подписываются редко, рассылают часто, поэтому copy-on-write
+    private final List<Subscription>[] index;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public ScriptEvents() {
+        index = new List[Type.values().length];
+        for (int i = 0; i < index.length; i++) {
+            index[i] = new CopyOnWriteArrayList<>();
+        }
+    }
+
+    public boolean hasSubscribers(Type type) {
+        return !index[type.ordinal()].isEmpty();
+    }
+
+    public Subscription subscribe(Type type, ScriptExecutionContext owner, Object handler, boolean inline) {
+        Subscription subscription = new Subscription(type, owner, handler, inline);
+        index[type.ordinal()].add(subscription);
+        return subscription;
+    }
+
+    public void unsubscribe(Subscription subscription) {
+        subscription.active = false;
+        index[subscription.type.ordinal()].remove(subscription);
+    }
+
+    /**
+     * Рассылает событие подписчикам. Вызывается из главного потока обработчиками событий Forge.
+     */
+    public void publish(ScriptEvent event) {
+        Type type = event.getEventType();
+        published.increment();
+        for (Subscription subscription : index[type.ordinal()]) {
+            if (!subscription.active) {
+                continue;
+            }
+            ScriptExecutionContext.Task task = () -> {
+                if (subscription.active) {
+                    subscription.owner.invokeCallback(subscription.handler, event);
+                }
+            };
+            // Обработчик в главном потоке выполняется сразу, если скрипт не занят, иначе - как обычно, в очереди скрипта.
+            // Отмена разрешена только этому прямому вызову: задача из очереди выполнится в другом потоке
+            if (subscription.inline) {
+                event.setCanceller(Thread.currentThread());
+                try {
+                    subscription.owner.runOrPost(task);
+                } finally {
+                    event.setCanceller(null);
+                }
+            } else {
+                subscription.owner.post(task);
+            }
+            delivered.increment();
+        }
+    }
+
+    public int getSubscriberCount(Type type) {
+        return index[type.ordinal()].size();
+    }
+
+    public long getPublishedCount() {
+        return published.sum();
+    }
+
+    public long getDeliveredCount() {
+        return delivered.sum();
+    }
+
+    public static final class Subscription {
+        private final Type type;
+        private final ScriptExecutionContext owner;
+        private final Object handler;
+        private final boolean inline;
+        private volatile boolean active = true;
+
+        private Subscription(Type type, ScriptExecutionContext owner, Object handler, boolean inline) {
+            this.type = type;
+            this.owner = owner;
+            this.handler = handler;
+            this.inline = inline;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public boolean isInline() {
+            return inline;
+        }
+    }
+}
@@ -2,76 +2,336 @@ package org.pirozhok.codecraft.scripting;
 
 import net.minecraft.server.MinecraftServer;
 
-import javax.script.Bindings;
 import javax.script.ScriptException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Один запуск скрипта. После основного тела скрипт остаётся активным, пока у него есть
+ * незавершённые асинхронные операции: их результаты приходят в очередь сообщений и
+ * выполняются строго по одному, на том потоке, который сейчас обслуживает скрипт.
+ * Если main - генератор, скрипт работает как корутина: каждый yield отдаёт ожидание планировщику,
+ * и между шагами скрипт не занимает поток.
+ */
 public class ScriptExecutionContext {
+    public enum State {
+        QUEUED,
+        RUNNING,
+        FINISHED
+    }
+
+    @FunctionalInterface
+    public interface Task {
+        void run() throws Exception;
+    }
+
     private final String scriptName;
     private final String scriptContent;
+    // Хэш из индекса скриптов: повторный запуск находит скомпилированную версию без хэширования текста
+    private final String scriptHash;
     private final MinecraftServer server;
+    private final int priority;
+    private final ScriptLimits limits;
+    private final ScriptSource source;
     private volatile boolean running = false;
+    private volatile boolean stopRequested = false;
+    private volatile State state = State.QUEUED;
+    private volatile Thread executingThread;
     private UniversalScriptEngine scriptEngine;
 
-    public ScriptExecutionContext(String scriptName, String scriptContent, MinecraftServer server) {
+    private ScriptContextPool pool;
+    private volatile ScriptContextPool.PooledSession session;
+    private volatile boolean bodyFinished;
+    private volatile Runnable onFinished;
+
+    private final Queue<Task> mailbox = new ConcurrentLinkedQueue<>();
+    // true, пока скрипт выполняется или уже поставлен в очередь на выполнение; основное тело тоже считается
+    private final AtomicBoolean scheduled = new AtomicBoolean(true);
+    private final AtomicBoolean finished = new AtomicBoolean();
+    // Меняется только внутри выполнения скрипта, поэтому гонок с проверкой завершения нет
+    private final AtomicInteger pendingOperations = new AtomicInteger();
+    // Суммарное время шагов запуска; шаги не пересекаются, передача между потоками идёт через scheduled
+    private long executionNanos;
+    private long stepStart;
+    // Блокирующие ожидания текущего шага (global.sleep, c.exec): скрипт в это время не выполняется
+    private long blockedNanos;
+
+    public ScriptExecutionContext(String scriptName, String scriptContent, String scriptHash, MinecraftServer server) {
         this.scriptName = scriptName;
         this.scriptContent = scriptContent;
+        this.scriptHash = scriptHash;
         this.server = server;
+        ScriptOptions options = ScriptOptions.parse(scriptContent);
+        this.priority = options.getPriority();
+        this.limits = ScriptManager.getInstance().getGovernor().getDefaults().withOverrides(options);
+        this.source = ScriptManager.getInstance().getDefaultSource().withOverrides(options);
     }
 
     public void execute() throws ScriptException {
-        running = true;
-        System.out.println("ScriptExecutionContext: Starting execution of: " + scriptName);
+        synchronized (this) {
+            if (stopRequested) {
+                return;
+            }
+            running = true;
+            state = State.RUNNING;
+        }
+        enterThread();
+        ScriptLog.debug("ScriptExecutionContext", "Starting execution of: {}", scriptName);
 
         try {
-            scriptEngine = new UniversalScriptEngine();
-            System.out.println("ScriptExecutionContext: Engine created: " + scriptEngine.getEngineName());
-
-            // Create Mappet-like API
-            Bindings bindings = scriptEngine.createBindings();
-
-            // Global objects
-            bindings.put("server", server);
-            bindings.put("global", new GlobalAPI(server, scriptName));
-            bindings.put("console", new ScriptConsole(scriptName));
+            ScriptManager manager = ScriptManager.getInstance();
+            scriptEngine = manager.getEngine();
+            ScriptLog.debug("ScriptExecutionContext", "Using engine: {}", scriptEngine.getEngineName());
 
-            // Mappet-style context object
-            MappetContext mappetContext = new MappetContext(server, scriptName);
-            bindings.put("c", mappetContext);
-            bindings.put("context", mappetContext);
+            // Contexts come pre-initialized from the pool with all API bindings installed
+            pool = manager.getContextPool();
+            session = pool.acquire(this);
+            if (stopRequested) {
+                return;
+            }
 
-            // Wrap script for better error handling
-            String wrappedScript = wrapScript(scriptContent);
-            System.out.println("ScriptExecutionContext: Executing wrapped script");
+            // Wrapped and compiled script is reused while the file content stays the same
+            ScriptCache cache = manager.getScriptCache();
+            PreparedScript compiled = cache.get(scriptName, scriptHash, scriptContent);
+            ScriptLog.debug("ScriptExecutionContext", "Executing compiled script (cache hits: {}, misses: {})", cache.getHits(), cache.getMisses());
 
             // Execute script
-            scriptEngine.eval(wrappedScript, bindings);
+            session.eval(compiled);
 
-            System.out.println("ScriptExecutionContext: Script executed successfully: " + scriptName);
+            ScriptLog.debug("ScriptExecutionContext", "Script executed successfully: {}", scriptName);
+        } catch (Exception e) {
+            reportError(e);
+        } finally {
+            bodyFinished = true;
+            leaveThread();
+            afterRun();
+        }
+    }
+
+    /**
+     * Ставит задачу в очередь сообщений скрипта. Задачи выполняются по одному и никогда
+     * не пересекаются с основным телом, поэтому им можно обращаться к контексту скрипта.
+     */
+    public void post(Task task) {
+        if (finished.get()) {
+            return;
+        }
+        mailbox.add(task);
+        if (scheduled.compareAndSet(false, true)) {
+            ScriptManager.getInstance().dispatch(this, this::drain);
+        }
+    }
 
+    /**
+     * Выполняет задачу прямо в текущем потоке, если скрипт сейчас ничем не занят, иначе ставит её в очередь.
+     * Возвращает true, если задача выполнилась сразу.
+     */
+    public boolean runOrPost(Task task) {
+        if (finished.get()) {
+            return false;
+        }
+        if (!scheduled.compareAndSet(false, true)) {
+            post(task);
+            return false;
+        }
+        enterThread();
+        try {
+            resetLimits();
+            if (running) {
+                task.run();
+            }
         } catch (Exception e) {
-            System.err.println("ScriptExecutionContext: Error during script execution '" + scriptName + "': " + e.getMessage());
-            e.printStackTrace();
-            // Отправляем сообщение об ошибке в чат, если сервер доступен
-            if (server != null) {
-                server.getPlayerList().broadcastSystemMessage(
-                        net.minecraft.network.chat.Component.literal("Ошибка скрипта " + scriptName + ": " + e.getMessage()),
-                        false
-                );
+            reportError(e);
+        } finally {
+            leaveThread();
+            afterRun();
+        }
+        return true;
+    }
+
+    /**
+     * Отмечает начало асинхронной операции: пока она не завершена, скрипт остаётся активным.
+     * Вызывается только из выполнения скрипта.
+     */
+    public void retainOperation() {
+        pendingOperations.incrementAndGet();
+    }
+
+    /**
+     * Парная к {@link #retainOperation()}. Вызывается только из выполнения скрипта.
+     */
+    public void releaseOperation() {
+        pendingOperations.decrementAndGet();
+    }
+
+    /**
+     * Вызывает функцию скрипта (колбэк) в контексте этого скрипта. Только из выполнения скрипта.
+     */
+    public Object invokeCallback(Object callback, Object... args) throws ScriptException {
+        ScriptContextPool.PooledSession current = session;
+        if (current == null) {
+            throw new IllegalStateException("Script " + scriptName + " has no active context");
+        }
+        return current.invoke(callback, args);
+    }
+
+    private void drain() {
+        enterThread();
+        try {
+            resetLimits();
+            Task task;
+            while (running && (task = mailbox.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    reportError(e);
+                }
             }
         } finally {
-            running = false;
-            System.out.println("ScriptExecutionContext: Execution finished: " + scriptName);
+            leaveThread();
+            afterRun();
+        }
+    }
+
+    private void afterRun() {
+        scheduled.set(false);
+
+        ScriptContextPool.PooledSession current = session;
+        if (!running || (current != null && current.isCancelled())) {
+            finish();
+            return;
+        }
+        if (!mailbox.isEmpty()) {
+            if (scheduled.compareAndSet(false, true)) {
+                ScriptManager.getInstance().dispatch(this, this::drain);
+            }
+            return;
+        }
+        if (bodyFinished && pendingOperations.get() == 0) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        running = false;
+        boolean started = state != State.QUEUED;
+        state = State.FINISHED;
+        mailbox.clear();
+        if (started) {
+            ScriptManager.getInstance().getProfiler().get(scriptName).recordRun(executionNanos);
+        }
+
+        ScriptContextPool.PooledSession current = session;
+        session = null;
+        if (current != null) {
+            pool.release(current);
+        }
+
+        ScriptLog.debug("ScriptExecutionContext", "Execution finished: {}", scriptName);
+        Runnable callback = onFinished;
+        if (callback != null) {
+            callback.run();
         }
     }
 
-    private String wrapScript(String script) {
+    private void resetLimits() {
+        ScriptContextPool.PooledSession current = session;
+        if (current != null) {
+            current.resetLimits();
+        }
+    }
+
+    private void enterThread() {
+        boolean mainThread = server != null && server.isSameThread();
+        // Главный поток сервера (кооперативный режим) прерывать нельзя
+        if (!mainThread) {
+            synchronized (this) {
+                executingThread = Thread.currentThread();
+            }
+        }
+        ScriptManager.getInstance().getGovernor().beginStep(this, mainThread);
+        blockedNanos = 0;
+        stepStart = System.nanoTime();
+    }
+
+    private void leaveThread() {
+        executionNanos += System.nanoTime() - stepStart - blockedNanos;
+        ScriptManager.getInstance().getGovernor().endStep(this);
+        synchronized (this) {
+            if (executingThread != null) {
+                executingThread = null;
+                // Рабочий поток вернётся в пул, флаг прерывания от stop() ему больше не нужен
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * Вызывается из шага скрипта после блокирующего ожидания, чтобы оно не попало во время выполнения.
+     */
+    void recordBlocked(long nanos) {
+        blockedNanos += nanos;
+    }
+
+    /**
+     * Прерывает текущий шаг скрипта. Вызывается потоком остановки, может ждать до timeoutMillis.
+     */
+    boolean interruptExecution(long timeoutMillis) {
+        ScriptContextPool.PooledSession current = session;
+        if (current == null) {
+            return false;
+        }
+        if (current.interrupt(this, timeoutMillis)) {
+            ScriptLog.info("ScriptExecutionContext", "Execution interrupted: {}", scriptName);
+        }
+        return true;
+    }
+
+    private void reportError(Exception e) {
+        if (stopRequested) {
+            // Ошибка - следствие остановки скрипта, игроку о ней сообщать не нужно
+            ScriptLog.debug("ScriptExecutionContext", "Script {} stopped: {}", scriptName, e.getMessage());
+            return;
+        }
+        ScriptLog.error("ScriptExecutionContext", "Error during script execution '" + scriptName + "': " + e.getMessage(), e);
+        // Сообщение уходит в главный поток вместе с остальными сообщениями скриптов
+        if (server != null) {
+            ScriptManager.getInstance().getMessages().send(server, scriptName, null,
+                    net.minecraft.network.chat.Component.literal("Ошибка скрипта " + scriptName + ": " + e.getMessage()), false);
+        }
+    }
+
+    static String wrapScript(String script) {
         // Wrap in try-catch for better error handling and ensure main function is called
         return "(function() {\n" +
+                "function ticks(n) { return global.ticks(n); }\n" +
+                "function until(test) { return global.until(test); }\n" +
+                "// Coroutine driver: each yield hands a wait to the scheduler, no thread is held meanwhile\n" +
+                "function __codecraftResume(gen, value) {\n" +
+                "   var step;\n" +
+                "   try {\n" +
+                "       step = gen.next(value);\n" +
+                "   } catch (e) {\n" +
+                "       console.error('Script error: ' + e);\n" +
+                "       context.sendMessage('Ошибка скрипта: ' + e);\n" +
+                "       return;\n" +
+                "   }\n" +
+                "   if (!step.done) global.waitFor(step.value, function(v) { __codecraftResume(gen, v); });\n" +
+                "}\n" +
                 "try {\n" +
                 "   " + script + "\n" +
                 "   // Automatically call main function if it exists\n" +
                 "   if (typeof main === 'function') {\n" +
-                "       main(c);\n" +
+                "       var __codecraftMain = main(c);\n" +
+                "       // main as a generator function runs as a coroutine\n" +
+                "       if (__codecraftMain && typeof __codecraftMain.next === 'function' && typeof __codecraftMain['throw'] === 'function') {\n" +
+                "           __codecraftResume(__codecraftMain);\n" +
+                "       }\n" +
                 "   } else if (typeof handler === 'function') {\n" +
                 "       handler(context);\n" +
                 "   } else if (typeof init === 'function') {\n" +
@@ -85,11 +345,66 @@ public class ScriptExecutionContext {
     }
 
     public void stop() {
-        running = false;
-        System.out.println("ScriptExecutionContext: Stop requested for: " + scriptName);
+        boolean neverStarted;
+        synchronized (this) {
+            stopRequested = true;
+            running = false;
+            neverStarted = state == State.QUEUED;
+            if (executingThread != null) {
+                executingThread.interrupt();
+            }
+        }
+        ScriptLog.debug("ScriptExecutionContext", "Stop requested for: {}", scriptName);
+
+        if (neverStarted) {
+            finish();
+            return;
+        }
+        ScriptManager manager = ScriptManager.getInstance();
+        // Бесконечный цикл в JS не замечает ни флага, ни прерывания потока - его останавливает надзор через контекст
+        manager.getGovernor().terminate(this);
+        // В кооперативном режиме stopScript снимает все шаги скрипта из очереди тика, включая уже
+        // запланированный разбор очереди сообщений, поэтому будим скрипт безусловно: шаги в главном
+        // потоке всё равно не пересекаются
+        if (scheduled.compareAndSet(false, true) || manager.getExecutionMode() == ScriptManager.ExecutionMode.COOPERATIVE) {
+            // Скрипт ждёт асинхронных операций - будим его, чтобы он освободил контекст
+            manager.dispatch(this, this::drain);
+        }
+    }
+
+    void setOnFinished(Runnable onFinished) {
+        this.onFinished = onFinished;
+    }
+
+    public boolean isStopRequested() {
+        return stopRequested;
     }
 
     public boolean isRunning() {
         return running;
     }
-}
\ No newline at end of file
+
+    public State getState() {
+        return state;
+    }
+
+    public String getScriptName() {
+        return scriptName;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public ScriptLimits getLimits() {
+        return limits;
+    }
+
+    public ScriptSource getSource() {
+        return source;
+    }
+
+    public MinecraftServer getServer() {
+        return server;
+    }
+}
@@ -0,0 +1,153 @@
+package org.pirozhok.codecraft.scripting;
+
+import net.minecraft.server.MinecraftServer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Автоматический перезапуск запущенных скриптов при изменении файла; включается в конфиге.
+ * Изменения приходят от {@link ScriptIndex}, серия сохранений подряд схлопывается в одну перезагрузку
+ * через debounceMs после последнего. Новая версия компилируется и разбирается в отдельном потоке;
+ * скрипт перезапускается в главном потоке, только если в ней нет синтаксических ошибок,
+ * иначе продолжает работать старая версия.
+ */
+public class ScriptHotReload {
+    public static final long DEFAULT_DEBOUNCE_MS = 500;
+
+    private final ScriptManager manager;
+    private final Map<String, ScheduledFuture<?>> pending = new ConcurrentHashMap<>();
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    private volatile boolean enabled;
+    private volatile long debounceMs = DEFAULT_DEBOUNCE_MS;
+    // Создаётся при первом изменении: менеджер переживает остановку сервера в одиночной игре
+    private ScheduledExecutorService executor;
+
+    public ScriptHotReload(ScriptManager manager) {
+        this.manager = manager;
+    }
+
+    public void configure(boolean enabled, long debounceMs) {
+        this.enabled = enabled;
+        this.debounceMs = Math.max(0, debounceMs);
+        if (!enabled) {
+            cancelAll();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * {@link ScriptIndex.Listener}: откладывает перезагрузку, каждое новое изменение сдвигает её.
+     * Удаление файла запущенный скрипт не останавливает.
+     */
+    void changed(String name, ScriptIndex.Entry entry) {
+        if (!enabled || entry == null || !manager.isScriptRunning(name)) {
+            return;
+        }
+        pending.compute(name, (key, previous) -> {
+            if (previous != null) {
+                previous.cancel(false);
+            }
+            return executor().schedule(() -> reload(name), debounceMs, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    // Поток перезагрузки
+    private void reload(String name) {
+        pending.remove(name);
+        try {
+            ScriptIndex index = manager.getScriptIndex();
+            ScriptIndex.Entry entry = index.get(name);
+            if (entry == null || !manager.isScriptRunning(name)) {
+                return;
+            }
+
+            // Скомпилированная версия остаётся в кэше, и перезапуск её уже не компилирует
+            try {
+                manager.getEngine().verify(manager.getScriptCache().get(name, entry.hash(), entry.content()));
+            } catch (Exception e) {
+                failures.increment();
+                ScriptLog.warn("ScriptHotReload", "Script {} does not compile, keeping the running version: {}", name, e.getMessage());
+                manager.getLogs().write(name, ScriptLog.Level.WARN, "Hot reload failed, keeping the running version: " + e.getMessage());
+                return;
+            }
+
+            MinecraftServer server = manager.getServer();
+            if (server == null) {
+                return;
+            }
+            server.execute(() -> swap(name, entry.hash()));
+        } catch (Exception e) {
+            ScriptLog.warn("ScriptHotReload", "Failed to reload script {}: {}", name, e.getMessage());
+        }
+    }
+
+    // Главный поток; тот же перезапуск, что и /script reload
+    private void swap(String name, String hash) {
+        try {
+            // Пока шла компиляция, файл изменился снова - перезапустит следующая перезагрузка
+            ScriptIndex.Entry latest = manager.getScriptIndex().get(name);
+            if (latest == null || !latest.hash().equals(hash) || !manager.isScriptRunning(name)) {
+                return;
+            }
+            manager.stopScript(name);
+            if (manager.executeScript(name)) {
+                reloads.increment();
+                ScriptLog.info("ScriptHotReload", "Script reloaded: {}", name);
+                manager.getLogs().write(name, ScriptLog.Level.INFO, "Reloaded after file change");
+            } else {
+                failures.increment();
+                ScriptLog.warn("ScriptHotReload", "Script {} was stopped but failed to start again", name);
+            }
+        } catch (Exception e) {
+            failures.increment();
+            ScriptLog.warn("ScriptHotReload", "Failed to reload script {}: {}", name, e.getMessage());
+        }
+    }
+
+    private synchronized ScheduledExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "CodeCraft-HotReload");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    private void cancelAll() {
+        pending.values().forEach(future -> future.cancel(false));
+        pending.clear();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getReloadCount() {
+        return reloads.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    public synchronized void close() {
+        cancelAll();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package org.pirozhok.codecraft.scripting;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Содержимое папки скриптов в памяти: имя, путь, размер, время изменения, хэш и текст каждого файла.
+ * Папка читается один раз, дальше индекс обновляет фоновый поток по событиям {@link WatchService},
+ * а запись и удаление через {@link ScriptManager} обновляют его сразу. Поиск, чтение и список скриптов
+ * не обращаются к диску.
+ * <p>
+ * Если в папке лежит {@link ScriptBundle#FILE_NAME}, скрипты из него видны наравне с файлами и читаются
+ * из отображённого в память набора только при первом обращении. Файл .js с тем же именем важнее набора:
+ * так скрипт из набора можно поправить, не пересобирая его. Повреждённый набор пропускается, остаются файлы.
+ * На Windows отображённый файл нельзя заменить, там набор пересобирают при остановленном сервере.
+ * <p>
+ * На сетевых дисках события файловой системы приходят не всегда, поэтому можно включить периодическую
+ * перепроверку: она сравнивает только размер и время изменения и перечитывает изменившиеся файлы.
+ */
+public class ScriptIndex implements AutoCloseable {
+    public static final String EXTENSION = ".js";
+
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Содержимое скрипта изменилось; entry == null - файл удалён. Вызывается в потоке, который обновил индекс.
+         */
+        void changed(String name, Entry entry);
+    }
+
+    private final Path directory;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final WatchService watcher;
+    private final Thread thread;
+    private final long rescanNanos;
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder rescans = new LongAdder();
+    private final LongAdder bundleReads = new LongAdder();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    // Запись, удаление и перечитывание одного скрипта не пересекаются; блокировка по хэшу имени
+    private final Object[] locks = new Object[32];
+    // Набор и уже прочитанные из него скрипты меняются вместе
+    private volatile Bundled bundled = Bundled.EMPTY;
+    // Размер и время изменения набора, который не удалось открыть: пока файл тот же, не пробуем снова
+    private String brokenBundle;
+    private volatile boolean closed;
+
+    /**
+     * rescanSeconds - период полной перепроверки папки; 0 - только события WatchService.
+     */
+    public ScriptIndex(Path directory, long rescanSeconds) throws IOException {
+        this.directory = directory;
+        this.rescanNanos = TimeUnit.SECONDS.toNanos(Math.max(0, rescanSeconds));
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        Files.createDirectories(directory);
+
+        // Подписка до первого чтения: изменения во время сканирования не потеряются
+        WatchService service = null;
+        try {
+            service = directory.getFileSystem().newWatchService();
+            directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException | UnsupportedOperationException e) {
+            ScriptLog.warn("ScriptIndex", "File watching is unavailable for {}: {}", directory, e.getMessage());
+            if (service != null) {
+                service.close();
+                service = null;
+            }
+        }
+        this.watcher = service;
+
+        long start = System.nanoTime();
+        rescan();
+        ScriptLog.info("ScriptIndex", "Indexed {} scripts in {} ms", entries.size(), (System.nanoTime() - start) / 1_000_000);
+
+        if (watcher != null || rescanNanos > 0) {
+            thread = new Thread(this::watch, "CodeCraft-ScriptIndex");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            thread = null;
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public Path pathOf(String name) {
+        return directory.resolve(name + EXTENSION);
+    }
+
+    public Entry get(String name) {
+        lookups.increment();
+        return lookup(name);
+    }
+
+    public boolean contains(String name) {
+        lookups.increment();
+        return entries.containsKey(name) || bundled.contains(name);
+    }
+
+    /**
+     * Имена всех скриптов: файлы и набор. Тексты скриптов из набора при этом не читаются.
+     */
+    public Set<String> names() {
+        lookups.increment();
+        Set<String> names = new HashSet<>(entries.keySet());
+        ScriptBundle bundle = bundled.bundle;
+        if (bundle != null) {
+            names.addAll(bundle.names());
+        }
+        return names;
+    }
+
+    /**
+     * Откуда берётся скрипт: его файл или набор; null - скрипта нет.
+     */
+    public Path sourceOf(String name) {
+        Entry entry = entries.get(name);
+        if (entry != null) {
+            return entry.path;
+        }
+        return bundled.contains(name) ? bundled.bundle.getPath() : null;
+    }
+
+    public int size() {
+        return names().size();
+    }
+
+    public int getBundledCount() {
+        ScriptBundle bundle = bundled.bundle;
+        return bundle != null ? bundle.count() : 0;
+    }
+
+    private Entry lookup(String name) {
+        Entry entry = entries.get(name);
+        return entry != null ? entry : bundled.get(name, bundleReads);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Записывает скрипт на диск и сразу обновляет индекс, не дожидаясь события от файловой системы.
+     */
+    public Entry write(String name, String content) throws IOException {
+        Path path = pathOf(name);
+        synchronized (lockOf(name)) {
+            Files.writeString(path, content);
+            Entry entry = toEntry(name, path, Files.readAttributes(path, BasicFileAttributes.class), content);
+            put(entry);
+            return entry;
+        }
+    }
+
+    public void delete(String name) throws IOException {
+        if (!entries.containsKey(name) && bundled.contains(name)) {
+            throw new IOException("Script " + name + " is packed in " + bundled.bundle.getPath() + "; rebuild the bundle without it");
+        }
+        synchronized (lockOf(name)) {
+            Files.deleteIfExists(pathOf(name));
+            remove(name);
+        }
+    }
+
+    /**
+     * Перечитывает один файл: обновляет запись, если файл изменился, или убирает её, если файла больше нет.
+     * Файл, который меняется прямо во время чтения, пропускается: его перечитает следующее событие или сверка.
+     */
+    public void reload(String name) {
+        Path path = pathOf(name);
+        synchronized (lockOf(name)) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                Entry current = entries.get(name);
+                if (current != null && current.size == attributes.size() && current.lastModified == attributes.lastModifiedTime().toMillis()) {
+                    return;
+                }
+                String content = readContent(path);
+                // Редактор мог дописывать файл, пока мы его читали
+                BasicFileAttributes after = Files.readAttributes(path, BasicFileAttributes.class);
+                if (after.size() != attributes.size() || !after.lastModifiedTime().equals(attributes.lastModifiedTime())) {
+                    ScriptLog.debug("ScriptIndex", "Script {} changed while reading, waiting for the next event", name);
+                    return;
+                }
+                put(toEntry(name, path, attributes, content));
+                reloads.increment();
+            } catch (NoSuchFileException e) {
+                remove(name);
+            } catch (IOException e) {
+                ScriptLog.warn("ScriptIndex", "Failed to read script {}: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    // Тесты подменяют чтение, чтобы изменить файл посреди него
+    String readContent(Path path) throws IOException {
+        return Files.readString(path);
+    }
+
+    private Object lockOf(String name) {
+        return locks[Math.floorMod(name.hashCode(), locks.length)];
+    }
+
+    /**
+     * Полная сверка с папкой: новые и изменённые файлы перечитываются, пропавшие удаляются из индекса.
+     */
+    public void rescan() {
+        refreshBundle();
+        Set<String> seen = new HashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path path : stream) {
+                String name = nameOf(path);
+                if (name != null) {
+                    seen.add(name);
+                    reload(name);
+                }
+            }
+        } catch (IOException e) {
+            ScriptLog.warn("ScriptIndex", "Failed to list scripts in {}: {}", directory, e.getMessage());
+            return;
+        }
+        for (String name : Set.copyOf(entries.keySet())) {
+            if (!seen.contains(name)) {
+                remove(name);
+            }
+        }
+        rescans.increment();
+    }
+
+    // Слушатели узнают только о настоящих изменениях: сохранение без правок и повторное событие их не будят
+    private void put(Entry entry) {
+        Entry previous = entries.put(entry.name, entry);
+        if (previous == null) {
+            previous = bundled.get(entry.name, bundleReads);
+        }
+        if (previous == null || !previous.hash.equals(entry.hash)) {
+            notifyListeners(entry.name, entry);
+        }
+    }
+
+    // Без файла снова виден скрипт из набора, если он там есть
+    private void remove(String name) {
+        Entry removed = entries.remove(name);
+        if (removed != null) {
+            Entry fallback = bundled.get(name, bundleReads);
+            if (fallback == null || !fallback.hash.equals(removed.hash)) {
+                notifyListeners(name, fallback);
+            }
+        }
+    }
+
+    /**
+     * Открывает набор заново, если его файл появился, изменился или пропал. Слушатели узнают
+     * об изменённых и удалённых из набора скриптах, у которых нет своего файла; новые скрипты
+     * запущены быть не могли, и их тексты не читаются.
+     */
+    private synchronized void refreshBundle() {
+        Bundled previous = bundled;
+        Path path = directory.resolve(ScriptBundle.FILE_NAME);
+        ScriptBundle bundle = null;
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            ScriptBundle current = previous.bundle;
+            if (current != null && current.getSize() == attributes.size() && current.getLastModified() == attributes.lastModifiedTime().toMillis()) {
+                return;
+            }
+            String version = attributes.size() + "/" + attributes.lastModifiedTime().toMillis();
+            if (version.equals(brokenBundle)) {
+                return;
+            }
+            brokenBundle = version;
+            long start = System.nanoTime();
+            bundle = ScriptBundle.open(path);
+            brokenBundle = null;
+            ScriptLog.info("ScriptIndex", "Mapped {} bundled scripts in {} ms", bundle.count(), (System.nanoTime() - start) / 1_000_000);
+        } catch (NoSuchFileException e) {
+            brokenBundle = null;
+            if (previous.bundle == null) {
+                return;
+            }
+        } catch (IOException e) {
+            ScriptLog.warn("ScriptIndex", "Ignoring script bundle, using loose files only: {}", e.getMessage());
+        }
+
+        Bundled next = bundle != null ? new Bundled(bundle) : Bundled.EMPTY;
+        bundled = next;
+
+        if (previous.bundle == null || listeners.isEmpty()) {
+            return;
+        }
+        for (String name : previous.bundle.names()) {
+            ScriptBundle.Slot after = bundle != null ? bundle.slot(name) : null;
+            if ((after == null || !after.hash().equals(previous.bundle.slot(name).hash())) && !entries.containsKey(name)) {
+                notifyListeners(name, next.get(name, bundleReads));
+            }
+        }
+    }
+
+    private void notifyListeners(String name, Entry entry) {
+        for (Listener listener : listeners) {
+            try {
+                listener.changed(name, entry);
+            } catch (RuntimeException e) {
+                ScriptLog.error("ScriptIndex", "Script change listener failed for " + name + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private void watch() {
+        long nextRescan = System.nanoTime() + rescanNanos;
+        while (!closed) {
+            try {
+                long waitNanos = rescanNanos > 0 ? Math.max(0, nextRescan - System.nanoTime()) : Long.MAX_VALUE;
+                WatchKey key = watcher != null ? watcher.poll(Math.min(waitNanos, TimeUnit.SECONDS.toNanos(1)), TimeUnit.NANOSECONDS) : null;
+                if (watcher == null) {
+                    Thread.sleep(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+                }
+                if (key != null) {
+                    handle(key);
+                }
+                if (rescanNanos > 0 && System.nanoTime() - nextRescan >= 0) {
+                    rescan();
+                    nextRescan = System.nanoTime() + rescanNanos;
+                }
+            } catch (ClosedWatchServiceException | InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                ScriptLog.error("ScriptIndex", "Script watcher failed: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private void handle(WatchKey key) {
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+            } else if (event.context() instanceof Path path) {
+                String name = nameOf(path);
+                if (name != null) {
+                    reload(name);
+                } else if (path.getFileName().toString().equals(ScriptBundle.FILE_NAME)) {
+                    refreshBundle();
+                }
+            }
+        }
+        // Папку удалили или переименовали: ключ больше не действует, остаётся только перепроверка
+        if (!key.reset()) {
+            ScriptLog.warn("ScriptIndex", "Scripts directory is no longer watched: {}", directory);
+        }
+        // События потерялись - сверяемся с папкой целиком
+        if (overflow) {
+            rescan();
+        }
+    }
+
+    private static String nameOf(Path path) {
+        String fileName = path.getFileName().toString();
+        if (!fileName.endsWith(EXTENSION) || fileName.length() == EXTENSION.length()) {
+            return null;
+        }
+        return fileName.substring(0, fileName.length() - EXTENSION.length());
+    }
+
+    private static Entry toEntry(String name, Path path, BasicFileAttributes attributes, String content) {
+        return new Entry(name, path, attributes.size(), attributes.lastModifiedTime().toMillis(), ScriptCache.hash(content), content);
+    }
+
+    public long getLookupCount() {
+        return lookups.sum();
+    }
+
+    public long getReloadCount() {
+        return reloads.sum();
+    }
+
+    public long getRescanCount() {
+        return rescans.sum();
+    }
+
+    public long getBundleReadCount() {
+        return bundleReads.sum();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                ScriptLog.warn("ScriptIndex", "Failed to close script watcher: {}", e.getMessage());
+            }
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+        // Отображение набора освободит сборщик мусора
+        bundled = Bundled.EMPTY;
+    }
+
+    /**
+     * Снимок файла скрипта. hash - SHA-256 содержимого, как в {@link ScriptCache}.
+     */
+    public record Entry(String name, Path path, long size, long lastModified, String hash, String content) {
+    }
+
+    // Текст скрипта из набора декодируется при первом обращении и дальше берётся отсюда
+    private static final class Bundled {
+        static final Bundled EMPTY = new Bundled(null);
+
+        final ScriptBundle bundle;
+        final Map<String, Entry> read = new ConcurrentHashMap<>();
+
+        Bundled(ScriptBundle bundle) {
+            this.bundle = bundle;
+        }
+
+        boolean contains(String name) {
+            return bundle != null && bundle.slot(name) != null;
+        }
+
+        Entry get(String name, LongAdder reads) {
+            if (bundle == null) {
+                return null;
+            }
+            Entry entry = read.get(name);
+            if (entry != null) {
+                return entry;
+            }
+            ScriptBundle.Slot slot = bundle.slot(name);
+            if (slot == null) {
+                return null;
+            }
+            return read.computeIfAbsent(name, key -> {
+                reads.increment();
+                return new Entry(name, bundle.getPath(), slot.length(), slot.lastModified(), slot.hash(), bundle.read(name));
+            });
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.pirozhok.codecraft.scripting;
+
+/**
+ * Ограничения ресурсов для одного шага скрипта (основное тело, колбэк, шаг корутины).
+ * Ноль означает "без ограничения". Значения по умолчанию задаются конфигом,
+ * скрипт может переопределить их директивами:
+ * <pre>
+ * // @max-statements 5000000
+ * // @max-time-ms 10000
+ * // @max-cpu-ms 2000
+ * // @max-alloc-mb 128
+ * </pre>
+ */
+public final class ScriptLimits {
+    public static final ScriptLimits UNLIMITED = new ScriptLimits(0, 0, 0, 0, 0);
+
+    private final long maxStatements;
+    private final long maxWallTimeMs;
+    private final long maxCpuTimeMs;
+    private final long maxAllocatedBytes;
+    // Шаг в главном потоке (кооперативный режим, inline-обработчики) останавливает весь сервер
+    private final long maxMainThreadStepMs;
+
+    public ScriptLimits(long maxStatements, long maxWallTimeMs, long maxCpuTimeMs, long maxAllocatedBytes, long maxMainThreadStepMs) {
+        this.maxStatements = Math.max(0, maxStatements);
+        this.maxWallTimeMs = Math.max(0, maxWallTimeMs);
+        this.maxCpuTimeMs = Math.max(0, maxCpuTimeMs);
+        this.maxAllocatedBytes = Math.max(0, maxAllocatedBytes);
+        this.maxMainThreadStepMs = Math.max(0, maxMainThreadStepMs);
+    }
+
+    public ScriptLimits withOverrides(ScriptOptions options) {
+        long allocationMb = options.getLong("max-alloc-mb", -1);
+        return new ScriptLimits(
+                options.getLong("max-statements", maxStatements),
+                options.getLong("max-time-ms", maxWallTimeMs),
+                options.getLong("max-cpu-ms", maxCpuTimeMs),
+                allocationMb >= 0 ? allocationMb << 20 : maxAllocatedBytes,
+                maxMainThreadStepMs
+        );
+    }
+
+    public long getMaxStatements() {
+        return maxStatements;
+    }
+
+    public long getMaxWallTimeMs() {
+        return maxWallTimeMs;
+    }
+
+    public long getMaxCpuTimeMs() {
+        return maxCpuTimeMs;
+    }
+
+    public long getMaxAllocatedBytes() {
+        return maxAllocatedBytes;
+    }
+
+    public long getMaxMainThreadStepMs() {
+        return maxMainThreadStepMs;
+    }
+}
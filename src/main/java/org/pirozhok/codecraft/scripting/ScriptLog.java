@@ -0,0 +1,278 @@
+package org.pirozhok.codecraft.scripting;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Журнал скриптового рантайма. Потоки скриптов и сервера только кладут запись в {@link LogRing},
+ * а в консоль её выводит отдельный поток, поэтому вывод не выстраивает потоки в очередь за System.out.
+ * Сообщение собирается из шаблона с {} уже в потоке вывода: отключённый debug стоит одной проверки уровня,
+ * включённый - одной записи без склейки строк. Если буфер переполнен, записи отбрасываются и считаются.
+ * <p>
+ * Вывод скриптов (print, console.log) идёт через {@link #script} и попадает в приёмник этого скрипта,
+ * если он задан через {@link #setScriptSink}, иначе в консоль с префиксом [имя].
+ */
+public final class ScriptLog {
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    /**
+     * Приёмник вывода одного скрипта. Вызывается в потоке вывода, поэтому не должен надолго блокироваться.
+     */
+    @FunctionalInterface
+    public interface Sink {
+        void write(Level level, long timeMillis, String message);
+
+        // Вызывается, когда буфер опустел: можно сбросить накопленное на диск
+        default void flush() {
+        }
+
+        // Вызывается в потоке вывода, когда приёмник снят и все записи, сделанные до этого, ему переданы
+        default void close() {
+        }
+    }
+
+    public static final int BUFFER_SIZE = 8192;
+    private static final long IDLE_PARK_NANOS = 10_000_000L;
+    // Запись-метка в буфере: снять приёмник, когда поток вывода до неё дойдёт
+    private static final String REMOVE_SINK = "ScriptLog.removeScriptSink";
+
+    private static final LogRing<Entry> RING = new LogRing<>(BUFFER_SIZE);
+    private static final Map<String, Sink> SCRIPT_SINKS = new ConcurrentHashMap<>();
+    private static final LongAdder DROPPED = new LongAdder();
+    private static final Thread WRITER;
+
+    private static volatile Level level = Level.INFO;
+    private static volatile boolean writerParked;
+
+    static {
+        WRITER = new Thread(ScriptLog::writeLoop, "CodeCraft-Log");
+        WRITER.setDaemon(true);
+        WRITER.start();
+    }
+
+    private ScriptLog() {
+    }
+
+    public static void setLevel(Level level) {
+        ScriptLog.level = level;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static boolean isDebugEnabled() {
+        return level == Level.DEBUG;
+    }
+
+    public static void debug(String source, String message) {
+        if (level == Level.DEBUG) {
+            enqueue(Level.DEBUG, source, null, message, null, null, null);
+        }
+    }
+
+    public static void debug(String source, String template, Object arg) {
+        if (level == Level.DEBUG) {
+            enqueue(Level.DEBUG, source, null, template, arg, null, null);
+        }
+    }
+
+    public static void debug(String source, String template, Object arg1, Object arg2) {
+        if (level == Level.DEBUG) {
+            enqueue(Level.DEBUG, source, null, template, arg1, arg2, null);
+        }
+    }
+
+    public static void info(String source, String message) {
+        log(Level.INFO, source, message, null, null, null);
+    }
+
+    public static void info(String source, String template, Object arg) {
+        log(Level.INFO, source, template, arg, null, null);
+    }
+
+    public static void info(String source, String template, Object arg1, Object arg2) {
+        log(Level.INFO, source, template, arg1, arg2, null);
+    }
+
+    public static void warn(String source, String message) {
+        log(Level.WARN, source, message, null, null, null);
+    }
+
+    public static void warn(String source, String template, Object arg) {
+        log(Level.WARN, source, template, arg, null, null);
+    }
+
+    public static void warn(String source, String template, Object arg1, Object arg2) {
+        log(Level.WARN, source, template, arg1, arg2, null);
+    }
+
+    public static void error(String source, String message) {
+        log(Level.ERROR, source, message, null, null, null);
+    }
+
+    public static void error(String source, String message, Throwable error) {
+        log(Level.ERROR, source, message, null, null, error);
+    }
+
+    /**
+     * Вывод скрипта. Не зависит от уровня журнала: это то, что скрипт напечатал сам.
+     */
+    public static void script(String scriptName, Level level, String message) {
+        enqueue(level, null, scriptName, message, null, null, null);
+    }
+
+    public static void setScriptSink(String scriptName, Sink sink) {
+        SCRIPT_SINKS.put(scriptName, sink);
+    }
+
+    /**
+     * Снимает приёмник после того, как ему будут выведены записи, уже лежащие в буфере; затем вызывает его close.
+     * Приёмник, который к этому времени заменили новым, только закрывается.
+     */
+    public static void removeScriptSink(String scriptName, Sink sink) {
+        Entry entry = new Entry(System.currentTimeMillis(), Level.INFO, REMOVE_SINK, scriptName, null, sink, null, null);
+        if (RING.offer(entry)) {
+            if (writerParked) {
+                LockSupport.unpark(WRITER);
+            }
+            return;
+        }
+        // Буфер полон - часть записей и так потеряна, снимаем сразу
+        SCRIPT_SINKS.remove(scriptName, sink);
+        sink.close();
+    }
+
+    /**
+     * Ждёт, пока поток вывода допишет всё, что было записано до вызова. Для остановки сервера.
+     */
+    public static void flush(long timeoutMillis) {
+        long target = RING.claimed();
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        while (RING.consumed() < target && System.nanoTime() < deadline) {
+            LockSupport.unpark(WRITER);
+            LockSupport.parkNanos(1_000_000L);
+        }
+    }
+
+    public static long getDroppedCount() {
+        return DROPPED.sum();
+    }
+
+    public static int getPendingCount() {
+        return (int) (RING.claimed() - RING.consumed());
+    }
+
+    private static void log(Level entryLevel, String source, String template, Object arg1, Object arg2, Throwable error) {
+        if (entryLevel.ordinal() >= level.ordinal()) {
+            enqueue(entryLevel, source, null, template, arg1, arg2, error);
+        }
+    }
+
+    private static void enqueue(Level entryLevel, String source, String scriptName, String template, Object arg1, Object arg2, Throwable error) {
+        Entry entry = new Entry(System.currentTimeMillis(), entryLevel, source, scriptName, template, arg1, arg2, error);
+        if (!RING.offer(entry)) {
+            DROPPED.increment();
+            return;
+        }
+        if (writerParked) {
+            LockSupport.unpark(WRITER);
+        }
+    }
+
+    private static void writeLoop() {
+        long reportedDropped = 0;
+        boolean written = false;
+        while (true) {
+            Entry entry = RING.poll();
+            if (entry == null) {
+                if (written) {
+                    flushSinks();
+                    written = false;
+                }
+                long dropped = DROPPED.sum();
+                if (dropped > reportedDropped) {
+                    System.err.println("ScriptLog: " + (dropped - reportedDropped) + " messages dropped, log buffer was full");
+                    reportedDropped = dropped;
+                }
+                writerParked = true;
+                // Запись могла появиться между poll и установкой флага
+                if (RING.claimed() == RING.consumed()) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                writerParked = false;
+                continue;
+            }
+            try {
+                write(entry);
+            } catch (RuntimeException e) {
+                System.err.println("ScriptLog: Failed to write log entry: " + e);
+            }
+            written = true;
+        }
+    }
+
+    private static void flushSinks() {
+        for (Sink sink : SCRIPT_SINKS.values()) {
+            try {
+                sink.flush();
+            } catch (RuntimeException e) {
+                System.err.println("ScriptLog: Failed to flush log sink: " + e);
+            }
+        }
+    }
+
+    private static void write(Entry entry) {
+        if (entry.source == REMOVE_SINK) {
+            Sink sink = (Sink) entry.arg1;
+            SCRIPT_SINKS.remove(entry.scriptName, sink);
+            sink.close();
+            return;
+        }
+        String message = format(entry.template, entry.arg1, entry.arg2);
+        if (entry.scriptName != null) {
+            Sink sink = SCRIPT_SINKS.get(entry.scriptName);
+            if (sink != null) {
+                sink.write(entry.level, entry.timeMillis, message);
+                return;
+            }
+            PrintStream out = entry.level == Level.ERROR ? System.err : System.out;
+            String prefix = entry.level == Level.WARN || entry.level == Level.ERROR ? entry.level + ": " : "";
+            out.println("[" + entry.scriptName + "] " + prefix + message);
+            return;
+        }
+
+        PrintStream out = entry.level.ordinal() >= Level.WARN.ordinal() ? System.err : System.out;
+        out.println(entry.source + ": " + message);
+        if (entry.error != null) {
+            entry.error.printStackTrace(out);
+        }
+    }
+
+    static String format(String template, Object arg1, Object arg2) {
+        if (template == null) {
+            return "null";
+        }
+        int first = template.indexOf("{}");
+        if (first < 0) {
+            return template;
+        }
+        StringBuilder builder = new StringBuilder(template.length() + 32);
+        builder.append(template, 0, first).append(arg1);
+        int second = template.indexOf("{}", first + 2);
+        if (second < 0) {
+            return builder.append(template, first + 2, template.length()).toString();
+        }
+        return builder.append(template, first + 2, second).append(arg2)
+                .append(template, second + 2, template.length()).toString();
+    }
+
+    private record Entry(long timeMillis, Level level, String source, String scriptName,
+                         String template, Object arg1, Object arg2, Throwable error) {
+    }
+}
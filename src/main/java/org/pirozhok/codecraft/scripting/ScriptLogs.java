@@ -0,0 +1,310 @@
+package org.pirozhok.codecraft.scripting;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Вывод каждого скрипта отдельно от журнала сервера: последние строки хранятся в кольцевом буфере
+ * (их показывает /script logs), а при включённых файлах ещё и пишутся в scripts/logs/имя.log с ротацией.
+ * Частота вывода ограничена на скрипт: цикл с print теряет лишние строки, а не забивает диск и поток журнала.
+ * Файлы пишет свой поток, так что медленный диск не задерживает вывод остальных скриптов и сервера.
+ */
+public class ScriptLogs {
+    public static final String LOGS_DIR = "logs";
+    public static final int DEFAULT_BUFFER_LINES = 200;
+    public static final int DEFAULT_MAX_LINES_PER_SECOND = 100;
+    public static final long DEFAULT_MAX_FILE_BYTES = 1L << 20;
+    public static final int DEFAULT_MAX_FILES = 3;
+
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+
+    // Один на все скрипты: задачи одного файла выполняются строго по порядку
+    private static final ExecutorService FILES = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CodeCraft-LogFiles");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, Capture> captures = new ConcurrentHashMap<>();
+
+    private volatile int bufferLines = DEFAULT_BUFFER_LINES;
+    private volatile int maxLinesPerSecond = DEFAULT_MAX_LINES_PER_SECOND;
+    private volatile boolean console = true;
+    private volatile boolean files;
+    private volatile long maxFileBytes = DEFAULT_MAX_FILE_BYTES;
+    private volatile int maxFiles = DEFAULT_MAX_FILES;
+
+    /**
+     * Новые настройки применяются к буферам, созданным после вызова; файлы открываются заново.
+     */
+    public void configure(int bufferLines, int maxLinesPerSecond, boolean console, boolean files, long maxFileBytes, int maxFiles) {
+        this.bufferLines = Math.max(1, bufferLines);
+        this.maxLinesPerSecond = Math.max(0, maxLinesPerSecond);
+        this.console = console;
+        this.files = files;
+        this.maxFileBytes = Math.max(1024, maxFileBytes);
+        this.maxFiles = Math.max(1, maxFiles);
+        close();
+    }
+
+    /**
+     * Вывод скрипта: print, console.log и т.п. Строки сверх лимита частоты отбрасываются.
+     */
+    public void write(String scriptName, ScriptLog.Level level, String message) {
+        if (scriptName == null) {
+            // Объект API ещё не привязан к запуску - такой вывод некому приписать
+            ScriptLog.script("?", level, message);
+            return;
+        }
+        Capture capture = captures.computeIfAbsent(scriptName, this::open);
+        long suppressed = capture.acquire();
+        if (suppressed < 0) {
+            return;
+        }
+        if (suppressed > 0) {
+            ScriptLog.script(scriptName, ScriptLog.Level.WARN, suppressed + " lines suppressed, output rate limit is " + maxLinesPerSecond + " lines/s");
+        }
+        ScriptLog.script(scriptName, level, message);
+    }
+
+    /**
+     * Последние count строк скрипта, старые первыми. Пустой список, если скрипт ничего не выводил.
+     */
+    public List<Line> tail(String scriptName, int count) {
+        Capture capture = captures.get(scriptName);
+        return capture != null ? capture.tail(count) : List.of();
+    }
+
+    public void clear(String scriptName) {
+        Capture capture = captures.remove(scriptName);
+        if (capture != null) {
+            // Строки, которые ещё в буфере журнала, дойдут до приёмника, а не в консоль; файл закроется после них
+            ScriptLog.removeScriptSink(scriptName, capture);
+        }
+    }
+
+    public void close() {
+        for (String scriptName : captures.keySet()) {
+            clear(scriptName);
+        }
+    }
+
+    /**
+     * Ждёт, пока будут выведены записи журнала и дописаны и закрыты файлы. Для остановки сервера, после {@link #close}.
+     */
+    public void awaitFiles(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        ScriptLog.flush(timeoutMillis);
+        try {
+            FILES.submit(() -> { }).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            ScriptLog.warn("ScriptLogs", "Script log files were not closed in {} ms", timeoutMillis);
+        }
+    }
+
+    private Capture open(String scriptName) {
+        Path file = null;
+        if (files) {
+            try {
+                Path dir = ScriptManager.getInstance().getScriptsDir().resolve(LOGS_DIR);
+                Files.createDirectories(dir);
+                file = dir.resolve(scriptName + ".log");
+            } catch (IOException | RuntimeException e) {
+                ScriptLog.warn("ScriptLogs", "Log file for {} is disabled: {}", scriptName, e.getMessage());
+            }
+        }
+        Capture capture = new Capture(scriptName, bufferLines, maxLinesPerSecond, console, file, maxFileBytes, maxFiles);
+        ScriptLog.setScriptSink(scriptName, capture);
+        return capture;
+    }
+
+    public record Line(long timeMillis, ScriptLog.Level level, String message) {
+    }
+
+    /**
+     * Приёмник одного скрипта. Пишет в него только поток журнала, читают команды, файл пишет поток файлов.
+     */
+    private static final class Capture implements ScriptLog.Sink {
+        private final String scriptName;
+        private final Line[] lines;
+        private int next;
+        private int size;
+
+        // Token bucket: запас строк пополняется равномерно, всплеск не больше лимита за секунду
+        private final int maxLinesPerSecond;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+        private long suppressed;
+
+        private final boolean console;
+        private final Path file;
+        private final long maxFileBytes;
+        private final int maxFiles;
+        private final Queue<Line> fileLines = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean fileScheduled = new AtomicBoolean();
+        // Дальше - только поток файлов
+        private BufferedWriter writer;
+        private long fileBytes;
+        private boolean closed;
+
+        private Capture(String scriptName, int bufferLines, int maxLinesPerSecond, boolean console,
+                        Path file, long maxFileBytes, int maxFiles) {
+            this.scriptName = scriptName;
+            this.lines = new Line[bufferLines];
+            this.maxLinesPerSecond = maxLinesPerSecond;
+            this.tokens = maxLinesPerSecond;
+            this.console = console;
+            this.file = file;
+            this.maxFileBytes = maxFileBytes;
+            this.maxFiles = maxFiles;
+        }
+
+        /**
+         * -1, если строку нужно отбросить, иначе число строк, отброшенных перед ней.
+         */
+        private synchronized long acquire() {
+            if (maxLinesPerSecond == 0) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            tokens = Math.min(maxLinesPerSecond, tokens + (now - refilledAt) * maxLinesPerSecond / 1e9);
+            refilledAt = now;
+            if (tokens < 1) {
+                suppressed++;
+                return -1;
+            }
+            tokens--;
+            long dropped = suppressed;
+            suppressed = 0;
+            return dropped;
+        }
+
+        @Override
+        public void write(ScriptLog.Level level, long timeMillis, String message) {
+            Line line = new Line(timeMillis, level, message);
+            synchronized (this) {
+                lines[next] = line;
+                next = (next + 1) % lines.length;
+                size = Math.min(size + 1, lines.length);
+            }
+            if (console) {
+                String prefix = level == ScriptLog.Level.WARN || level == ScriptLog.Level.ERROR ? level + ": " : "";
+                (level == ScriptLog.Level.ERROR ? System.err : System.out).println("[" + scriptName + "] " + prefix + message);
+            }
+            if (file != null) {
+                fileLines.add(line);
+                if (fileScheduled.compareAndSet(false, true)) {
+                    FILES.execute(this::writeFile);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if (file != null) {
+                FILES.execute(() -> {
+                    writeFile();
+                    closeFile();
+                });
+            }
+        }
+
+        private synchronized List<Line> tail(int count) {
+            int taken = Math.min(Math.max(0, count), size);
+            List<Line> result = new ArrayList<>(taken);
+            for (int i = taken; i > 0; i--) {
+                result.add(lines[Math.floorMod(next - i, lines.length)]);
+            }
+            return result;
+        }
+
+        // Всё накопленное одной пачкой, затем на диск
+        private void writeFile() {
+            fileScheduled.set(false);
+            Line line;
+            while (!closed && (line = fileLines.poll()) != null) {
+                writeLine(line);
+            }
+            if (writer != null) {
+                try {
+                    writer.flush();
+                } catch (IOException e) {
+                    ScriptLog.warn("ScriptLogs", "Failed to flush log of {}: {}", scriptName, e.getMessage());
+                }
+            }
+        }
+
+        private void writeLine(Line line) {
+            String text = FILE_TIME.format(Instant.ofEpochMilli(line.timeMillis())) + " " + line.level() + " " + line.message() + "\n";
+            long bytes = text.getBytes(StandardCharsets.UTF_8).length;
+            if (closed) {
+                return;
+            }
+            try {
+                if (writer == null) {
+                    writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                    fileBytes = Files.size(file);
+                }
+                if (fileBytes > 0 && fileBytes + bytes > maxFileBytes) {
+                    rotate();
+                }
+                writer.write(text);
+                fileBytes += bytes;
+            } catch (IOException e) {
+                ScriptLog.warn("ScriptLogs", "Failed to write log of {}: {}", scriptName, e.getMessage());
+                closeFile();
+            }
+        }
+
+        // имя.log -> имя.log.1 -> ... -> имя.log.(maxFiles - 1), самый старый удаляется
+        private void rotate() throws IOException {
+            writer.close();
+            writer = null;
+            for (int i = maxFiles - 1; i > 0; i--) {
+                Path source = i == 1 ? file : file.resolveSibling(file.getFileName() + "." + (i - 1));
+                Path target = file.resolveSibling(file.getFileName() + "." + i);
+                if (Files.exists(source)) {
+                    Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.deleteIfExists(file);
+            writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            fileBytes = 0;
+        }
+
+        private void closeFile() {
+            closed = true;
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    ScriptLog.warn("ScriptLogs", "Failed to close log of {}: {}", scriptName, e.getMessage());
+                }
+                writer = null;
+            }
+        }
+    }
+}
@@ -1,23 +1,72 @@
 package org.pirozhok.codecraft.scripting;
 
+import com.mojang.brigadier.ParseResults;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.world.level.storage.LevelResource;
 import net.minecraftforge.server.ServerLifecycleHooks;
 
 import javax.script.Bindings;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class ScriptManager {
+    public enum ExecutionMode {
+        // Каждый запуск выполняется на рабочем потоке планировщика
+        THREADED,
+        // Запуски выполняются шагами в главном потоке в пределах бюджета тика
+        COOPERATIVE
+    }
+
+    private static final int POOL_EVICTION_INTERVAL_TICKS = 100;
+    public static final long DEFAULT_COMMAND_TIMEOUT_MS = 5000;
+    public static final String METRICS_FILE = "codecraft-metrics.json";
+
+    private static volatile long commandTimeoutMs = DEFAULT_COMMAND_TIMEOUT_MS;
+
     private static ScriptManager instance;
     private MinecraftServer server;
     private final Map<String, ScriptExecutionContext> runningScripts = new ConcurrentHashMap<>();
-    private final Map<String, Thread> scriptThreads = new ConcurrentHashMap<>();
+    private final Map<String, ScriptScheduler.Task> scriptTasks = new ConcurrentHashMap<>();
+    private final ScriptScheduler scheduler = new ScriptScheduler(
+            ScriptScheduler.defaultWorkers(), ScriptScheduler.DEFAULT_QUEUE_CAPACITY, ScriptScheduler.RejectionPolicy.REJECT);
+    private final TickBudgetExecutor tickExecutor = new TickBudgetExecutor();
+    private final CommandQueue commandQueue = new CommandQueue(ScriptManager::performCommand);
+    private final CommandCache commandCache = new CommandCache();
+    private volatile ScriptSource defaultSource = ScriptSource.SERVER;
+    private final TimerWheel timerWheel = new TimerWheel();
+    private final ScriptEvents events = new ScriptEvents();
+    private final ResourceGovernor governor = new ResourceGovernor();
+    private final ScriptProfiler profiler = new ScriptProfiler();
+    private final ScriptMetrics metrics = new ScriptMetrics(this);
+    private final ScriptLogs logs = new ScriptLogs();
+    private final ScriptMessages messages = new ScriptMessages();
+    private final BlockEdits blockEdits = new BlockEdits();
+    private final ScriptHotReload hotReload = new ScriptHotReload(this);
+    private volatile ExecutionMode executionMode = ExecutionMode.THREADED;
+    private volatile long tickBudgetNanos = TickBudgetExecutor.DEFAULT_BUDGET_MS * 1_000_000L;
+    private int tickCounter;
+    private UniversalScriptEngine engine;
+    private ScriptCache scriptCache;
+    private ScriptContextPool contextPool;
+    private volatile ScriptIndex scriptIndex;
+    private volatile long indexRescanSeconds;
+
+    private int poolMinIdle = ScriptContextPool.DEFAULT_MIN_IDLE;
+    private int poolMaxSize = ScriptContextPool.DEFAULT_MAX_SIZE;
+    private long poolIdleTimeoutMs = ScriptContextPool.DEFAULT_IDLE_TIMEOUT_MS;
 
     public static ScriptManager getInstance() {
         if (instance == null) {
@@ -26,9 +75,13 @@ public class ScriptManager {
         return instance;
     }
 
-    public void setServer(MinecraftServer server) {
+    public synchronized void setServer(MinecraftServer server) {
+        if (this.server != server) {
+            // Контексты пула держат ссылку на сервер в привязках
+            closeContextPool();
+        }
         this.server = server;
-        System.out.println("ScriptManager: Server set to " + (server != null ? server.toString() : "null"));
+        ScriptLog.info("ScriptManager", "Server set to {}", server);
     }
 
     public MinecraftServer getServer() {
@@ -39,205 +92,624 @@ public class ScriptManager {
 
         MinecraftServer currentServer = ServerLifecycleHooks.getCurrentServer();
         if (currentServer != null) {
-            System.out.println("ScriptManager: Using server from ServerLifecycleHooks");
+            ScriptLog.debug("ScriptManager", "Using server from ServerLifecycleHooks");
             return currentServer;
         }
 
-        System.err.println("ScriptManager: No server available!");
+        ScriptLog.warn("ScriptManager", "No server available!");
         return null;
     }
 
-    public Path getScriptsDir() throws IOException {
+    // Скомпилированные скрипты привязаны к движку, который их создал, поэтому движок один на менеджер
+    public synchronized UniversalScriptEngine getEngine() {
+        if (engine == null) {
+            engine = new UniversalScriptEngine();
+        }
+        return engine;
+    }
+
+    public synchronized ScriptCache getScriptCache() {
+        if (scriptCache == null) {
+            scriptCache = new ScriptCache(getEngine());
+        }
+        return scriptCache;
+    }
+
+    public synchronized ScriptContextPool getContextPool() {
+        if (contextPool == null) {
+            contextPool = new ScriptContextPool(getEngine(), getServer(), governor.getDefaults().getMaxStatements());
+            contextPool.configure(poolMinIdle, poolMaxSize, poolIdleTimeoutMs);
+        }
+        return contextPool;
+    }
+
+    public synchronized void configureContextPool(int minIdle, int maxSize, long idleTimeoutMs) {
+        this.poolMinIdle = minIdle;
+        this.poolMaxSize = maxSize;
+        this.poolIdleTimeoutMs = idleTimeoutMs;
+        if (contextPool != null) {
+            contextPool.configure(minIdle, maxSize, idleTimeoutMs);
+        }
+    }
+
+    public void configureScheduler(int workers, int queueCapacity, ScriptScheduler.RejectionPolicy rejectionPolicy) {
+        scheduler.configure(workers, queueCapacity, rejectionPolicy);
+    }
+
+    public void configureExecution(ExecutionMode mode, long tickBudgetMs) {
+        this.executionMode = mode;
+        this.tickBudgetNanos = Math.max(1, tickBudgetMs) * 1_000_000L;
+        ScriptLog.info("ScriptManager", "Execution mode {}, tick budget {} ms", mode, tickBudgetMs);
+    }
+
+    public void configureCommands(long timeoutMs, int maxPerTick, int parseCacheSize) {
+        commandTimeoutMs = Math.max(1, timeoutMs);
+        commandQueue.configure(maxPerTick);
+        commandCache.configure(parseCacheSize);
+    }
+
+    public CommandQueue getCommandQueue() {
+        return commandQueue;
+    }
+
+    public CommandCache getCommandCache() {
+        return commandCache;
+    }
+
+    public ScriptSource getDefaultSource() {
+        return defaultSource;
+    }
+
+    /**
+     * Имя и уровень прав, с которыми выполняются команды скриптов без директив @run-as и @permission.
+     */
+    public void configureCommandSource(String name, int permissionLevel) {
+        this.defaultSource = new ScriptSource(name == null || name.isBlank() ? ScriptSource.DEFAULT_NAME : name, permissionLevel, null, null, null);
+    }
+
+    public TimerWheel getTimerWheel() {
+        return timerWheel;
+    }
+
+    public ScriptEvents getEvents() {
+        return events;
+    }
+
+    public ResourceGovernor getGovernor() {
+        return governor;
+    }
+
+    public ScriptProfiler getProfiler() {
+        return profiler;
+    }
+
+    public ScriptMetrics getMetrics() {
+        return metrics;
+    }
+
+    public ScriptLogs getLogs() {
+        return logs;
+    }
+
+    public ScriptMessages getMessages() {
+        return messages;
+    }
+
+    public BlockEdits getBlockEdits() {
+        return blockEdits;
+    }
+
+    public void configureLogs(int bufferLines, int maxLinesPerSecond, boolean console, boolean files, long maxFileBytes, int maxFiles) {
+        logs.configure(bufferLines, maxLinesPerSecond, console, files, maxFileBytes, maxFiles);
+    }
+
+    public void configureMessages(boolean coalesce, int maxLinesPerMessage, ScriptMessages.Collapse collapse) {
+        messages.configure(coalesce, maxLinesPerMessage, collapse);
+    }
+
+    public void configureWorldEdit(long tickBudgetMs, int maxBlocksPerEdit) {
+        blockEdits.configure(tickBudgetMs, maxBlocksPerEdit);
+    }
+
+    /**
+     * Включает экспорт метрик: MBean и, если jsonIntervalSeconds > 0, JSON-снимок в папке мира.
+     */
+    public void configureMetrics(boolean jmx, long jsonIntervalSeconds) {
+        if (jmx) {
+            metrics.registerMBean();
+        } else {
+            metrics.unregisterMBean();
+        }
+        MinecraftServer currentServer = getServer();
+        if (currentServer != null && jsonIntervalSeconds > 0) {
+            metrics.startJsonDump(currentServer.getWorldPath(LevelResource.ROOT).resolve(METRICS_FILE), jsonIntervalSeconds);
+        } else {
+            metrics.stopJsonDump();
+        }
+    }
+
+    // Без создания пула и кэша, если их ещё нет
+    synchronized ScriptContextPool peekContextPool() {
+        return contextPool;
+    }
+
+    synchronized ScriptCache peekScriptCache() {
+        return scriptCache;
+    }
+
+    public int getRunningCount() {
+        return runningScripts.size();
+    }
+
+    public int getQueuedCount() {
+        int queued = 0;
+        for (ScriptExecutionContext context : runningScripts.values()) {
+            if (context.getState() == ScriptExecutionContext.State.QUEUED) {
+                queued++;
+            }
+        }
+        return queued;
+    }
+
+    public synchronized void configureLimits(ScriptLimits defaults, long stopTimeoutMs) {
+        long previousStatementLimit = governor.getDefaults().getMaxStatements();
+        governor.configure(defaults, stopTimeoutMs);
+        if (defaults.getMaxStatements() != previousStatementLimit) {
+            // Лимит инструкций зашит в контексты пула при создании
+            closeContextPool();
+        }
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    public TickBudgetExecutor getTickExecutor() {
+        return tickExecutor;
+    }
+
+    /**
+     * Ставит следующий шаг уже запущенного скрипта туда же, где выполняется сам скрипт.
+     */
+    void dispatch(ScriptExecutionContext context, Runnable step) {
+        if (executionMode == ExecutionMode.COOPERATIVE) {
+            tickExecutor.submit(context.getScriptName(), step);
+        } else if (scheduler.execute(context.getScriptName(), context.getPriority(), step) == null) {
+            ScriptLog.warn("ScriptManager", "Failed to schedule continuation of {}", context.getScriptName());
+        }
+    }
+
+    /**
+     * Вызывается из главного потока в конце каждого серверного тика.
+     */
+    public void tick() {
+        // Сначала команды, накопленные скриптами с рабочих потоков за прошедший тик
+        commandQueue.drain();
+        // Сработавшие таймеры попадают в очереди скриптов; в кооперативном режиме они выполнятся в этом же тике
+        timerWheel.advance();
+        tickExecutor.runTick(tickBudgetNanos);
+        // Правки блоков со своим бюджетом: большие растягиваются на несколько тиков
+        blockEdits.apply();
+        // Сообщения, отправленные скриптами за тик, включая только что выполненные шаги
+        messages.flush();
+
+        if (++tickCounter % POOL_EVICTION_INTERVAL_TICKS == 0) {
+            ScriptContextPool pool;
+            synchronized (this) {
+                pool = contextPool;
+            }
+            if (pool != null) {
+                pool.evictIdle();
+            }
+        }
+    }
+
+    public void warmUp() {
+        try {
+            long start = System.nanoTime();
+            int warmed = getContextPool().warmUp();
+            ScriptLog.info("ScriptManager", "Warmed {} script contexts in {} ms", warmed, (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            ScriptLog.warn("ScriptManager", "Failed to warm script contexts: {}", e.getMessage());
+        }
+    }
+
+    private synchronized void closeContextPool() {
+        if (contextPool != null) {
+            contextPool.close();
+            contextPool = null;
+        }
+    }
+
+    /**
+     * Индекс папки скриптов текущего мира. Строится при первом обращении или при смене мира,
+     * дальше обновляется сам.
+     */
+    public ScriptIndex getScriptIndex() throws IOException {
         MinecraftServer currentServer = getServer();
         if (currentServer == null) {
             throw new IllegalStateException("Server not initialized");
         }
-
         // Для одиночной игры используем путь к миру
         Path worldPath = currentServer.getWorldPath(new LevelResource("scripts"));
-        Files.createDirectories(worldPath);
-        System.out.println("ScriptManager: Scripts directory: " + worldPath);
-        return worldPath;
+        ScriptIndex index = scriptIndex;
+        if (index != null && index.getDirectory().equals(worldPath)) {
+            return index;
+        }
+        synchronized (this) {
+            index = scriptIndex;
+            if (index == null || !index.getDirectory().equals(worldPath)) {
+                if (index != null) {
+                    index.close();
+                }
+                index = new ScriptIndex(worldPath, indexRescanSeconds);
+                index.addListener(hotReload::changed);
+                scriptIndex = index;
+            }
+            return index;
+        }
+    }
+
+    ScriptIndex peekScriptIndex() {
+        return scriptIndex;
+    }
+
+    /**
+     * Строит индекс скриптов заранее, чтобы первое обращение не читало папку в главном потоке.
+     * rescanSeconds - период полной перепроверки папки для дисков без событий файловой системы; 0 - отключена.
+     */
+    public void configureScriptIndex(long rescanSeconds) {
+        this.indexRescanSeconds = Math.max(0, rescanSeconds);
+        closeScriptIndex();
+        try {
+            getScriptIndex();
+        } catch (Exception e) {
+            ScriptLog.warn("ScriptManager", "Failed to index scripts: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Перезапуск запущенных скриптов при изменении их файлов; debounceMs - пауза после последнего изменения.
+     */
+    public void configureHotReload(boolean enabled, long debounceMs) {
+        hotReload.configure(enabled, debounceMs);
+        ScriptLog.info("ScriptManager", "Hot reload: {} (debounce {} ms)", enabled ? "enabled" : "disabled", debounceMs);
+    }
+
+    public ScriptHotReload getHotReload() {
+        return hotReload;
+    }
+
+    private synchronized void closeScriptIndex() {
+        if (scriptIndex != null) {
+            scriptIndex.close();
+            scriptIndex = null;
+        }
+    }
+
+    public Path getScriptsDir() throws IOException {
+        return getScriptIndex().getDirectory();
     }
 
     public boolean scriptExists(String name) {
         try {
-            Path scriptPath = getScriptsDir().resolve(name + ".js");
-            boolean exists = Files.exists(scriptPath);
-            System.out.println("ScriptManager: Script " + name + " exists: " + exists);
-            return exists;
+            return getScriptIndex().contains(name);
         } catch (Exception e) {
-            System.err.println("ScriptManager: Error checking script existence: " + e.getMessage());
+            ScriptLog.warn("ScriptManager", "Error checking script existence: {}", e.getMessage());
             return false;
         }
     }
 
     public void createScript(String name, String content) throws IOException {
-        Path scriptPath = getScriptsDir().resolve(name + ".js");
-        Files.writeString(scriptPath, content);
-        System.out.println("ScriptManager: Script created: " + name);
+        getScriptIndex().write(name, content);
+        invalidateCompiled(name);
+        ScriptLog.info("ScriptManager", "Script created: {}", name);
     }
 
     public String readScript(String name) throws IOException {
-        Path scriptPath = getScriptsDir().resolve(name + ".js");
-        String content = Files.readString(scriptPath);
-        System.out.println("ScriptManager: Script read: " + name + " (" + content.length() + " chars)");
-        return content;
+        return readEntry(name).content();
+    }
+
+    private ScriptIndex.Entry readEntry(String name) throws IOException {
+        ScriptIndex index = getScriptIndex();
+        ScriptIndex.Entry entry = index.get(name);
+        if (entry == null) {
+            throw new NoSuchFileException(index.pathOf(name).toString());
+        }
+        return entry;
     }
 
     public void deleteScript(String name) throws IOException {
-        Path scriptPath = getScriptsDir().resolve(name + ".js");
-        Files.deleteIfExists(scriptPath);
+        getScriptIndex().delete(name);
+        invalidateCompiled(name);
         stopScript(name);
-        System.out.println("ScriptManager: Script deleted: " + name);
+        logs.clear(name);
+        ScriptLog.info("ScriptManager", "Script deleted: {}", name);
+    }
+
+    private synchronized void invalidateCompiled(String name) {
+        if (scriptCache != null) {
+            scriptCache.invalidate(name);
+        }
     }
 
     public boolean executeScript(String name) {
-        System.out.println("ScriptManager: Attempting to execute script: " + name);
+        ScriptLog.debug("ScriptManager", "Attempting to execute script: {}", name);
 
         if (runningScripts.containsKey(name)) {
-            System.out.println("ScriptManager: Script already running: " + name);
+            ScriptLog.debug("ScriptManager", "Script already running: {}", name);
             return false;
         }
 
         // Проверяем доступность сервера
         MinecraftServer currentServer = getServer();
         if (currentServer == null) {
-            System.err.println("ScriptManager: Cannot execute script - no server available");
+            ScriptLog.warn("ScriptManager", "Cannot execute script - no server available");
             return false;
         }
 
         try {
-            String scriptContent = readScript(name);
+            ScriptIndex.Entry entry = readEntry(name);
+            // Директивы разбирает контекст, приоритет берём у него
+            ScriptExecutionContext context = new ScriptExecutionContext(name, entry.content(), entry.hash(), currentServer);
+            int priority = context.getPriority();
+            if (runningScripts.putIfAbsent(name, context) != null) {
+                ScriptLog.debug("ScriptManager", "Script already running: {}", name);
+                return false;
+            }
 
-            ScriptExecutionContext context = new ScriptExecutionContext(name, scriptContent, currentServer);
-            runningScripts.put(name, context);
+            // Скрипт считается запущенным, пока не доставлены результаты всех его асинхронных операций
+            context.setOnFinished(() -> {
+                runningScripts.remove(name, context);
+                ScriptLog.debug("ScriptManager", "Script cleanup completed: {}", name);
+            });
 
-            Thread scriptThread = new Thread(() -> {
+            // Задача может начаться раньше, чем submit вернёт её: запись в scriptTasks убирает тот, кто позже
+            AtomicReference<ScriptScheduler.Task> submitted = new AtomicReference<>();
+            AtomicBoolean started = new AtomicBoolean();
+            Runnable run = () -> {
+                started.set(true);
+                removeTask(name, submitted.get());
                 try {
-                    System.out.println("ScriptManager: Starting script execution thread for: " + name);
+                    ScriptLog.debug("ScriptManager", "Starting script execution for: {}", name);
                     context.execute();
-                    System.out.println("ScriptManager: Script finished: " + name);
+                    ScriptLog.debug("ScriptManager", "Script body finished: {}", name);
                 } catch (Exception e) {
-                    System.err.println("ScriptManager: Error executing script '" + name + "': " + e.getMessage());
-                    e.printStackTrace();
-                } finally {
-                    runningScripts.remove(name);
-                    scriptThreads.remove(name);
-                    System.out.println("ScriptManager: Script cleanup completed: " + name);
+                    ScriptLog.error("ScriptManager", "Error executing script '" + name + "': " + e.getMessage(), e);
                 }
+            };
+
+            if (executionMode == ExecutionMode.COOPERATIVE) {
+                tickExecutor.submit(name, run);
+                ScriptLog.debug("ScriptManager", "Script queued for the next tick: {}", name);
+                return true;
+            }
+
+            ScriptScheduler.Task task = scheduler.submit(name, priority, run, () -> {
+                removeTask(name, submitted.get());
+                runningScripts.remove(name, context);
             });
 
-            scriptThread.setName("Script-" + name);
-            scriptThreads.put(name, scriptThread);
-            scriptThread.start();
+            if (task == null) {
+                runningScripts.remove(name, context);
+                ScriptLog.warn("ScriptManager", "Script queue is full, rejected: {}", name);
+                return false;
+            }
+            submitted.set(task);
+            scriptTasks.putIfAbsent(name, task);
+            if (started.get()) {
+                removeTask(name, task);
+            }
 
-            System.out.println("ScriptManager: Script execution started: " + name);
+            ScriptLog.debug("ScriptManager", "Script queued: {} (priority {})", name, priority);
             return true;
         } catch (Exception e) {
-            System.err.println("ScriptManager: Failed to execute script '" + name + "': " + e.getMessage());
-            e.printStackTrace();
+            ScriptLog.error("ScriptManager", "Failed to execute script '" + name + "': " + e.getMessage(), e);
             return false;
         }
     }
 
+    private void removeTask(String name, ScriptScheduler.Task task) {
+        if (task != null) {
+            scriptTasks.remove(name, task);
+        }
+    }
+
     public boolean stopScript(String name) {
-        System.out.println("ScriptManager: Attempting to stop script: " + name);
+        ScriptLog.debug("ScriptManager", "Attempting to stop script: {}", name);
 
-        ScriptExecutionContext context = runningScripts.get(name);
-        Thread thread = scriptThreads.get(name);
+        ScriptExecutionContext context = runningScripts.remove(name);
+        ScriptScheduler.Task task = scriptTasks.remove(name);
 
         boolean stopped = false;
 
-        if (context != null) {
-            context.stop();
-            runningScripts.remove(name);
+        if (task != null && scheduler.cancel(task)) {
             stopped = true;
-            System.out.println("ScriptManager: Script context stopped: " + name);
+            ScriptLog.debug("ScriptManager", "Queued script removed from queue: {}", name);
         }
+        tickExecutor.cancel(name);
+        blockEdits.cancel(name);
 
-        if (thread != null && thread.isAlive()) {
-            thread.interrupt();
-            scriptThreads.remove(name);
+        if (context != null) {
+            // Прерывает рабочий поток, если скрипт уже выполняется
+            context.stop();
             stopped = true;
-            System.out.println("ScriptManager: Script thread interrupted: " + name);
+            ScriptLog.info("ScriptManager", "Script stopped: {}", name);
         }
 
         if (!stopped) {
-            System.out.println("ScriptManager: Script was not running: " + name);
+            ScriptLog.debug("ScriptManager", "Script was not running: {}", name);
         }
 
         return stopped;
     }
 
+    /**
+     * Останавливает запуск, превысивший лимиты. Запуск с тем же именем, начатый позже, не затрагивается.
+     */
+    public void killScript(ScriptExecutionContext context, String reason) {
+        String name = context.getScriptName();
+        ScriptLog.warn("ScriptManager", "Killing script {}: {}", name, reason);
+        if (runningScripts.remove(name, context)) {
+            scriptTasks.remove(name);
+        }
+        context.stop();
+
+        // Вызывается и из потока надзора: рассылка только через очередь сообщений
+        MinecraftServer currentServer = context.getServer();
+        if (currentServer != null) {
+            messages.send(currentServer, name, null, Component.literal("Скрипт " + name + " остановлен: " + reason), false);
+        }
+    }
+
+    public ScriptExecutionContext.State getScriptState(String name) {
+        ScriptExecutionContext context = runningScripts.get(name);
+        return context != null ? context.getState() : ScriptExecutionContext.State.FINISHED;
+    }
+
+    public boolean isScriptQueued(String name) {
+        return getScriptState(name) == ScriptExecutionContext.State.QUEUED;
+    }
+
+    public ScriptScheduler getScheduler() {
+        return scheduler;
+    }
+
     public boolean isScriptRunning(String name) {
         boolean running = runningScripts.containsKey(name);
-        System.out.println("ScriptManager: Script " + name + " running: " + running);
+        ScriptLog.debug("ScriptManager", "Script {} running: {}", name, running);
         return running;
     }
 
     public void stopAllScripts() {
-        System.out.println("ScriptManager: Stopping all scripts");
+        ScriptLog.info("ScriptManager", "Stopping all scripts");
         for (String scriptName : runningScripts.keySet()) {
             stopScript(scriptName);
         }
     }
 
+    public void shutdown() {
+        stopAllScripts();
+        commandQueue.clear();
+        blockEdits.clear();
+        messages.clear();
+        metrics.stopJsonDump();
+        closeContextPool();
+        hotReload.close();
+        closeScriptIndex();
+        // Поток журнала фоновый: без этого последние сообщения пропадут вместе с процессом
+        ScriptLog.flush(1000);
+        logs.close();
+        logs.awaitFiles(1000);
+    }
+
     public Map<String, String> listScripts() {
         Map<String, String> scripts = new HashMap<>();
         try {
-            Path scriptsDir = getScriptsDir();
-            if (Files.exists(scriptsDir)) {
-                Files.list(scriptsDir)
-                        .filter(path -> path.toString().endsWith(".js"))
-                        .forEach(path -> {
-                            String fileName = path.getFileName().toString();
-                            String name = fileName.substring(0, fileName.length() - 3);
-                            scripts.put(name, fileName);
-                        });
+            ScriptIndex index = getScriptIndex();
+            for (String name : index.names()) {
+                Path source = index.sourceOf(name);
+                if (source != null) {
+                    scripts.put(name, source.getFileName().toString());
+                }
             }
-            System.out.println("ScriptManager: Found " + scripts.size() + " scripts");
         } catch (IOException e) {
-            System.err.println("ScriptManager: Error listing scripts: " + e.getMessage());
+            ScriptLog.warn("ScriptManager", "Error listing scripts: {}", e.getMessage());
         }
         return scripts;
     }
 
     public static boolean executeCommandSafe(MinecraftServer server, String command) {
+        return executeCommandSafe(server, command, null);
+    }
+
+    public static boolean executeCommandSafe(MinecraftServer server, String command, String scriptName) {
+        return awaitCommand(command, submitCommand(server, command, scriptName)) > 0;
+    }
+
+    /**
+     * Ставит команду в очередь главного потока и сразу возвращает future с результатом performPrefixedCommand.
+     * Очередь разбирается раз в тик; в главном потоке команда выполняется сразу.
+     */
+    public static CompletableFuture<Integer> submitCommand(MinecraftServer server, String command) {
+        return submitCommand(server, command, null);
+    }
+
+    /**
+     * То же, но команда и время её выполнения записываются в статистику скрипта scriptName.
+     */
+    public static CompletableFuture<Integer> submitCommand(MinecraftServer server, String command, String scriptName) {
+        return submitCommand(server, command, scriptName, null);
+    }
+
+    /**
+     * source - от чьего имени выполнить команду; null - источник по умолчанию из конфига.
+     */
+    public static CompletableFuture<Integer> submitCommand(MinecraftServer server, String command, String scriptName, ScriptSource source) {
         MinecraftServer currentServer = server != null ? server : ServerLifecycleHooks.getCurrentServer();
         if (currentServer == null) {
-            System.err.println("ScriptManager: No server available for command execution");
-            return false;
+            ScriptLog.warn("ScriptManager", "No server available for command execution");
+            return CompletableFuture.failedFuture(new IllegalStateException("No server available"));
         }
 
-        System.out.println("ScriptManager: Executing command: " + command);
+        ScriptLog.debug("ScriptManager", "Executing command: {}", command);
 
-        try {
-            AtomicReference<Boolean> success = new AtomicReference<>(false);
-            AtomicReference<Exception> exception = new AtomicReference<>(null);
+        ScriptManager manager = getInstance();
+        ScriptSource commandSource = source != null ? source : manager.defaultSource;
+        ScriptProfiler.Stats stats = scriptName != null ? manager.profiler.get(scriptName) : null;
+        if (stats != null) {
+            stats.recordCommandIssued();
+        }
+        if (currentServer.isSameThread()) {
+            // Уже в главном потоке (кооперативный режим) - выполняем сразу, без ожидания тика
+            return manager.commandQueue.runNow(currentServer, commandSource, command, stats);
+        }
+        return manager.commandQueue.submit(currentServer, commandSource, command, stats);
+    }
 
-            // Execute command on the main server thread
-            currentServer.execute(() -> {
-                try {
-                    int result = currentServer.getCommands().performPrefixedCommand(
-                            currentServer.createCommandSourceStack().withSuppressedOutput(),
-                            command
-                    );
-                    success.set(result > 0);
-                    System.out.println("ScriptManager: Command executed successfully: " + command + " Result: " + result);
-                } catch (Exception e) {
-                    System.err.println("ScriptManager: Error executing command: " + command + " - " + e.getMessage());
-                    exception.set(e);
-                    success.set(false);
-                }
-            });
+    private static int performCommand(MinecraftServer server, ScriptSource source, String command) {
+        // То же, что performPrefixedCommand, но источник собран заранее, а разбор берётся из кэша
+        String line = command.startsWith("/") ? command.substring(1) : command;
+        Commands commands = server.getCommands();
+        ParseResults<CommandSourceStack> parse = getInstance().commandCache.parse(commands.getDispatcher(), source.getKey(),
+                () -> source.resolve(server), line);
+        int result = commands.performCommand(parse, line);
+        ScriptLog.debug("ScriptManager", "Command executed: {} Result: {}", command, result);
+        return result;
+    }
 
-            // Wait a bit for command execution
-            Thread.sleep(100);
-            return success.get();
-        } catch (Exception e) {
-            System.err.println("ScriptManager: Exception in executeCommandSafe: " + e.getMessage());
-            return false;
+    /**
+     * Ждёт результат команды не дольше настроенного таймаута. 0 при ошибке или таймауте.
+     */
+    static int awaitCommand(String command, CompletableFuture<Integer> future) {
+        return awaitCommand(command, future, null);
+    }
+
+    /**
+     * context - запуск, шаг которого ждёт команду: время ожидания не засчитывается ему как выполнение.
+     */
+    static int awaitCommand(String command, CompletableFuture<Integer> future, ScriptExecutionContext context) {
+        // Главный поток сам выполняет очереди и не дождался бы результата
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        if (!future.isDone() && server != null && server.isSameThread()) {
+            ScriptLog.warn("ScriptManager", "Cannot wait on the server thread, use then(...) or yield instead: {}", command);
+            return 0;
+        }
+        long start = System.nanoTime();
+        try {
+            return future.get(commandTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            ScriptLog.warn("ScriptManager", "Command timed out after {} ms: {}", commandTimeoutMs, command);
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } catch (ExecutionException e) {
+            return 0;
+        } finally {
+            if (context != null) {
+                context.recordBlocked(System.nanoTime() - start);
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,287 @@
+package org.pirozhok.codecraft.scripting;
+
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.MutableComponent;
+import net.minecraft.network.protocol.game.ClientboundSetSubtitleTextPacket;
+import net.minecraft.network.protocol.game.ClientboundSetTitleTextPacket;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.players.PlayerList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Сообщения скриптов игрокам без команд: скрипт сразу строит {@link Component}, а главный поток
+ * раз в тик рассылает всё накопленное. Из главного потока сообщение уходит сразу.
+ * Получатели - все игроки или список имён; селекторы не разбираются.
+ * <p>
+ * При объединении все сообщения, включая отправленные из главного потока, ждут конца тика. В главном потоке
+ * получатели раскрываются до отдельных игроков, и строки чата одному игроку склеиваются в одно сообщение
+ * (не больше maxLinesPerMessage строк), даже если пришли и всем, и лично ему. Повторы одной строки от одного
+ * скрипта отбрасываются, а из actionbar и заголовков доходит только последний. Порядок у каждого игрока сохраняется.
+ */
+public class ScriptMessages {
+    public static final int DEFAULT_MAX_LINES_PER_MESSAGE = 10;
+
+    public enum Kind {
+        CHAT, ACTIONBAR, TITLE
+    }
+
+    // Что делать, если за тик одним получателям пришло больше одной строки чата
+    public enum Collapse {
+        NONE, ACTIONBAR, TITLE
+    }
+
+    private static final Component NEW_LINE = Component.literal("\n");
+
+    private final Queue<Outgoing> pending = new ConcurrentLinkedQueue<>();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder packets = new LongAdder();
+    private final LongAdder merged = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+
+    private volatile boolean coalesce = true;
+    private volatile int maxLinesPerMessage = DEFAULT_MAX_LINES_PER_MESSAGE;
+    private volatile Collapse collapse = Collapse.NONE;
+
+    public void configure(boolean coalesce, int maxLinesPerMessage, Collapse collapse) {
+        this.coalesce = coalesce;
+        this.maxLinesPerMessage = Math.max(1, maxLinesPerMessage);
+        this.collapse = collapse;
+    }
+
+    /**
+     * players - имена получателей или null для всех. overlay - показать над хотбаром вместо чата.
+     */
+    public void send(MinecraftServer server, String scriptName, List<String> players, Component message, boolean overlay) {
+        send(server, scriptName, players, overlay ? Kind.ACTIONBAR : Kind.CHAT, message, null);
+    }
+
+    /**
+     * Заголовок по центру экрана; subtitle может быть null.
+     */
+    public void sendTitle(MinecraftServer server, String scriptName, List<String> players, Component title, Component subtitle) {
+        send(server, scriptName, players, Kind.TITLE, title, subtitle);
+    }
+
+    private void send(MinecraftServer server, String scriptName, List<String> players, Kind kind, Component message, Component subtitle) {
+        if (server == null) {
+            ScriptLog.warn("ScriptMessages", "Cannot send message - server is null");
+            return;
+        }
+        sent.increment();
+        Outgoing outgoing = new Outgoing(server, scriptName, players, kind, message, subtitle);
+        if (!coalesce && server.isSameThread()) {
+            deliver(outgoing);
+        } else {
+            pending.add(outgoing);
+        }
+    }
+
+    /**
+     * Рассылает накопленные сообщения. Вызывается из главного потока раз в тик.
+     */
+    public int flush() {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        int count = 0;
+        Outgoing outgoing;
+        if (!coalesce) {
+            while ((outgoing = pending.poll()) != null) {
+                deliver(outgoing);
+                count++;
+            }
+            return count;
+        }
+
+        Map<Recipient, List<Outgoing>> recipients = new LinkedHashMap<>();
+        while ((outgoing = pending.poll()) != null) {
+            for (ServerPlayer player : recipients(outgoing)) {
+                recipients.computeIfAbsent(new Recipient(player, outgoing.kind), recipient -> new ArrayList<>()).add(outgoing);
+            }
+            count++;
+        }
+        for (Map.Entry<Recipient, List<Outgoing>> entry : recipients.entrySet()) {
+            ServerPlayer player = entry.getKey().player;
+            List<Outgoing> messages = entry.getValue();
+            if (entry.getKey().kind == Kind.CHAT) {
+                for (Outgoing message : composeChat(messages)) {
+                    deliverTo(player, message);
+                }
+            } else {
+                // Из actionbar и заголовков игрок всё равно увидит только последний
+                merged.add(messages.size() - 1);
+                deliverTo(player, messages.get(messages.size() - 1));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Строки чата одного игрока за тик - в сообщения, которые ему уйдут.
+     */
+    List<Outgoing> composeChat(List<Outgoing> messages) {
+        Set<Line> seen = new HashSet<>();
+        List<Outgoing> lines = new ArrayList<>(messages.size());
+        for (Outgoing outgoing : messages) {
+            if (seen.add(new Line(outgoing.scriptName, outgoing.message))) {
+                lines.add(outgoing);
+            } else {
+                duplicates.increment();
+            }
+        }
+
+        Collapse mode = collapse;
+        if (lines.size() > 1 && mode != Collapse.NONE) {
+            Outgoing last = lines.get(lines.size() - 1);
+            merged.add(lines.size() - 1);
+            return List.of(new Outgoing(last.server, last.scriptName, last.players,
+                    mode == Collapse.TITLE ? Kind.TITLE : Kind.ACTIONBAR, last.message, null));
+        }
+
+        int limit = maxLinesPerMessage;
+        List<Outgoing> result = new ArrayList<>((lines.size() + limit - 1) / limit);
+        for (int start = 0; start < lines.size(); start += limit) {
+            int end = Math.min(lines.size(), start + limit);
+            Outgoing first = lines.get(start);
+            if (end - start == 1) {
+                result.add(first);
+                continue;
+            }
+            MutableComponent text = Component.empty().append(first.message);
+            for (int i = start + 1; i < end; i++) {
+                text.append(NEW_LINE).append(lines.get(i).message);
+            }
+            merged.add(end - start - 1);
+            result.add(new Outgoing(first.server, first.scriptName, first.players, Kind.CHAT, text, null));
+        }
+        return result;
+    }
+
+    public void clear() {
+        pending.clear();
+    }
+
+    private void deliver(Outgoing outgoing) {
+        if (outgoing.players == null && outgoing.kind != Kind.TITLE) {
+            PlayerList playerList = outgoing.server.getPlayerList();
+            playerList.broadcastSystemMessage(outgoing.message, outgoing.kind == Kind.ACTIONBAR);
+            delivered.add(playerList.getPlayerCount());
+            packets.add(playerList.getPlayerCount());
+            return;
+        }
+        for (ServerPlayer player : recipients(outgoing)) {
+            deliverTo(player, outgoing);
+        }
+    }
+
+    // Только в главном потоке: игроки в сети, которым адресовано сообщение, без повторов
+    private static List<ServerPlayer> recipients(Outgoing outgoing) {
+        PlayerList playerList = outgoing.server.getPlayerList();
+        if (outgoing.players == null) {
+            return playerList.getPlayers();
+        }
+        List<ServerPlayer> players = new ArrayList<>(outgoing.players.size());
+        for (String name : outgoing.players) {
+            ServerPlayer player = playerList.getPlayerByName(name);
+            if (player != null && !players.contains(player)) {
+                players.add(player);
+            }
+        }
+        return players;
+    }
+
+    private void deliverTo(ServerPlayer player, Outgoing outgoing) {
+        delivered.increment();
+        if (outgoing.kind != Kind.TITLE) {
+            player.sendSystemMessage(outgoing.message, outgoing.kind == Kind.ACTIONBAR);
+            packets.increment();
+            return;
+        }
+        // Подзаголовок показывается только вместе с заголовком, поэтому уходит первым
+        if (outgoing.subtitle != null) {
+            player.connection.send(new ClientboundSetSubtitleTextPacket(outgoing.subtitle));
+            packets.increment();
+        }
+        player.connection.send(new ClientboundSetTitleTextPacket(outgoing.message));
+        packets.increment();
+    }
+
+    /**
+     * Получатели из значения скрипта: null, "@a" или "all" - все игроки, строка - одно имя,
+     * массив или список - несколько имён.
+     */
+    static List<String> targets(Object target) {
+        if (target == null) {
+            return null;
+        }
+        if (target instanceof String name) {
+            String trimmed = name.trim();
+            return trimmed.equals("@a") || trimmed.toLowerCase(Locale.ROOT).equals("all") ? null : List.of(trimmed);
+        }
+        Collection<?> values;
+        if (target instanceof Collection<?> collection) {
+            values = collection;
+        } else if (target instanceof Object[] array) {
+            values = List.of(array);
+        } else if (target instanceof ServerPlayer player) {
+            return List.of(player.getScoreboardName());
+        } else {
+            throw new IllegalArgumentException("Unknown message target: " + target + ", expected a player name, a list of names or \"all\"");
+        }
+        List<String> names = new ArrayList<>(values.size());
+        for (Object value : values) {
+            names.add(value instanceof ServerPlayer player ? player.getScoreboardName() : String.valueOf(value));
+        }
+        return names;
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    // Доставки игрокам: сообщение всем засчитывается каждому игроку
+    public long getDeliveredCount() {
+        return delivered.sum();
+    }
+
+    public long getPacketCount() {
+        return packets.sum();
+    }
+
+    // Сообщения, которые ушли в составе другого или были вытеснены последним; считается для каждого игрока
+    public long getMergedCount() {
+        return merged.sum();
+    }
+
+    public long getDuplicateCount() {
+        return duplicates.sum();
+    }
+
+    record Outgoing(MinecraftServer server, String scriptName, List<String> players, Kind kind, Component message, Component subtitle) {
+    }
+
+    // Игрок сравнивается по ссылке: после перезахода это уже другой объект
+    private record Recipient(ServerPlayer player, Kind kind) {
+    }
+
+    // Компоненты сравниваются по содержимому и стилю
+    private record Line(String scriptName, Component message) {
+    }
+}
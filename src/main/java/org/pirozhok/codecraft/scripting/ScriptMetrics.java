@@ -0,0 +1,448 @@
+package org.pirozhok.codecraft.scripting;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Единая точка чтения метрик скриптового рантайма: скрипты, планировщик, пул контекстов,
+ * очередь команд, кэш компиляции и надзор за лимитами. Метрики не хранятся отдельно, а читаются
+ * из самих подсистем в момент запроса. Экспортируются через JMX и, по желанию, в JSON-файл в папке мира.
+ */
+public class ScriptMetrics implements ScriptMetricsMBean {
+    public static final String OBJECT_NAME = "org.pirozhok.codecraft:type=Scripting";
+
+    private final ScriptManager manager;
+    private ObjectName registeredName;
+    private ScheduledExecutorService dumper;
+    private ScheduledFuture<?> dumpTask;
+
+    public ScriptMetrics(ScriptManager manager) {
+        this.manager = manager;
+    }
+
+    public synchronized void registerMBean() {
+        if (registeredName != null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+            registeredName = name;
+        } catch (JMException | RuntimeException e) {
+            ScriptLog.warn("ScriptMetrics", "Failed to register MBean: {}", e.getMessage());
+        }
+    }
+
+    public synchronized void unregisterMBean() {
+        if (registeredName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException | RuntimeException e) {
+            ScriptLog.warn("ScriptMetrics", "Failed to unregister MBean: {}", e.getMessage());
+        }
+        registeredName = null;
+    }
+
+    /**
+     * Раз в intervalSeconds записывает снимок метрик в file. 0 выключает запись.
+     */
+    public synchronized void startJsonDump(Path file, long intervalSeconds) {
+        stopJsonDump();
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        if (dumper == null) {
+            dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "CodeCraft-Metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        dumpTask = dumper.scheduleWithFixedDelay(() -> writeJson(file), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        ScriptLog.info("ScriptMetrics", "Writing metrics to {} every {} s", file, intervalSeconds);
+    }
+
+    public synchronized void stopJsonDump() {
+        if (dumpTask != null) {
+            dumpTask.cancel(false);
+            dumpTask = null;
+        }
+    }
+
+    public void writeJson(Path file) {
+        try {
+            // Через временный файл, чтобы мониторинг не прочитал наполовину записанный снимок
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(temp, getSnapshotJson());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            ScriptLog.warn("ScriptMetrics", "Failed to write metrics snapshot: {}", e.getMessage());
+        }
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("timestamp", System.currentTimeMillis());
+
+        Map<String, Object> scripts = new LinkedHashMap<>();
+        scripts.put("running", getRunningScripts());
+        scripts.put("queued", getQueuedScripts());
+        scripts.put("activeSteps", getActiveSteps());
+        scripts.put("killed", getKilledScripts());
+        scripts.put("forcedStops", getForcedStops());
+        root.put("scripts", scripts);
+
+        ScriptScheduler scheduler = manager.getScheduler();
+        Map<String, Object> workers = new LinkedHashMap<>();
+        workers.put("workers", scheduler.getWorkerCount());
+        workers.put("active", scheduler.getActiveCount());
+        workers.put("queueDepth", scheduler.getQueueDepth());
+        workers.put("queueCapacity", scheduler.getQueueCapacity());
+        workers.put("utilization", scheduler.getUtilization());
+        workers.put("submitted", scheduler.getSubmittedCount());
+        workers.put("completed", scheduler.getCompletedCount());
+        workers.put("rejected", scheduler.getRejectedCount());
+        root.put("scheduler", workers);
+
+        TickBudgetExecutor tickExecutor = manager.getTickExecutor();
+        Map<String, Object> cooperative = new LinkedHashMap<>();
+        cooperative.put("pendingSteps", tickExecutor.getPendingSteps());
+        cooperative.put("stepsRun", tickExecutor.getStepsRun());
+        cooperative.put("overBudgetTicks", tickExecutor.getOverBudgetTicks());
+        cooperative.put("lastTickMicros", tickExecutor.getLastTickNanos() / 1000);
+        root.put("cooperative", cooperative);
+
+        ScriptContextPool pool = manager.peekContextPool();
+        Map<String, Object> contexts = new LinkedHashMap<>();
+        contexts.put("idle", pool != null ? pool.getIdleCount() : 0);
+        contexts.put("size", pool != null ? pool.getPooledCount() : 0);
+        contexts.put("maxSize", pool != null ? pool.getMaxSize() : 0);
+        contexts.put("created", pool != null ? pool.getCreatedCount() : 0);
+        contexts.put("reused", pool != null ? pool.getReusedCount() : 0);
+        contexts.put("overflow", pool != null ? pool.getOverflowCount() : 0);
+        contexts.put("evicted", pool != null ? pool.getEvictedCount() : 0);
+        contexts.put("dedicated", pool != null ? pool.getDedicatedCount() : 0);
+        root.put("contextPool", contexts);
+
+        CommandQueue queue = manager.getCommandQueue();
+        Map<String, Object> commands = new LinkedHashMap<>();
+        commands.put("queueDepth", queue.getDepth());
+        commands.put("submitted", queue.getSubmittedCount());
+        commands.put("executed", queue.getExecutedCount());
+        commands.put("failed", queue.getFailedCount());
+        commands.put("deferredTicks", queue.getDeferredTicks());
+        commands.put("latencyMicros", histogram(queue.getLatency()));
+        commands.put("executionMicros", histogram(queue.getExecutionTime()));
+        root.put("commands", commands);
+
+        CommandCache parsed = manager.getCommandCache();
+        Map<String, Object> parseCache = new LinkedHashMap<>();
+        parseCache.put("size", parsed.getSize());
+        parseCache.put("hits", parsed.getHitCount());
+        parseCache.put("misses", parsed.getMissCount());
+        parseCache.put("evictions", parsed.getEvictionCount());
+        parseCache.put("invalidations", parsed.getInvalidationCount());
+        root.put("parseCache", parseCache);
+
+        ScriptCache cache = manager.peekScriptCache();
+        Map<String, Object> compiled = new LinkedHashMap<>();
+        compiled.put("size", cache != null ? cache.size() : 0);
+        compiled.put("hits", cache != null ? cache.getHits() : 0);
+        compiled.put("misses", cache != null ? cache.getMisses() : 0);
+        compiled.put("evictions", cache != null ? cache.getEvictions() : 0);
+        compiled.put("hitRate", getCompileCacheHitRate());
+        root.put("compileCache", compiled);
+
+        ScriptIndex index = manager.peekScriptIndex();
+        Map<String, Object> indexed = new LinkedHashMap<>();
+        indexed.put("size", index != null ? index.size() : 0);
+        indexed.put("lookups", index != null ? index.getLookupCount() : 0);
+        indexed.put("reloads", index != null ? index.getReloadCount() : 0);
+        indexed.put("rescans", index != null ? index.getRescanCount() : 0);
+        indexed.put("bundled", index != null ? index.getBundledCount() : 0);
+        indexed.put("bundleReads", index != null ? index.getBundleReadCount() : 0);
+        root.put("scriptIndex", indexed);
+
+        ScriptHotReload hotReload = manager.getHotReload();
+        Map<String, Object> reloaded = new LinkedHashMap<>();
+        reloaded.put("enabled", hotReload.isEnabled());
+        reloaded.put("pending", hotReload.getPendingCount());
+        reloaded.put("reloads", hotReload.getReloadCount());
+        reloaded.put("failures", hotReload.getFailureCount());
+        root.put("hotReload", reloaded);
+
+        Map<String, Object> async = new LinkedHashMap<>();
+        async.put("pendingTimers", getPendingTimers());
+        async.put("eventsPublished", getEventsPublished());
+        async.put("eventsDelivered", manager.getEvents().getDeliveredCount());
+        root.put("async", async);
+
+        ScriptMessages messages = manager.getMessages();
+        Map<String, Object> chat = new LinkedHashMap<>();
+        chat.put("pending", messages.getPendingCount());
+        chat.put("sent", messages.getSentCount());
+        chat.put("delivered", messages.getDeliveredCount());
+        chat.put("packets", messages.getPacketCount());
+        chat.put("merged", messages.getMergedCount());
+        chat.put("duplicates", messages.getDuplicateCount());
+        root.put("messages", chat);
+
+        BlockEdits blockEdits = manager.getBlockEdits();
+        Map<String, Object> world = new LinkedHashMap<>();
+        world.put("pending", blockEdits.getDepth());
+        world.put("completed", blockEdits.getCompletedCount());
+        world.put("failed", blockEdits.getFailedCount());
+        world.put("blocks", blockEdits.getBlocksChanged());
+        world.put("sections", blockEdits.getSectionsWritten());
+        world.put("packets", blockEdits.getPacketsSent());
+        world.put("deferredTicks", blockEdits.getDeferredTicks());
+        root.put("world", world);
+
+        Map<String, Object> log = new LinkedHashMap<>();
+        log.put("pending", ScriptLog.getPendingCount());
+        log.put("dropped", ScriptLog.getDroppedCount());
+        root.put("log", log);
+
+        return root;
+    }
+
+    private static Map<String, Object> histogram(LatencyHistogram histogram) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", histogram.getCount());
+        result.put("mean", histogram.getMean() / 1000);
+        result.put("p50", histogram.percentile(50) / 1000);
+        result.put("p99", histogram.percentile(99) / 1000);
+        result.put("max", histogram.getMax() / 1000);
+        return result;
+    }
+
+    @Override
+    public String getSnapshotJson() {
+        return toJson(snapshot());
+    }
+
+    // Вложенные Map, числа и строки - всё, что бывает в снимке метрик; строки и ключи экранируются
+    static String toJson(Map<String, Object> values) {
+        StringBuilder builder = new StringBuilder();
+        appendJson(builder, values, "");
+        return builder.append('\n').toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void appendJson(StringBuilder builder, Object value, String indent) {
+        if (value instanceof Map<?, ?> map) {
+            builder.append("{\n");
+            String inner = indent + "  ";
+            int i = 0;
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) map).entrySet()) {
+                builder.append(inner);
+                appendString(builder, entry.getKey());
+                builder.append(": ");
+                appendJson(builder, entry.getValue(), inner);
+                builder.append(++i < map.size() ? ",\n" : "\n");
+            }
+            builder.append(indent).append('}');
+        } else if (value instanceof Double number) {
+            // NaN и бесконечность в JSON не записать
+            builder.append(Double.isFinite(number) ? String.format(Locale.ROOT, "%.4f", number) : "null");
+        } else if (value instanceof String string) {
+            appendString(builder, string);
+        } else {
+            builder.append(value);
+        }
+    }
+
+    // Имена скриптов и тексты ошибок могут содержать кавычки, обратную косую черту и переводы строк
+    private static void appendString(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                case '\r' -> builder.append("\\r");
+                case '\t' -> builder.append("\\t");
+                default -> {
+                    if (ch < 0x20) {
+                        builder.append(String.format(Locale.ROOT, "\\u%04x", (int) ch));
+                    } else {
+                        builder.append(ch);
+                    }
+                }
+            }
+        }
+        builder.append('"');
+    }
+
+    @Override
+    public int getRunningScripts() {
+        return manager.getRunningCount();
+    }
+
+    @Override
+    public int getQueuedScripts() {
+        return manager.getQueuedCount();
+    }
+
+    @Override
+    public int getActiveSteps() {
+        return manager.getGovernor().getActiveSteps();
+    }
+
+    @Override
+    public long getKilledScripts() {
+        return manager.getGovernor().getKillCount();
+    }
+
+    @Override
+    public long getForcedStops() {
+        return manager.getGovernor().getStopCount();
+    }
+
+    @Override
+    public int getSchedulerWorkers() {
+        return manager.getScheduler().getWorkerCount();
+    }
+
+    @Override
+    public int getSchedulerActive() {
+        return manager.getScheduler().getActiveCount();
+    }
+
+    @Override
+    public int getSchedulerQueueDepth() {
+        return manager.getScheduler().getQueueDepth();
+    }
+
+    @Override
+    public long getSchedulerRejected() {
+        return manager.getScheduler().getRejectedCount();
+    }
+
+    @Override
+    public double getSchedulerUtilization() {
+        return manager.getScheduler().getUtilization();
+    }
+
+    @Override
+    public int getCooperativePendingSteps() {
+        return manager.getTickExecutor().getPendingSteps();
+    }
+
+    @Override
+    public long getCooperativeOverBudgetTicks() {
+        return manager.getTickExecutor().getOverBudgetTicks();
+    }
+
+    @Override
+    public int getPoolIdle() {
+        ScriptContextPool pool = manager.peekContextPool();
+        return pool != null ? pool.getIdleCount() : 0;
+    }
+
+    @Override
+    public int getPoolSize() {
+        ScriptContextPool pool = manager.peekContextPool();
+        return pool != null ? pool.getPooledCount() : 0;
+    }
+
+    @Override
+    public int getPoolMaxSize() {
+        ScriptContextPool pool = manager.peekContextPool();
+        return pool != null ? pool.getMaxSize() : 0;
+    }
+
+    @Override
+    public long getPoolCreated() {
+        ScriptContextPool pool = manager.peekContextPool();
+        return pool != null ? pool.getCreatedCount() : 0;
+    }
+
+    @Override
+    public long getPoolReused() {
+        ScriptContextPool pool = manager.peekContextPool();
+        return pool != null ? pool.getReusedCount() : 0;
+    }
+
+    @Override
+    public long getPoolOverflow() {
+        ScriptContextPool pool = manager.peekContextPool();
+        return pool != null ? pool.getOverflowCount() : 0;
+    }
+
+    @Override
+    public int getCommandQueueDepth() {
+        return manager.getCommandQueue().getDepth();
+    }
+
+    @Override
+    public long getCommandsExecuted() {
+        return manager.getCommandQueue().getExecutedCount();
+    }
+
+    @Override
+    public long getCommandsFailed() {
+        return manager.getCommandQueue().getFailedCount();
+    }
+
+    @Override
+    public long getCommandLatencyP50Micros() {
+        return manager.getCommandQueue().getLatency().percentile(50) / 1000;
+    }
+
+    @Override
+    public long getCommandLatencyP99Micros() {
+        return manager.getCommandQueue().getLatency().percentile(99) / 1000;
+    }
+
+    @Override
+    public long getCommandLatencyMaxMicros() {
+        return manager.getCommandQueue().getLatency().getMax() / 1000;
+    }
+
+    @Override
+    public long getCommandExecutionP99Micros() {
+        return manager.getCommandQueue().getExecutionTime().percentile(99) / 1000;
+    }
+
+    @Override
+    public int getCompileCacheSize() {
+        ScriptCache cache = manager.peekScriptCache();
+        return cache != null ? cache.size() : 0;
+    }
+
+    @Override
+    public double getCompileCacheHitRate() {
+        ScriptCache cache = manager.peekScriptCache();
+        return cache != null ? cache.getHitRate() : 0.0;
+    }
+
+    @Override
+    public int getPendingTimers() {
+        return manager.getTimerWheel().getPendingCount();
+    }
+
+    @Override
+    public long getEventsPublished() {
+        return manager.getEvents().getPublishedCount();
+    }
+}
@@ -0,0 +1,66 @@
+package org.pirozhok.codecraft.scripting;
+
+/**
+ * Атрибуты JMX для {@link ScriptMetrics}. Время - в микросекундах.
+ */
+public interface ScriptMetricsMBean {
+    int getRunningScripts();
+
+    int getQueuedScripts();
+
+    int getActiveSteps();
+
+    long getKilledScripts();
+
+    long getForcedStops();
+
+    int getSchedulerWorkers();
+
+    int getSchedulerActive();
+
+    int getSchedulerQueueDepth();
+
+    long getSchedulerRejected();
+
+    double getSchedulerUtilization();
+
+    int getCooperativePendingSteps();
+
+    long getCooperativeOverBudgetTicks();
+
+    int getPoolIdle();
+
+    int getPoolSize();
+
+    int getPoolMaxSize();
+
+    long getPoolCreated();
+
+    long getPoolReused();
+
+    long getPoolOverflow();
+
+    int getCommandQueueDepth();
+
+    long getCommandsExecuted();
+
+    long getCommandsFailed();
+
+    long getCommandLatencyP50Micros();
+
+    long getCommandLatencyP99Micros();
+
+    long getCommandLatencyMaxMicros();
+
+    long getCommandExecutionP99Micros();
+
+    int getCompileCacheSize();
+
+    double getCompileCacheHitRate();
+
+    int getPendingTimers();
+
+    long getEventsPublished();
+
+    String getSnapshotJson();
+}
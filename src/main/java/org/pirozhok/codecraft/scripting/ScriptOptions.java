@@ -0,0 +1,96 @@
+package org.pirozhok.codecraft.scripting;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Настройки скрипта из директив в начале файла, например:
+ * <pre>
+ * // @priority high
+ * </pre>
+ * Директивы читаются только из комментариев до первой строки кода.
+ */
+public final class ScriptOptions {
+    public static final int PRIORITY_LOW = -10;
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_HIGH = 10;
+
+    private static final ScriptOptions EMPTY = new ScriptOptions(Map.of());
+
+    private final Map<String, String> values;
+
+    private ScriptOptions(Map<String, String> values) {
+        this.values = values;
+    }
+
+    public static ScriptOptions parse(String content) {
+        Map<String, String> values = null;
+        int pos = 0;
+        int length = content.length();
+
+        while (pos < length) {
+            int end = content.indexOf('\n', pos);
+            if (end < 0) {
+                end = length;
+            }
+            String line = content.substring(pos, end).trim();
+            pos = end + 1;
+
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (!line.startsWith("//")) {
+                break;
+            }
+
+            String comment = line.substring(2).trim();
+            if (comment.startsWith("@") && comment.length() > 1) {
+                int split = 1;
+                while (split < comment.length() && !Character.isWhitespace(comment.charAt(split))) {
+                    split++;
+                }
+                if (values == null) {
+                    values = new HashMap<>();
+                }
+                values.put(comment.substring(1, split).toLowerCase(Locale.ROOT), comment.substring(split).trim());
+            }
+        }
+
+        return values == null ? EMPTY : new ScriptOptions(values);
+    }
+
+    public String get(String key) {
+        return values.get(key);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = values.get(key);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            ScriptLog.warn("ScriptOptions", "Invalid value for @{}: {}", key, value);
+            return defaultValue;
+        }
+    }
+
+    public int getPriority() {
+        String value = values.get("priority");
+        if (value == null) {
+            return PRIORITY_NORMAL;
+        }
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "low":
+                return PRIORITY_LOW;
+            case "normal":
+                return PRIORITY_NORMAL;
+            case "high":
+                return PRIORITY_HIGH;
+            default:
+                return (int) getLong("priority", PRIORITY_NORMAL);
+        }
+    }
+}
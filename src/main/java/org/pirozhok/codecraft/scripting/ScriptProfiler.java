@@ -0,0 +1,92 @@
+package org.pirozhok.codecraft.scripting;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Статистика выполнения по скриптам. Все счётчики - LongAdder и {@link LatencyHistogram},
+ * запись не берёт блокировок, поэтому профилировщик можно держать включённым всегда.
+ */
+public class ScriptProfiler {
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    public Stats get(String scriptName) {
+        return stats.computeIfAbsent(scriptName, name -> new Stats());
+    }
+
+    public Stats find(String scriptName) {
+        return stats.get(scriptName);
+    }
+
+    /**
+     * Статистика всех скриптов, самые затратные по суммарному времени выполнения первыми.
+     */
+    public List<Map.Entry<String, Stats>> snapshot() {
+        List<Map.Entry<String, Stats>> entries = new ArrayList<>(stats.entrySet());
+        entries.sort(Comparator.comparingLong((Map.Entry<String, Stats> entry) -> entry.getValue().getExecutionNanos()).reversed());
+        return entries;
+    }
+
+    public void reset(String scriptName) {
+        stats.remove(scriptName);
+    }
+
+    public void clear() {
+        stats.clear();
+    }
+
+    public static final class Stats {
+        private final LongAdder runs = new LongAdder();
+        private final LongAdder commands = new LongAdder();
+        private final LongAdder commandNanos = new LongAdder();
+        private final LongAdder sleepNanos = new LongAdder();
+        // Время выполнения одного запуска: сумма его шагов без ожидания таймеров и команд
+        private final LatencyHistogram executionTime = new LatencyHistogram();
+
+        public void recordRun(long executionNanos) {
+            runs.increment();
+            executionTime.record(executionNanos);
+        }
+
+        public void recordCommandIssued() {
+            commands.increment();
+        }
+
+        // Время главного потока, потраченное на выполнение команды скрипта
+        public void recordCommandTime(long nanos) {
+            commandNanos.add(nanos);
+        }
+
+        public void recordSleep(long nanos) {
+            sleepNanos.add(nanos);
+        }
+
+        public long getRuns() {
+            return runs.sum();
+        }
+
+        public long getExecutionNanos() {
+            return executionTime.getTotal();
+        }
+
+        public LatencyHistogram getExecutionTime() {
+            return executionTime;
+        }
+
+        public long getCommands() {
+            return commands.sum();
+        }
+
+        public long getCommandNanos() {
+            return commandNanos.sum();
+        }
+
+        public long getSleepNanos() {
+            return sleepNanos.sum();
+        }
+    }
+}
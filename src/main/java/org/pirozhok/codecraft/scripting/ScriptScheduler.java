@@ -0,0 +1,245 @@
+package org.pirozhok.codecraft.scripting;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Фиксированный пул рабочих потоков для скриптов вместо отдельного потока на каждый запуск.
+ * Очередь ограничена, задачи с большим приоритетом забираются первыми.
+ */
+public class ScriptScheduler {
+    public enum RejectionPolicy {
+        // Новый запуск отклоняется, если очередь заполнена
+        REJECT,
+        // Новый запуск вытесняет из очереди задачу с меньшим приоритетом, если такая есть
+        REPLACE_LOWEST
+    }
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    private final ThreadPoolExecutor executor;
+    private final Set<Task> queued = ConcurrentHashMap.newKeySet();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+
+    private volatile int queueCapacity;
+    private volatile RejectionPolicy rejectionPolicy;
+
+    public ScriptScheduler(int workers, int queueCapacity, RejectionPolicy rejectionPolicy) {
+        int size = Math.max(1, workers);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.rejectionPolicy = rejectionPolicy;
+        this.executor = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), new WorkerFactory());
+    }
+
+    public static int defaultWorkers() {
+        return Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    public synchronized void configure(int workers, int queueCapacity, RejectionPolicy rejectionPolicy) {
+        int size = Math.max(1, workers);
+        // Порядок важен: core не может быть больше max
+        if (size > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+        } else {
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
+        }
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.rejectionPolicy = rejectionPolicy;
+    }
+
+    /**
+     * Ставит задачу в очередь. Возвращает null, если очередь заполнена и задача отклонена.
+     * onRejected вызывается, если задача позже будет вытеснена из очереди более приоритетной.
+     */
+    public synchronized Task submit(String name, int priority, Runnable body, Runnable onRejected) {
+        if (queued.size() >= queueCapacity
+                && (rejectionPolicy != RejectionPolicy.REPLACE_LOWEST || !evictLowerThan(priority))) {
+            rejected.increment();
+            return null;
+        }
+
+        Task task = new Task(name, priority, sequence.getAndIncrement(), body, onRejected);
+        queued.add(task);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            queued.remove(task);
+            rejected.increment();
+            return null;
+        }
+        submitted.increment();
+        return task;
+    }
+
+    /**
+     * Продолжение уже принятого скрипта (например, обработка его асинхронных результатов).
+     * Не ограничивается ёмкостью очереди: отклонение оставило бы скрипт висеть навсегда.
+     */
+    public Task execute(String name, int priority, Runnable body) {
+        Task task = new Task(name, priority, sequence.getAndIncrement(), body, null);
+        queued.add(task);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            queued.remove(task);
+            rejected.increment();
+            return null;
+        }
+        submitted.increment();
+        return task;
+    }
+
+    /**
+     * Убирает задачу из очереди, если она ещё не начала выполняться.
+     */
+    public boolean cancel(Task task) {
+        if (task != null && queued.remove(task)) {
+            executor.remove(task);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean evictLowerThan(int priority) {
+        Task lowest = null;
+        for (Task task : queued) {
+            if (task.priority < priority && (lowest == null || task.compareTo(lowest) > 0)) {
+                lowest = task;
+            }
+        }
+        if (lowest == null || !cancel(lowest)) {
+            return false;
+        }
+        rejected.increment();
+        ScriptLog.info("ScriptScheduler", "Queued script {} replaced by a higher priority run", lowest.name);
+        if (lowest.onRejected != null) {
+            lowest.onRejected.run();
+        }
+        return true;
+    }
+
+    public int getQueueDepth() {
+        return queued.size();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public int getWorkerCount() {
+        return executor.getCorePoolSize();
+    }
+
+    /**
+     * Доля занятых рабочих потоков в данный момент, от 0 до 1.
+     */
+    public double getUtilization() {
+        int workers = getWorkerCount();
+        return workers == 0 ? 0.0 : (double) active.get() / workers;
+    }
+
+    public long getBusyNanos() {
+        return busyNanos.sum();
+    }
+
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public final class Task implements Runnable, Comparable<Task> {
+        private final String name;
+        private final int priority;
+        private final long sequence;
+        private final Runnable body;
+        private final Runnable onRejected;
+
+        private Task(String name, int priority, long sequence, Runnable body, Runnable onRejected) {
+            this.name = name;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.body = body;
+            this.onRejected = onRejected;
+        }
+
+        @Override
+        public void run() {
+            if (!queued.remove(this)) {
+                // Задачу отменили, пока она лежала в очереди
+                return;
+            }
+
+            Thread thread = Thread.currentThread();
+            String workerName = thread.getName();
+            thread.setName(workerName + "/" + name);
+            active.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                body.run();
+            } catch (Throwable t) {
+                ScriptLog.error("ScriptScheduler", "Uncaught error in script task " + name + ": " + t.getMessage(), t);
+            } finally {
+                busyNanos.add(System.nanoTime() - start);
+                active.decrementAndGet();
+                completed.increment();
+                thread.setName(workerName);
+            }
+        }
+
+        // Больший приоритет раньше, при равном - в порядке постановки
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority) {
+                return Integer.compare(other.priority, priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+    }
+
+    private static final class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "CodeCraft-Script-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.pirozhok.codecraft.scripting;
+
+import javax.script.ScriptException;
+
+/**
+ * Изолированная глобальная область, в которой выполняется один запуск скрипта.
+ */
+public interface ScriptSession extends AutoCloseable {
+    void put(String name, Object value);
+
+    Object eval(PreparedScript script) throws ScriptException;
+
+    /**
+     * Вызывает функцию скрипта, переданную в Java-код (например, колбэк).
+     */
+    Object invoke(Object callback, Object... args) throws ScriptException;
+
+    /**
+     * Запоминает текущий набор глобальных имён как исходное состояние области.
+     */
+    void markBaseline();
+
+    /**
+     * Удаляет глобальные имена, появившиеся после {@link #markBaseline()}.
+     * Возвращает false, если область не удалось очистить и её нельзя переиспользовать.
+     */
+    boolean reset();
+
+    /**
+     * Сбрасывает счётчик инструкций перед очередным шагом скрипта.
+     */
+    void resetLimits();
+
+    /**
+     * Останавливает выполнение из другого потока. Если скрипт не остановился за timeoutMillis,
+     * выполнение отменяется вместе с закрытием области. Возвращает false, если движок так не умеет.
+     */
+    boolean interrupt(long timeoutMillis);
+
+    /**
+     * true, если выполнение было отменено (принудительно или по лимиту) и область больше нельзя использовать.
+     */
+    boolean isCancelled();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,139 @@
+package org.pirozhok.codecraft.scripting;
+
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.network.chat.Component;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.Vec2;
+import net.minecraft.world.phys.Vec3;
+
+/**
+ * От чьего имени выполняются команды скрипта. Значения по умолчанию задаются конфигом,
+ * скрипт может переопределить их директивами:
+ * <pre>
+ * // @run-as Arena
+ * // @permission 2
+ * // @position 0 64 0
+ * // @dimension minecraft:the_nether
+ * // @player Steve
+ * </pre>
+ * Уровень прав из директивы не может быть выше настроенного в конфиге. Источник команд собирается
+ * один раз и переиспользуется всеми командами скрипта, кроме выполнения от имени игрока:
+ * такой источник следует за игроком и собирается заново при каждой команде.
+ */
+public final class ScriptSource {
+    public static final String DEFAULT_NAME = "Server";
+    public static final int DEFAULT_PERMISSION_LEVEL = 4;
+    public static final ScriptSource SERVER = new ScriptSource(DEFAULT_NAME, DEFAULT_PERMISSION_LEVEL, null, null, null);
+
+    private final String name;
+    private final int permissionLevel;
+    private final Vec3 position;
+    private final ResourceKey<Level> dimension;
+    private final String player;
+    // Ключ кэша разбора команд; null - источник не кэшируется
+    private final String key;
+
+    private volatile Built built;
+
+    public ScriptSource(String name, int permissionLevel, Vec3 position, ResourceKey<Level> dimension, String player) {
+        this.name = name;
+        this.permissionLevel = Math.max(0, Math.min(4, permissionLevel));
+        this.position = position;
+        this.dimension = dimension;
+        this.player = player;
+        this.key = player != null ? null : name + "/" + this.permissionLevel + "/" + position + "/" + (dimension != null ? dimension.location() : "");
+    }
+
+    public ScriptSource withOverrides(ScriptOptions options) {
+        String runAs = options.get("run-as");
+        String playerName = options.get("player");
+        String dimensionId = options.get("dimension");
+        if (runAs == null && playerName == null && dimensionId == null && options.get("permission") == null && options.get("position") == null) {
+            return this;
+        }
+        return new ScriptSource(
+                runAs != null && !runAs.isEmpty() ? runAs : name,
+                (int) Math.min(permissionLevel, options.getLong("permission", permissionLevel)),
+                parsePosition(options.get("position")),
+                dimensionId != null && !dimensionId.isEmpty()
+                        ? ResourceKey.create(Registries.DIMENSION, new ResourceLocation(dimensionId)) : dimension,
+                playerName != null && !playerName.isEmpty() ? playerName : player
+        );
+    }
+
+    private Vec3 parsePosition(String value) {
+        if (value == null || value.isEmpty()) {
+            return position;
+        }
+        String[] parts = value.trim().split("\\s+");
+        try {
+            if (parts.length == 3) {
+                return new Vec3(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        ScriptLog.warn("ScriptSource", "Invalid value for @position: {}", value);
+        return position;
+    }
+
+    /**
+     * Источник для выполнения команды. Только из главного потока.
+     */
+    public CommandSourceStack resolve(MinecraftServer server) {
+        if (player != null) {
+            ServerPlayer target = server.getPlayerList().getPlayerByName(player);
+            if (target == null) {
+                throw new IllegalStateException("Player " + player + " is not online");
+            }
+            return customize(server, target.createCommandSourceStack());
+        }
+        Built current = built;
+        if (current == null || current.server != server) {
+            CommandSourceStack base = server.createCommandSourceStack();
+            CommandSourceStack stack = new CommandSourceStack(server, base.getPosition(), Vec2.ZERO, base.getLevel(),
+                    permissionLevel, name, Component.literal(name), server, null);
+            current = new Built(server, customize(server, stack));
+            built = current;
+        }
+        return current.stack;
+    }
+
+    private CommandSourceStack customize(MinecraftServer server, CommandSourceStack stack) {
+        if (dimension != null) {
+            ServerLevel level = server.getLevel(dimension);
+            if (level == null) {
+                throw new IllegalStateException("Unknown dimension: " + dimension.location());
+            }
+            stack = stack.withLevel(level);
+        }
+        if (position != null) {
+            stack = stack.withPosition(position);
+        }
+        return stack.withPermission(permissionLevel).withSuppressedOutput();
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPermissionLevel() {
+        return permissionLevel;
+    }
+
+    public String getPlayer() {
+        return player;
+    }
+
+    private record Built(MinecraftServer server, CommandSourceStack stack) {
+    }
+}
@@ -0,0 +1,164 @@
+package org.pirozhok.codecraft.scripting;
+
+import net.minecraft.ChatFormatting;
+import net.minecraft.network.chat.ClickEvent;
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.HoverEvent;
+import net.minecraft.network.chat.MutableComponent;
+import net.minecraft.network.chat.TextColor;
+import net.minecraft.server.MinecraftServer;
+
+/**
+ * Форматированное сообщение из скрипта, собирается по частям:
+ * <pre>
+ * c.text("Счёт: ").gray().then("42").gold().bold().hover("Нажми для деталей").click("/score").send();
+ * c.text("Только тебе").green().send("Steve");
+ * </pre>
+ * Стили применяются к последней части, добавленной через text или then.
+ */
+public class ScriptText {
+    private final MinecraftServer server;
+    private final String scriptName;
+    private final MutableComponent root = Component.empty();
+    private MutableComponent span;
+
+    ScriptText(MinecraftServer server, String scriptName, String text) {
+        this.server = server;
+        this.scriptName = scriptName;
+        then(text);
+    }
+
+    public ScriptText then(String text) {
+        span = Component.literal(text);
+        root.append(span);
+        return this;
+    }
+
+    /**
+     * Цвет по имени (gold, dark_red, ...) или #RRGGBB.
+     */
+    public ScriptText color(String color) {
+        TextColor parsed = TextColor.parseColor(color);
+        if (parsed == null) {
+            throw new IllegalArgumentException("Unknown color: " + color);
+        }
+        span.withStyle(style -> style.withColor(parsed));
+        return this;
+    }
+
+    public ScriptText gold() {
+        return format(ChatFormatting.GOLD);
+    }
+
+    public ScriptText red() {
+        return format(ChatFormatting.RED);
+    }
+
+    public ScriptText green() {
+        return format(ChatFormatting.GREEN);
+    }
+
+    public ScriptText yellow() {
+        return format(ChatFormatting.YELLOW);
+    }
+
+    public ScriptText aqua() {
+        return format(ChatFormatting.AQUA);
+    }
+
+    public ScriptText blue() {
+        return format(ChatFormatting.BLUE);
+    }
+
+    public ScriptText gray() {
+        return format(ChatFormatting.GRAY);
+    }
+
+    public ScriptText white() {
+        return format(ChatFormatting.WHITE);
+    }
+
+    public ScriptText bold() {
+        return format(ChatFormatting.BOLD);
+    }
+
+    public ScriptText italic() {
+        return format(ChatFormatting.ITALIC);
+    }
+
+    public ScriptText underline() {
+        return format(ChatFormatting.UNDERLINE);
+    }
+
+    public ScriptText strikethrough() {
+        return format(ChatFormatting.STRIKETHROUGH);
+    }
+
+    public ScriptText obfuscated() {
+        return format(ChatFormatting.OBFUSCATED);
+    }
+
+    public ScriptText click(String command) {
+        span.withStyle(style -> style.withClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, command)));
+        return this;
+    }
+
+    public ScriptText suggest(String command) {
+        span.withStyle(style -> style.withClickEvent(new ClickEvent(ClickEvent.Action.SUGGEST_COMMAND, command)));
+        return this;
+    }
+
+    public ScriptText url(String url) {
+        span.withStyle(style -> style.withClickEvent(new ClickEvent(ClickEvent.Action.OPEN_URL, url)));
+        return this;
+    }
+
+    public ScriptText hover(String text) {
+        span.withStyle(style -> style.withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, Component.literal(text))));
+        return this;
+    }
+
+    public Component build() {
+        return root;
+    }
+
+    // Сообщение уходит в очередь, а скрипт может продолжить менять стили частей: копируем их целиком
+    private Component snapshot() {
+        return deepCopy(root);
+    }
+
+    private static MutableComponent deepCopy(Component component) {
+        MutableComponent copy = component.plainCopy().setStyle(component.getStyle());
+        for (Component sibling : component.getSiblings()) {
+            copy.append(deepCopy(sibling));
+        }
+        return copy;
+    }
+
+    // Всем игрокам
+    public void send() {
+        send(null);
+    }
+
+    /**
+     * target - имя игрока, массив имён или "all".
+     */
+    public void send(Object target) {
+        ScriptManager.getInstance().getMessages().send(server, scriptName, ScriptMessages.targets(target), snapshot(), false);
+    }
+
+    // Над хотбаром вместо чата
+    public void actionbar(Object target) {
+        ScriptManager.getInstance().getMessages().send(server, scriptName, ScriptMessages.targets(target), snapshot(), true);
+    }
+
+    // Заголовок по центру экрана
+    public void title(Object target) {
+        ScriptManager.getInstance().getMessages().sendTitle(server, scriptName, ScriptMessages.targets(target), snapshot(), null);
+    }
+
+    private ScriptText format(ChatFormatting formatting) {
+        span.withStyle(formatting);
+        return this;
+    }
+}
@@ -0,0 +1,40 @@
+package org.pirozhok.codecraft.scripting;
+
+/**
+ * Условие, которое корутина скрипта отдаёт через yield: подождать заданное число тиков
+ * или пока функция-условие не вернёт true (проверяется раз в тик).
+ */
+public final class ScriptWait {
+    private final long ticks;
+    private final Object condition;
+
+    private ScriptWait(long ticks, Object condition) {
+        this.ticks = ticks;
+        this.condition = condition;
+    }
+
+    public static ScriptWait ticks(long ticks) {
+        return new ScriptWait(Math.max(1, ticks), null);
+    }
+
+    public static ScriptWait until(Object condition) {
+        return new ScriptWait(1, condition);
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    public Object getCondition() {
+        return condition;
+    }
+
+    public boolean isCondition() {
+        return condition != null;
+    }
+
+    @Override
+    public String toString() {
+        return condition != null ? "until(...)" : "ticks(" + ticks + ")";
+    }
+}
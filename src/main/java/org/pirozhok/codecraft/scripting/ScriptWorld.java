@@ -0,0 +1,221 @@
+package org.pirozhok.codecraft.scripting;
+
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import net.minecraft.commands.arguments.blocks.BlockStateParser;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.state.BlockState;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Изменение блоков из скрипта без команд setblock и fill, доступно как c.world:
+ * <pre>
+ * c.world.fill(0, 64, 0, 31, 64, 31, "minecraft:stone");
+ * c.world.setBlocks([[0, 65, 0], [31, 65, 31]], "minecraft:torch");
+ * const batch = c.world.in("minecraft:the_nether").batch();
+ * batch.set(0, 70, 0, "minecraft:glowstone");
+ * yield batch.apply();
+ * </pre>
+ * Блоки раскладываются по секциям чанков в потоке скрипта, а записываются главным потоком
+ * через {@link BlockEdits}, поэтому результат - обещание с числом изменённых блоков, как у execAsync.
+ * Соседние блоки по умолчанию не обновляются (как при генерации мира); последний аргумент true включает обновление.
+ */
+public class ScriptWorld {
+    private static final int STATE_CACHE_SIZE = 1024;
+    private static final Map<String, BlockState> STATES = new ConcurrentHashMap<>();
+
+    private final MappetContext context;
+    private final ResourceKey<Level> dimension;
+
+    ScriptWorld(MappetContext context, ResourceKey<Level> dimension) {
+        this.context = context;
+        this.dimension = dimension;
+    }
+
+    // Тот же API для другого измерения: "minecraft:the_nether", "minecraft:the_end"
+    public ScriptWorld in(String dimension) {
+        return new ScriptWorld(context, ResourceKey.create(Registries.DIMENSION, new ResourceLocation(dimension)));
+    }
+
+    public Batch batch() {
+        return new Batch();
+    }
+
+    public CommandPromise setBlock(int x, int y, int z, String block) {
+        return setBlock(x, y, z, block, false);
+    }
+
+    public CommandPromise setBlock(int x, int y, int z, String block, boolean updateNeighbors) {
+        return batch().set(x, y, z, block).apply(updateNeighbors);
+    }
+
+    /**
+     * positions - массив [x, y, z] или плоский массив x, y, z, x, y, z...;
+     * blocks - один блок для всех позиций или массив той же длины, что и число позиций.
+     */
+    public CommandPromise setBlocks(Object positions, Object blocks) {
+        return setBlocks(positions, blocks, false);
+    }
+
+    public CommandPromise setBlocks(Object positions, Object blocks, boolean updateNeighbors) {
+        return batch().setAll(positions, blocks).apply(updateNeighbors);
+    }
+
+    public CommandPromise fill(int x1, int y1, int z1, int x2, int y2, int z2, String block) {
+        return fill(x1, y1, z1, x2, y2, z2, block, false);
+    }
+
+    public CommandPromise fill(int x1, int y1, int z1, int x2, int y2, int z2, String block, boolean updateNeighbors) {
+        return batch().fill(x1, y1, z1, x2, y2, z2, block).apply(updateNeighbors);
+    }
+
+    private ServerLevel level() {
+        MinecraftServer server = context.getServer();
+        if (server == null) {
+            throw new IllegalStateException("No server available");
+        }
+        ServerLevel level = server.getLevel(dimension);
+        if (level == null) {
+            throw new IllegalArgumentException("Unknown dimension: " + dimension.location());
+        }
+        return level;
+    }
+
+    /**
+     * Блок в синтаксисе команд: "minecraft:oak_stairs[facing=east]". Реестр блоков после запуска
+     * сервера не меняется, поэтому разбирать можно в потоке скрипта.
+     */
+    static BlockState parseState(String block) {
+        BlockState cached = STATES.get(block);
+        if (cached != null) {
+            return cached;
+        }
+        BlockState state;
+        try {
+            state = BlockStateParser.parseForBlock(BuiltInRegistries.BLOCK.asLookup(), block, false).blockState();
+        } catch (CommandSyntaxException e) {
+            throw new IllegalArgumentException("Invalid block: " + block + " - " + e.getMessage());
+        }
+        if (STATES.size() >= STATE_CACHE_SIZE) {
+            STATES.clear();
+        }
+        STATES.put(block, state);
+        return state;
+    }
+
+    private static int coordinate(Object value) {
+        if (value instanceof Number number) {
+            return (int) Math.floor(number.doubleValue());
+        }
+        throw new IllegalArgumentException("Expected a number, got " + value);
+    }
+
+    private static List<?> list(Object value, String what) {
+        if (value instanceof List<?> list) {
+            return list;
+        }
+        if (value instanceof Collection<?> collection) {
+            return List.copyOf(collection);
+        }
+        if (value instanceof Object[] array) {
+            return List.of(array);
+        }
+        if (value instanceof int[] array) {
+            return Arrays.stream(array).boxed().toList();
+        }
+        throw new IllegalArgumentException("Expected an array of " + what + ", got " + value);
+    }
+
+    /**
+     * Набор изменений, которые применяются одной правкой: секции пишутся по порядку, один раз каждая.
+     */
+    public class Batch {
+        private final BlockEdits.Builder builder;
+        private boolean applied;
+
+        private Batch() {
+            this.builder = new BlockEdits.Builder(level(), context.getScriptName(),
+                    ScriptManager.getInstance().getBlockEdits().getMaxBlocksPerEdit());
+        }
+
+        public Batch set(int x, int y, int z, String block) {
+            checkNotApplied();
+            builder.set(x, y, z, parseState(block));
+            return this;
+        }
+
+        public Batch setAll(Object positions, Object blocks) {
+            checkNotApplied();
+            List<?> values = list(positions, "positions");
+            boolean nested = !values.isEmpty() && !(values.get(0) instanceof Number);
+            int count = nested ? values.size() : values.size() / 3;
+            if (!nested && values.size() % 3 != 0) {
+                throw new IllegalArgumentException("Flat positions array length must be a multiple of 3, got " + values.size());
+            }
+
+            BlockState single = blocks instanceof String block ? parseState(block) : null;
+            List<?> states = single == null ? list(blocks, "blocks") : null;
+            if (states != null && states.size() != count) {
+                throw new IllegalArgumentException("Got " + count + " positions but " + states.size() + " blocks");
+            }
+
+            for (int i = 0; i < count; i++) {
+                int x, y, z;
+                if (nested) {
+                    List<?> position = list(values.get(i), "coordinates");
+                    if (position.size() < 3) {
+                        throw new IllegalArgumentException("Position must have 3 coordinates: " + position);
+                    }
+                    x = coordinate(position.get(0));
+                    y = coordinate(position.get(1));
+                    z = coordinate(position.get(2));
+                } else {
+                    x = coordinate(values.get(i * 3));
+                    y = coordinate(values.get(i * 3 + 1));
+                    z = coordinate(values.get(i * 3 + 2));
+                }
+                builder.set(x, y, z, single != null ? single : parseState(String.valueOf(states.get(i))));
+            }
+            return this;
+        }
+
+        public Batch fill(int x1, int y1, int z1, int x2, int y2, int z2, String block) {
+            checkNotApplied();
+            builder.fill(x1, y1, z1, x2, y2, z2, parseState(block));
+            return this;
+        }
+
+        public long size() {
+            return builder.getBlockCount();
+        }
+
+        public CommandPromise apply() {
+            return apply(false);
+        }
+
+        public CommandPromise apply(boolean updateNeighbors) {
+            checkNotApplied();
+            // Секции уходят главному потоку как есть, поэтому после apply набор не меняется
+            applied = true;
+            BlockEdits.Edit edit = builder.build(updateNeighbors);
+            return new CommandPromise("world edit of " + builder.getBlockCount() + " blocks",
+                    ScriptManager.getInstance().getBlockEdits().submit(edit), context.getOwner());
+        }
+
+        private void checkNotApplied() {
+            if (applied) {
+                throw new IllegalStateException("Batch is already applied; create a new one with c.world.batch()");
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.pirozhok.codecraft.scripting;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кооперативное выполнение шагов скриптов в главном потоке сервера.
+ * Каждый тик получает общий бюджет времени, шаги разных скриптов берутся по кругу,
+ * а всё, что не поместилось в бюджет, переносится на следующий тик.
+ * <p>
+ * Бюджет проверяется между шагами: шаг - это всё тело скрипта, колбэк таймера или шаг корутины до yield,
+ * и посередине бюджетом он не прерывается. Длинный шаг ограничивает лимит maxMainThreadStepMs:
+ * {@link ResourceGovernor} прерывает его точно по истечении лимита и останавливает скрипт. Поэтому тик
+ * может занять не больше budget + maxMainThreadStepMs; длинную работу скрипт делит на шаги через yield.
+ */
+public class TickBudgetExecutor {
+    public static final long DEFAULT_BUDGET_MS = 5;
+
+    // Сюда пишут любые потоки; разбирается только главным потоком в начале тика
+    private final Queue<Step> incoming = new ConcurrentLinkedQueue<>();
+
+    // Доступны только из главного потока
+    private final Map<String, Deque<Runnable>> pending = new HashMap<>();
+    private final Deque<String> ring = new ArrayDeque<>();
+
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicLong stepsRun = new AtomicLong();
+    private final AtomicLong overBudgetTicks = new AtomicLong();
+    private volatile long lastTickNanos;
+    private volatile int lastTickSteps;
+
+    public void submit(String owner, Runnable step) {
+        pendingCount.incrementAndGet();
+        incoming.add(new Step(owner, step));
+    }
+
+    /**
+     * Отменяет все ещё не выполненные шаги владельца.
+     * Шаги, отправленные после вызова, не затрагиваются.
+     */
+    public void cancel(String owner) {
+        incoming.add(new Step(owner, null));
+    }
+
+    /**
+     * Выполняет шаги, пока не исчерпан бюджет. Вызывается из главного потока раз в тик.
+     */
+    public void runTick(long budgetNanos) {
+        long start = System.nanoTime();
+        long deadline = start + budgetNanos;
+        drainIncoming();
+
+        int steps = 0;
+        while (!ring.isEmpty()) {
+            String owner = ring.pollFirst();
+            Deque<Runnable> queue = pending.get(owner);
+            Runnable step = queue.pollFirst();
+            if (queue.isEmpty()) {
+                pending.remove(owner);
+            } else {
+                ring.addLast(owner);
+            }
+            pendingCount.decrementAndGet();
+
+            try {
+                step.run();
+            } catch (Throwable t) {
+                ScriptLog.error("TickBudgetExecutor", "Step of " + owner + " failed: " + t.getMessage(), t);
+            }
+            steps++;
+
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        if (elapsed > budgetNanos) {
+            overBudgetTicks.incrementAndGet();
+        }
+        stepsRun.addAndGet(steps);
+        lastTickNanos = elapsed;
+        lastTickSteps = steps;
+    }
+
+    private void drainIncoming() {
+        Step step;
+        while ((step = incoming.poll()) != null) {
+            if (step.runnable == null) {
+                Deque<Runnable> removed = pending.remove(step.owner);
+                if (removed != null) {
+                    ring.remove(step.owner);
+                    pendingCount.addAndGet(-removed.size());
+                }
+                continue;
+            }
+
+            Deque<Runnable> queue = pending.get(step.owner);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                pending.put(step.owner, queue);
+                ring.addLast(step.owner);
+            }
+            queue.addLast(step.runnable);
+        }
+    }
+
+    public int getPendingSteps() {
+        return pendingCount.get();
+    }
+
+    public long getStepsRun() {
+        return stepsRun.get();
+    }
+
+    public long getOverBudgetTicks() {
+        return overBudgetTicks.get();
+    }
+
+    public long getLastTickNanos() {
+        return lastTickNanos;
+    }
+
+    public int getLastTickSteps() {
+        return lastTickSteps;
+    }
+
+    private record Step(String owner, Runnable runnable) {
+    }
+}
@@ -0,0 +1,159 @@
+package org.pirozhok.codecraft.scripting;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Хешированное колесо таймеров, которое двигается серверными тиками.
+ * Таймер лежит в ячейке deadline % размер колеса, поэтому за тик просматривается только одна ячейка,
+ * а ожидающий таймер стоит один объект вместо спящего потока.
+ */
+public class TimerWheel {
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+    public static final long TICK_MILLIS = 50;
+
+    // Сюда пишут любые потоки; в колесо таймеры переносятся главным потоком
+    private final Queue<Timer> incoming = new ConcurrentLinkedQueue<>();
+
+    // Доступны только из главного потока
+    private final List<Timer>[] buckets;
+    private final int mask;
+
+    private volatile long currentTick;
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    public TimerWheel() {
+        this(DEFAULT_WHEEL_SIZE);
+    }
+
+    @SuppressWarnings("unchecked")
+    public TimerWheel(int size) {
+        int wheelSize = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+        this.buckets = new List[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+        this.mask = wheelSize - 1;
+    }
+
+    public static long millisToTicks(long millis) {
+        return Math.max(1, (millis + TICK_MILLIS - 1) / TICK_MILLIS);
+    }
+
+    /**
+     * Планирует задачу через delayTicks тиков, а при periodTicks > 0 - и далее с этим периодом.
+     * Задача выполняется в главном потоке, поэтому должна быть короткой.
+     */
+    public Timer schedule(long delayTicks, long periodTicks, Runnable task) {
+        Timer timer = new Timer(currentTick + Math.max(1, delayTicks), Math.max(0, periodTicks), task);
+        pendingCount.incrementAndGet();
+        incoming.add(timer);
+        return timer;
+    }
+
+    /**
+     * Сдвигает колесо на один тик и выполняет наступившие таймеры. Вызывается из главного потока.
+     */
+    public void advance() {
+        long tick = ++currentTick;
+
+        Timer added;
+        while ((added = incoming.poll()) != null) {
+            if (added.cancelled) {
+                pendingCount.decrementAndGet();
+            } else {
+                // Таймер мог быть запланирован на тик, который колесо уже прошло
+                added.deadline = Math.max(added.deadline, tick);
+                bucketFor(added.deadline).add(added);
+            }
+        }
+
+        List<Timer> bucket = buckets[(int) (tick & mask)];
+        List<Timer> rescheduled = null;
+        Iterator<Timer> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timer timer = iterator.next();
+            if (timer.cancelled) {
+                iterator.remove();
+                pendingCount.decrementAndGet();
+                continue;
+            }
+            if (timer.deadline > tick) {
+                // Срок в одном из следующих оборотов колеса
+                continue;
+            }
+            iterator.remove();
+
+            try {
+                timer.task.run();
+            } catch (Throwable t) {
+                ScriptLog.error("TimerWheel", "Timer task failed: " + t.getMessage(), t);
+            }
+
+            if (timer.period > 0 && !timer.cancelled) {
+                timer.deadline = tick + timer.period;
+                if (rescheduled == null) {
+                    rescheduled = new ArrayList<>();
+                }
+                rescheduled.add(timer);
+            } else {
+                pendingCount.decrementAndGet();
+            }
+        }
+
+        if (rescheduled != null) {
+            for (Timer timer : rescheduled) {
+                bucketFor(timer.deadline).add(timer);
+            }
+        }
+    }
+
+    private List<Timer> bucketFor(long deadline) {
+        return buckets[(int) (deadline & mask)];
+    }
+
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public int getWheelSize() {
+        return buckets.length;
+    }
+
+    public static final class Timer {
+        private final long period;
+        private final Runnable task;
+        // Меняется только главным потоком
+        private long deadline;
+        private volatile boolean cancelled;
+
+        private Timer(long deadline, long period, Runnable task) {
+            this.deadline = deadline;
+            this.period = period;
+            this.task = task;
+        }
+
+        /**
+         * Отменяет таймер из любого потока. Из колеса он будет убран при следующем просмотре ячейки.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isPeriodic() {
+            return period > 0;
+        }
+    }
+}
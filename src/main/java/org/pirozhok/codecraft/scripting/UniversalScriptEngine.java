@@ -1,17 +1,80 @@
 package org.pirozhok.codecraft.scripting;
 
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.ResourceLimits;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.SourceSection;
+import org.graalvm.polyglot.Value;
+import org.openjdk.nashorn.api.scripting.JSObject;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
 
 public class UniversalScriptEngine {
+    private static final String JS = "js";
+
+    // Один движок GraalVM на весь процесс: JIT-код и кэш разобранных исходников переживают отдельные запуски
+    private static Engine sharedEngine;
+    private static boolean polyglotUnavailable;
+    // Один ServiceLoader-скан на процесс вместо нового скана на каждое имя движка
+    private static ScriptEngineManager scriptEngineManager;
+
+    private final Engine polyglotEngine;
     private ScriptEngine engine;
     private String engineName;
 
     public UniversalScriptEngine() {
-        this.engine = createEngine();
+        this.polyglotEngine = getSharedEngine();
+        if (polyglotEngine != null) {
+            this.engineName = "graal.js";
+            ScriptLog.info("UniversalScriptEngine", "Using shared GraalVM polyglot engine {}", polyglotEngine.getVersion());
+        } else {
+            this.engine = createEngine();
+        }
+    }
+
+    private static synchronized Engine getSharedEngine() {
+        if (sharedEngine == null && !polyglotUnavailable) {
+            try {
+                Engine candidate = Engine.newBuilder()
+                        // На обычной JDK Graal работает без JIT, предупреждение об этом нам не нужно
+                        .option("engine.WarnInterpreterOnly", "false")
+                        .build();
+                if (candidate.getLanguages().containsKey(JS)) {
+                    sharedEngine = candidate;
+                } else {
+                    candidate.close();
+                    polyglotUnavailable = true;
+                    ScriptLog.warn("UniversalScriptEngine", "GraalVM polyglot engine has no JavaScript language");
+                }
+            } catch (Exception | LinkageError e) {
+                polyglotUnavailable = true;
+                ScriptLog.warn("UniversalScriptEngine", "GraalVM polyglot engine is not available: {}", e.getMessage());
+            }
+        }
+        return sharedEngine;
+    }
+
+    private static synchronized ScriptEngineManager getScriptEngineManager() {
+        if (scriptEngineManager == null) {
+            scriptEngineManager = new ScriptEngineManager();
+        }
+        return scriptEngineManager;
     }
 
     private ScriptEngine createEngine() {
@@ -19,50 +82,286 @@ public class UniversalScriptEngine {
 
         for (String engineName : enginePreferences) {
             try {
-                ScriptEngine engine = new ScriptEngineManager().getEngineByName(engineName);
+                ScriptEngine engine = getScriptEngineManager().getEngineByName(engineName);
                 if (engine != null) {
                     this.engineName = engineName;
-                    System.out.println("UniversalScriptEngine: Using script engine: " + engineName);
+                    ScriptLog.info("UniversalScriptEngine", "Using script engine: {}", engineName);
                     return engine;
                 }
             } catch (Exception e) {
-                System.err.println("UniversalScriptEngine: Failed to initialize engine " + engineName + ": " + e.getMessage());
+                ScriptLog.warn("UniversalScriptEngine", "Failed to initialize engine {}: {}", engineName, e.getMessage());
             }
         }
 
-        // Fallback: try to load GraalVM engine manually
-        try {
-            System.out.println("UniversalScriptEngine: Trying to load GraalVM engine manually...");
-            ScriptEngine graalEngine = new ScriptEngineManager().getEngineByName("graal.js");
-            if (graalEngine != null) {
-                this.engineName = "graal.js";
-                System.out.println("UniversalScriptEngine: GraalVM engine loaded successfully");
-                return graalEngine;
-            }
-        } catch (Exception e) {
-            System.err.println("UniversalScriptEngine: Failed to load GraalVM engine: " + e.getMessage());
+        throw new RuntimeException("No suitable JavaScript engine found. Please install GraalVM or use Java with Nashorn.");
+    }
+
+    /**
+     * Готовит скрипт к многократному запуску. Для GraalVM это кэшируемый {@link Source}:
+     * разобранное дерево хранится в общем движке и переиспользуется всеми контекстами.
+     */
+    public PreparedScript compile(String name, String code) throws ScriptException {
+        if (polyglotEngine != null) {
+            Source source = Source.newBuilder(JS, code, name + ".js")
+                    .cached(true)
+                    .buildLiteral();
+            return new PreparedScript(name, source, null);
         }
 
-        throw new RuntimeException("No suitable JavaScript engine found. Please install GraalVM or use Java with Nashorn.");
+        if (engine instanceof Compilable compilable) {
+            return new PreparedScript(name, null, compilable.compile(code));
+        }
+        // Движок не умеет компилировать - храним исходник, чтобы хотя бы не перечитывать и не оборачивать его
+        return new PreparedScript(name, null, new InterpretedScript(engine, code));
     }
 
-    public Object eval(String script) throws ScriptException {
-        return engine.eval(script);
+    /**
+     * Проверяет синтаксис скрипта, не выполняя его. compile для GraalVM только собирает {@link Source},
+     * поэтому исходник разбирается во временном контексте; разобранное дерево остаётся в общем движке
+     * и используется при запуске. JSR-223 движки разбирают скрипт уже в compile.
+     */
+    public void verify(PreparedScript script) throws ScriptException {
+        if (polyglotEngine == null || script.getSource() == null) {
+            return;
+        }
+        try (Context context = Context.newBuilder(JS).engine(polyglotEngine).build()) {
+            context.parse(script.getSource());
+        } catch (PolyglotException e) {
+            throw toScriptException(e);
+        }
     }
 
-    public Object eval(String script, javax.script.Bindings bindings) throws ScriptException {
-        return engine.eval(script, bindings);
+    /**
+     * Открывает изолированную область выполнения. Для GraalVM это дешёвый {@link Context},
+     * привязанный к общему движку.
+     */
+    public ScriptSession openSession() {
+        return openSession(0);
+    }
+
+    /**
+     * То же, но с лимитом инструкций на шаг (0 - без лимита). Лимит поддерживает только GraalVM.
+     */
+    public ScriptSession openSession(long statementLimit) {
+        if (polyglotEngine != null) {
+            return new PolyglotSession(polyglotEngine, statementLimit);
+        }
+        return new Jsr223Session(engine);
     }
 
-    public void put(String key, Object value) {
-        engine.put(key, value);
+    public Object eval(String script) throws ScriptException {
+        try (ScriptSession session = openSession()) {
+            return session.eval(compile("eval", script));
+        }
     }
 
-    public javax.script.Bindings createBindings() {
-        return engine.createBindings();
+    public boolean isPolyglot() {
+        return polyglotEngine != null;
     }
 
     public String getEngineName() {
         return engineName;
     }
-}
\ No newline at end of file
+
+    static ScriptException toScriptException(PolyglotException e) {
+        SourceSection location = e.getSourceLocation();
+        ScriptException result = location != null
+                ? new ScriptException(e.getMessage(), location.getSource().getName(), location.getStartLine(), location.getStartColumn())
+                : new ScriptException(e.getMessage());
+        result.initCause(e);
+        return result;
+    }
+
+    private static final class PolyglotSession implements ScriptSession {
+        private final Context context;
+        private final Value bindings;
+        private Set<String> baseline = Set.of();
+        private volatile boolean cancelled;
+
+        private PolyglotSession(Engine engine, long statementLimit) {
+            Context.Builder builder = Context.newBuilder(JS)
+                    .engine(engine)
+                    .allowHostAccess(HostAccess.ALL)
+                    .allowHostClassLookup(className -> true);
+            if (statementLimit > 0) {
+                builder.resourceLimits(ResourceLimits.newBuilder()
+                        .statementLimit(statementLimit, null)
+                        .build());
+            }
+            this.context = builder.build();
+            this.bindings = context.getBindings(JS);
+        }
+
+        @Override
+        public void put(String name, Object value) {
+            bindings.putMember(name, value);
+        }
+
+        @Override
+        public Object eval(PreparedScript script) throws ScriptException {
+            try {
+                return context.eval(script.getSource());
+            } catch (PolyglotException e) {
+                throw failed(e);
+            }
+        }
+
+        @Override
+        public Object invoke(Object callback, Object... args) throws ScriptException {
+            try {
+                // Функции скрипта приходят в Java как обёртки, asValue возвращает исходное значение
+                Value function = context.asValue(callback);
+                if (!function.canExecute()) {
+                    throw new ScriptException("Not a function: " + callback);
+                }
+                // Примитивы возвращаются как обычные Java-значения (Boolean, Integer, String)
+                return function.execute(args).as(Object.class);
+            } catch (PolyglotException e) {
+                throw failed(e);
+            }
+        }
+
+        private ScriptException failed(PolyglotException e) {
+            if (e.isCancelled() || e.isResourceExhausted()) {
+                // После отмены (в том числе по лимиту инструкций) контекст закрыт
+                cancelled = true;
+            }
+            return toScriptException(e);
+        }
+
+        @Override
+        public void markBaseline() {
+            baseline = new HashSet<>(bindings.getMemberKeys());
+        }
+
+        @Override
+        public boolean reset() {
+            try {
+                for (String key : new ArrayList<>(bindings.getMemberKeys())) {
+                    if (!baseline.contains(key) && !bindings.removeMember(key)) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (PolyglotException | IllegalStateException | UnsupportedOperationException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void resetLimits() {
+            context.resetLimits();
+        }
+
+        @Override
+        public boolean interrupt(long timeoutMillis) {
+            try {
+                context.interrupt(Duration.ofMillis(timeoutMillis));
+            } catch (TimeoutException e) {
+                // Скрипт не дошёл до точки прерывания - отменяем выполнение, контекст при этом закрывается
+                cancelled = true;
+                context.close(true);
+            } catch (PolyglotException | IllegalStateException e) {
+                cancelled = true;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void close() {
+            context.close();
+        }
+    }
+
+    private static final class Jsr223Session implements ScriptSession {
+        private final Bindings bindings;
+        private Set<String> baseline = Set.of();
+
+        private Jsr223Session(ScriptEngine engine) {
+            this.bindings = engine.createBindings();
+        }
+
+        @Override
+        public void put(String name, Object value) {
+            bindings.put(name, value);
+        }
+
+        @Override
+        public Object eval(PreparedScript script) throws ScriptException {
+            return script.getCompiled().eval(bindings);
+        }
+
+        @Override
+        public Object invoke(Object callback, Object... args) throws ScriptException {
+            if (callback instanceof JSObject function && function.isFunction()) {
+                return function.call(null, args);
+            }
+            throw new ScriptException("Not a function: " + callback);
+        }
+
+        @Override
+        public void markBaseline() {
+            baseline = new HashSet<>(bindings.keySet());
+        }
+
+        @Override
+        public boolean reset() {
+            try {
+                bindings.keySet().removeIf(key -> !baseline.contains(key));
+                return true;
+            } catch (RuntimeException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void resetLimits() {
+        }
+
+        @Override
+        public boolean interrupt(long timeoutMillis) {
+            // Nashorn нельзя прервать снаружи: остаётся только прерывание потока
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            bindings.clear();
+        }
+    }
+
+    private static final class InterpretedScript extends CompiledScript {
+        private final ScriptEngine engine;
+        private final String source;
+
+        private InterpretedScript(ScriptEngine engine, String source) {
+            this.engine = engine;
+            this.source = source;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            return engine.eval(source, context);
+        }
+
+        @Override
+        public Object eval(Bindings bindings) throws ScriptException {
+            return engine.eval(source, bindings);
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return engine;
+        }
+    }
+}
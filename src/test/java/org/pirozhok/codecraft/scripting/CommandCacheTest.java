@@ -0,0 +1,107 @@
+package org.pirozhok.codecraft.scripting;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.ParseResults;
+import net.minecraft.commands.CommandSourceStack;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class CommandCacheTest {
+    private CommandDispatcher<CommandSourceStack> dispatcher;
+    private int sourcesCreated;
+    // Источник для разбора не важен, важно лишь, сколько раз его создавали
+    private final Supplier<CommandSourceStack> source = () -> {
+        sourcesCreated++;
+        return null;
+    };
+
+    @BeforeEach
+    void setUp() {
+        dispatcher = new CommandDispatcher<>();
+        sourcesCreated = 0;
+    }
+
+    @Test
+    void sameCommandAndSourceHit() {
+        CommandCache cache = new CommandCache();
+        ParseResults<CommandSourceStack> first = cache.parse(dispatcher, "arena", source, "say hi");
+        ParseResults<CommandSourceStack> second = cache.parse(dispatcher, "arena", source, "say hi");
+
+        assertSame(first, second);
+        assertEquals(1, sourcesCreated);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void differentSourceIsParsedAgain() {
+        CommandCache cache = new CommandCache();
+        ParseResults<CommandSourceStack> first = cache.parse(dispatcher, "arena", source, "say hi");
+        ParseResults<CommandSourceStack> second = cache.parse(dispatcher, "lobby", source, "say hi");
+
+        assertNotSame(first, second);
+        assertEquals(2, cache.getSize());
+    }
+
+    @Test
+    void unknownSourceIsNeverCached() {
+        CommandCache cache = new CommandCache();
+        cache.parse(dispatcher, null, source, "say hi");
+        cache.parse(dispatcher, null, source, "say hi");
+
+        assertEquals(0, cache.getSize());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, sourcesCreated);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        CommandCache cache = new CommandCache();
+        cache.configure(2);
+        ParseResults<CommandSourceStack> a = cache.parse(dispatcher, "s", source, "a");
+        cache.parse(dispatcher, "s", source, "b");
+        cache.parse(dispatcher, "s", source, "a");
+        cache.parse(dispatcher, "s", source, "c");
+
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertSame(a, cache.parse(dispatcher, "s", source, "a"));
+        long misses = cache.getMissCount();
+        cache.parse(dispatcher, "s", source, "b");
+        assertEquals(misses + 1, cache.getMissCount());
+    }
+
+    @Test
+    void newDispatcherDropsParsedCommands() {
+        // Сервер пересобрал дерево команд: старые разборы ссылаются на старые узлы
+        CommandCache cache = new CommandCache();
+        ParseResults<CommandSourceStack> first = cache.parse(dispatcher, "arena", source, "say hi");
+        cache.parse(dispatcher, "arena", source, "say bye");
+
+        CommandDispatcher<CommandSourceStack> rebuilt = new CommandDispatcher<>();
+        ParseResults<CommandSourceStack> second = cache.parse(rebuilt, "arena", source, "say hi");
+
+        assertNotSame(first, second);
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.getInvalidationCount());
+        assertSame(second, cache.parse(rebuilt, "arena", source, "say hi"));
+    }
+
+    @Test
+    void zeroSizeDisablesCache() {
+        CommandCache cache = new CommandCache();
+        cache.parse(dispatcher, "arena", source, "say hi");
+        cache.configure(0);
+        cache.parse(dispatcher, "arena", source, "say hi");
+
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, sourcesCreated);
+    }
+}
@@ -0,0 +1,108 @@
+package org.pirozhok.codecraft.scripting;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogRingTest {
+    @Test
+    void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(8, new LogRing<Integer>(5).capacity());
+        assertEquals(8, new LogRing<Integer>(8).capacity());
+        assertEquals(16, new LogRing<Integer>(9).capacity());
+    }
+
+    @Test
+    void wrapsAroundKeepingOrder() {
+        LogRing<Integer> ring = new LogRing<>(4);
+        int next = 0;
+        // Много оборотов с разной заполненностью, чтобы номера ячеек переходили через край массива
+        for (int round = 0; round < 100; round++) {
+            int batch = round % 4 + 1;
+            for (int i = 0; i < batch; i++) {
+                assertTrue(ring.offer(next + i));
+            }
+            for (int i = 0; i < batch; i++) {
+                assertEquals(next + i, ring.poll());
+            }
+            next += batch;
+            assertNull(ring.poll());
+        }
+        assertEquals(next, ring.claimed());
+        assertEquals(next, ring.consumed());
+    }
+
+    @Test
+    void rejectsWhenFullAndAcceptsAfterPoll() {
+        LogRing<Integer> ring = new LogRing<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+        assertEquals(4, ring.claimed());
+
+        assertEquals(0, ring.poll());
+        assertTrue(ring.offer(4));
+        assertFalse(ring.offer(5));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, ring.poll());
+        }
+        assertNull(ring.poll());
+    }
+
+    @Test
+    void keepsOrderOfEachProducer() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 100_000;
+        LogRing<long[]> ring = new LogRing<>(1024);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            long producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (long i = 0; i < perProducer; i++) {
+                    // Писатель не ждёт читателя, поэтому в тесте повторяем, пока место не освободится
+                    while (!ring.offer(new long[]{producer, i})) {
+                        Thread.onSpinWait();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        long[] expected = new long[producers];
+        long received = 0;
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        start.countDown();
+        while (received < (long) producers * perProducer) {
+            long[] item = ring.poll();
+            if (item == null) {
+                assertTrue(System.nanoTime() < deadline, "ring stalled");
+                Thread.onSpinWait();
+                continue;
+            }
+            int producer = (int) item[0];
+            assertEquals(expected[producer], item[1], "order of producer " + producer);
+            expected[producer]++;
+            received++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(ring.poll());
+        assertEquals(ring.claimed(), ring.consumed());
+    }
+}
@@ -0,0 +1,112 @@
+package org.pirozhok.codecraft.scripting;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ScriptBundleTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTrip() throws IOException {
+        String arena = "// @priority high\nfunction main() { c.sendMessage(\"Арена\"); }\n";
+        String lobby = "function main() {}\n";
+        Files.writeString(dir.resolve("arena.js"), arena);
+        Files.writeString(dir.resolve("lobby.js"), lobby);
+        Files.writeString(dir.resolve("empty.js"), "");
+        Files.writeString(dir.resolve("notes.txt"), "not a script");
+
+        Path file = dir.resolve(ScriptBundle.FILE_NAME);
+        assertEquals(3, ScriptBundle.write(dir, file));
+
+        ScriptBundle bundle = ScriptBundle.open(file);
+        assertEquals(Set.of("arena", "lobby", "empty"), bundle.names());
+        assertEquals(3, bundle.count());
+        assertEquals(arena, bundle.read("arena"));
+        assertEquals(lobby, bundle.read("lobby"));
+        assertEquals("", bundle.read("empty"));
+        assertNull(bundle.read("notes"));
+        assertNull(bundle.source("missing"));
+
+        ScriptBundle.Slot slot = bundle.slot("arena");
+        assertEquals(arena.getBytes(StandardCharsets.UTF_8).length, slot.length());
+        assertEquals(ScriptCache.hash(arena), slot.hash());
+        assertEquals(Files.getLastModifiedTime(dir.resolve("arena.js")).toMillis(), slot.lastModified());
+        assertEquals(Files.size(file), bundle.getSize());
+    }
+
+    @Test
+    void emptyDirectory() throws IOException {
+        Path file = dir.resolve(ScriptBundle.FILE_NAME);
+        assertEquals(0, ScriptBundle.write(dir, file));
+        assertEquals(0, ScriptBundle.open(file).count());
+    }
+
+    @Test
+    void rejectsWrongMagic() throws IOException {
+        assertCorrupted(bytes -> bytes.putInt(0, 0x12345678));
+    }
+
+    @Test
+    void rejectsUnknownVersion() throws IOException {
+        assertCorrupted(bytes -> bytes.putInt(4, 99));
+    }
+
+    @Test
+    void rejectsNegativeCount() throws IOException {
+        assertCorrupted(bytes -> bytes.putInt(8, -1));
+    }
+
+    @Test
+    void rejectsCountLargerThanHeader() throws IOException {
+        // Без проверки такое число ушло бы в размер HashMap
+        assertCorrupted(bytes -> bytes.putInt(8, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void rejectsScriptOutOfBounds() throws IOException {
+        // Первая запись оглавления: длина имени, имя "a", затем смещение текста
+        assertCorrupted(bytes -> bytes.putLong(12 + 2 + 1, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void rejectsTruncatedFile() throws IOException {
+        Path file = writeSample();
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, 16));
+        assertThrows(IOException.class, () -> ScriptBundle.open(file));
+    }
+
+    private Path writeSample() throws IOException {
+        Files.writeString(dir.resolve("a.js"), "function main() {}\n");
+        Files.writeString(dir.resolve("b.js"), "function main() { return 1; }\n");
+        Path file = dir.resolve(ScriptBundle.FILE_NAME);
+        ScriptBundle.write(dir, file);
+        return file;
+    }
+
+    private void assertCorrupted(Corruption corruption) throws IOException {
+        Path file = writeSample();
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+        corruption.apply(bytes);
+        Files.write(file, bytes.array());
+        assertThrows(IOException.class, () -> ScriptBundle.open(file));
+    }
+
+    @FunctionalInterface
+    private interface Corruption {
+        void apply(ByteBuffer bytes);
+    }
+}
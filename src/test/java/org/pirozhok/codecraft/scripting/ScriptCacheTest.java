@@ -0,0 +1,80 @@
+package org.pirozhok.codecraft.scripting;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.script.ScriptException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ScriptCacheTest {
+    private static UniversalScriptEngine engine;
+
+    @BeforeAll
+    static void setUp() {
+        engine = new UniversalScriptEngine();
+    }
+
+    @Test
+    void hitWhileHashIsTheSame() throws ScriptException {
+        ScriptCache cache = new ScriptCache(engine);
+        String content = "function main() {}";
+        PreparedScript first = cache.get("a", content);
+        PreparedScript second = cache.get("a", ScriptCache.hash(content), content);
+
+        assertSame(first, second);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void recompilesWhenHashChanges() throws ScriptException {
+        ScriptCache cache = new ScriptCache(engine);
+        PreparedScript first = cache.get("a", "function main() {}");
+        PreparedScript second = cache.get("a", "function main() { return 1; }");
+
+        assertNotSame(first, second);
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void knownHashIsTrusted() throws ScriptException {
+        // Хэш из индекса не пересчитывается: при попадании текст скрипта не читается
+        ScriptCache cache = new ScriptCache(engine);
+        PreparedScript first = cache.get("a", "index-hash", "function main() {}");
+        PreparedScript second = cache.get("a", "index-hash", "not even parsed");
+
+        assertSame(first, second);
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() throws ScriptException {
+        ScriptCache cache = new ScriptCache(engine, 2);
+        PreparedScript a = cache.get("a", "1", "var a;");
+        cache.get("b", "1", "var b;");
+        cache.get("a", "1", "var a;");
+        cache.get("c", "1", "var c;");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertSame(a, cache.get("a", "1", "var a;"));
+        long misses = cache.getMisses();
+        cache.get("b", "1", "var b;");
+        assertEquals(misses + 1, cache.getMisses());
+    }
+
+    @Test
+    void invalidateForcesRecompile() throws ScriptException {
+        ScriptCache cache = new ScriptCache(engine);
+        PreparedScript first = cache.get("a", "1", "var a;");
+        cache.invalidate("a");
+
+        assertNotSame(first, cache.get("a", "1", "var a;"));
+        assertEquals(2, cache.getMisses());
+    }
+}
@@ -0,0 +1,61 @@
+package org.pirozhok.codecraft.scripting;
+
+import net.minecraftforge.eventbus.api.Cancelable;
+import net.minecraftforge.eventbus.api.Event;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScriptEventTest {
+    @Test
+    void inlineHandlerCancels() {
+        TestEvent source = new TestEvent();
+        ScriptEvent event = new ScriptEvent(ScriptEvents.Type.CHAT, source, null, null, null, "hi");
+
+        event.setCanceller(Thread.currentThread());
+        assertTrue(event.cancel());
+        event.setCanceller(null);
+
+        assertTrue(source.isCanceled());
+    }
+
+    @Test
+    void postedHandlerCannotCancelDuringDispatch() throws InterruptedException {
+        TestEvent source = new TestEvent();
+        ScriptEvent event = new ScriptEvent(ScriptEvents.Type.CHAT, source, null, null, null, "hi");
+        AtomicBoolean canceled = new AtomicBoolean(true);
+
+        // Пока главный поток вызывает inline-обработчик, обработчик из очереди скрипта работает в своём потоке
+        event.setCanceller(Thread.currentThread());
+        Thread worker = new Thread(() -> canceled.set(event.cancel()));
+        worker.start();
+        worker.join();
+        event.setCanceller(null);
+
+        assertFalse(canceled.get());
+        assertFalse(source.isCanceled());
+    }
+
+    @Test
+    void cannotCancelAfterDispatch() {
+        TestEvent source = new TestEvent();
+        ScriptEvent event = new ScriptEvent(ScriptEvents.Type.CHAT, source, null, null, null, "hi");
+
+        assertFalse(event.cancel());
+        assertFalse(source.isCanceled());
+    }
+
+    @Test
+    void notCancelableEvent() {
+        ScriptEvent event = new ScriptEvent(ScriptEvents.Type.PLAYER_JOIN, new Event(), null, null, null, null);
+        event.setCanceller(Thread.currentThread());
+        assertFalse(event.cancel());
+    }
+
+    @Cancelable
+    public static class TestEvent extends Event {
+    }
+}
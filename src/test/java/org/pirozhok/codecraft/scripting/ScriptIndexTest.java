@@ -0,0 +1,96 @@
+package org.pirozhok.codecraft.scripting;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScriptIndexTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void indexesExistingFiles() throws IOException {
+        Files.writeString(dir.resolve("arena.js"), "function main() {}");
+        Files.writeString(dir.resolve("notes.txt"), "not a script");
+
+        try (ScriptIndex index = new ScriptIndex(dir, 0)) {
+            assertEquals(1, index.size());
+            ScriptIndex.Entry entry = index.get("arena");
+            assertEquals("function main() {}", entry.content());
+            assertEquals(ScriptCache.hash(entry.content()), entry.hash());
+            assertNull(index.get("notes"));
+        }
+    }
+
+    @Test
+    void writeAndDeleteUpdateIndexAtOnce() throws IOException {
+        try (ScriptIndex index = new ScriptIndex(dir, 0)) {
+            index.write("arena", "var a;");
+            assertEquals("var a;", index.get("arena").content());
+            assertTrue(Files.exists(index.pathOf("arena")));
+
+            index.delete("arena");
+            assertFalse(index.contains("arena"));
+            assertFalse(Files.exists(index.pathOf("arena")));
+        }
+    }
+
+    @Test
+    void skipsFileChangingWhileRead() throws IOException {
+        // Редактор дописывает файл, пока индекс его читает: прочитанная половина в индекс не попадает
+        try (EditedIndex index = new EditedIndex(dir)) {
+            index.write("arena", "var a;");
+            // Без потока наблюдения файл перечитывает только сам тест
+            index.close();
+            Files.writeString(index.pathOf("arena"), "var a = 1");
+            index.edit.set(true);
+
+            index.reload("arena");
+            assertFalse(index.edit.get());
+            assertEquals("var a;", index.get("arena").content());
+            assertEquals(0, index.getReloadCount());
+
+            // Следующее событие или сверка видят файл уже целиком
+            index.reload("arena");
+            assertEquals("var a = 1; var b = 2;", index.get("arena").content());
+            assertEquals(1, index.getReloadCount());
+        }
+    }
+
+    @Test
+    void rescanDropsRemovedFiles() throws IOException {
+        Files.writeString(dir.resolve("arena.js"), "var a;");
+        try (ScriptIndex index = new ScriptIndex(dir, 0)) {
+            Files.delete(dir.resolve("arena.js"));
+            index.rescan();
+            assertNull(index.get("arena"));
+        }
+    }
+
+    // При включённом edit дописывает файл сразу после того, как индекс прочитал его текст
+    private static final class EditedIndex extends ScriptIndex {
+        final AtomicBoolean edit = new AtomicBoolean();
+
+        EditedIndex(Path directory) throws IOException {
+            super(directory, 0);
+        }
+
+        @Override
+        String readContent(Path path) throws IOException {
+            String content = super.readContent(path);
+            if (edit != null && edit.compareAndSet(true, false)) {
+                Files.writeString(path, "var a = 1; var b = 2;");
+            }
+            return content;
+        }
+    }
+}
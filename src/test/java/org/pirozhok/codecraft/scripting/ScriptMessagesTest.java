@@ -0,0 +1,71 @@
+package org.pirozhok.codecraft.scripting;
+
+import net.minecraft.network.chat.Component;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ScriptMessagesTest {
+    @Test
+    void dropsRepeatedLinesOfOneScript() {
+        ScriptMessages messages = new ScriptMessages();
+        List<ScriptMessages.Outgoing> sent = messages.composeChat(List.of(
+                chat("arena", "Старт"),
+                chat("arena", "Старт"),
+                chat("lobby", "Старт"),
+                chat("arena", "Финиш")));
+
+        assertEquals(1, sent.size());
+        assertEquals("Старт\nСтарт\nФиниш", sent.get(0).message().getString());
+        assertEquals(1, messages.getDuplicateCount());
+        assertEquals(2, messages.getMergedCount());
+    }
+
+    @Test
+    void splitsByLineLimit() {
+        ScriptMessages messages = new ScriptMessages();
+        messages.configure(true, 3, ScriptMessages.Collapse.NONE);
+        List<ScriptMessages.Outgoing> lines = new ArrayList<>();
+        for (int i = 1; i <= 7; i++) {
+            lines.add(chat("arena", "line " + i));
+        }
+
+        List<ScriptMessages.Outgoing> sent = messages.composeChat(lines);
+
+        assertEquals(3, sent.size());
+        assertEquals("line 1\nline 2\nline 3", sent.get(0).message().getString());
+        assertEquals("line 4\nline 5\nline 6", sent.get(1).message().getString());
+        // Одиночная строка уходит как есть
+        assertEquals(lines.get(6), sent.get(2));
+        assertEquals(4, messages.getMergedCount());
+    }
+
+    @Test
+    void singleLineIsNotWrapped() {
+        ScriptMessages messages = new ScriptMessages();
+        ScriptMessages.Outgoing line = chat("arena", "Привет");
+        assertEquals(List.of(line), messages.composeChat(List.of(line)));
+        assertEquals(0, messages.getMergedCount());
+    }
+
+    @Test
+    void collapsesToLastLine() {
+        ScriptMessages messages = new ScriptMessages();
+        messages.configure(true, 10, ScriptMessages.Collapse.ACTIONBAR);
+
+        List<ScriptMessages.Outgoing> sent = messages.composeChat(List.of(
+                chat("arena", "3"), chat("arena", "2"), chat("arena", "1")));
+
+        assertEquals(1, sent.size());
+        assertEquals(ScriptMessages.Kind.ACTIONBAR, sent.get(0).kind());
+        assertEquals("1", sent.get(0).message().getString());
+        assertEquals(2, messages.getMergedCount());
+    }
+
+    private static ScriptMessages.Outgoing chat(String scriptName, String text) {
+        return new ScriptMessages.Outgoing(null, scriptName, null, ScriptMessages.Kind.CHAT, Component.literal(text), null);
+    }
+}
@@ -0,0 +1,62 @@
+package org.pirozhok.codecraft.scripting;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ScriptOptionsTest {
+    @Test
+    void readsDirectivesBeforeCode() {
+        ScriptOptions options = ScriptOptions.parse("""
+                // Арена
+                // @priority high
+
+                //   @Run-As   Arena Bot
+                // @permission 2
+                function main() {}
+                // @player Steve
+                """);
+        assertEquals("high", options.get("priority"));
+        assertEquals("Arena Bot", options.get("run-as"));
+        assertEquals(2, options.getLong("permission", 4));
+        assertNull(options.get("player"));
+    }
+
+    @Test
+    void stopsAtFirstCodeLine() {
+        ScriptOptions options = ScriptOptions.parse("var x = 1; // @priority high\n// @priority low\n");
+        assertNull(options.get("priority"));
+        assertEquals(ScriptOptions.PRIORITY_NORMAL, options.getPriority());
+    }
+
+    @Test
+    void emptyScript() {
+        ScriptOptions options = ScriptOptions.parse("");
+        assertNull(options.get("priority"));
+        assertEquals(7, options.getLong("permission", 7));
+    }
+
+    @Test
+    void directiveWithoutValue() {
+        ScriptOptions options = ScriptOptions.parse("// @position\r\n// @\n");
+        assertEquals("", options.get("position"));
+        assertEquals(5, options.getLong("position", 5));
+        assertNull(options.get(""));
+    }
+
+    @Test
+    void invalidNumberFallsBackToDefault() {
+        ScriptOptions options = ScriptOptions.parse("// @permission two\n");
+        assertEquals(4, options.getLong("permission", 4));
+    }
+
+    @Test
+    void priorityNamesAndNumbers() {
+        assertEquals(ScriptOptions.PRIORITY_HIGH, ScriptOptions.parse("// @priority HIGH").getPriority());
+        assertEquals(ScriptOptions.PRIORITY_LOW, ScriptOptions.parse("// @priority low").getPriority());
+        assertEquals(ScriptOptions.PRIORITY_NORMAL, ScriptOptions.parse("// @priority normal").getPriority());
+        assertEquals(-3, ScriptOptions.parse("// @priority -3").getPriority());
+        assertEquals(ScriptOptions.PRIORITY_NORMAL, ScriptOptions.parse("// @priority urgent").getPriority());
+    }
+}
@@ -0,0 +1,124 @@
+package org.pirozhok.codecraft.scripting;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TickBudgetExecutorTest {
+    private static final long UNLIMITED = Long.MAX_VALUE / 2;
+
+    @Test
+    void ownersTakeTurns() {
+        // Шаги a отправлены раньше, но b не ждёт, пока a закончит
+        TickBudgetExecutor executor = new TickBudgetExecutor();
+        List<String> order = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            submit(executor, order, "a", "a" + i);
+        }
+        for (int i = 1; i <= 2; i++) {
+            submit(executor, order, "b", "b" + i);
+        }
+        submit(executor, order, "c", "c1");
+
+        executor.runTick(UNLIMITED);
+
+        assertEquals(List.of("a1", "b1", "c1", "a2", "b2", "a3"), order);
+        assertEquals(0, executor.getPendingSteps());
+        assertEquals(6, executor.getLastTickSteps());
+    }
+
+    @Test
+    void stepsOverBudgetCarryOver() {
+        // Нулевой бюджет: за тик выполняется один шаг, очередь по кругу продолжается со следующего владельца
+        TickBudgetExecutor executor = new TickBudgetExecutor();
+        List<String> order = new ArrayList<>();
+        submit(executor, order, "a", "a1");
+        submit(executor, order, "a", "a2");
+        submit(executor, order, "b", "b1");
+
+        executor.runTick(0);
+        assertEquals(List.of("a1"), order);
+        assertEquals(2, executor.getPendingSteps());
+
+        executor.runTick(0);
+        assertEquals(List.of("a1", "b1"), order);
+
+        executor.runTick(0);
+        assertEquals(List.of("a1", "b1", "a2"), order);
+        assertEquals(0, executor.getPendingSteps());
+        assertEquals(3, executor.getStepsRun());
+    }
+
+    @Test
+    void longStepCountsAsOverBudget() {
+        TickBudgetExecutor executor = new TickBudgetExecutor();
+        List<String> order = new ArrayList<>();
+        executor.submit("a", () -> {
+            long until = System.nanoTime() + 2_000_000;
+            while (System.nanoTime() < until) {
+                Thread.onSpinWait();
+            }
+            order.add("a1");
+        });
+        submit(executor, order, "a", "a2");
+
+        executor.runTick(1_000_000);
+
+        assertEquals(List.of("a1"), order);
+        assertEquals(1, executor.getOverBudgetTicks());
+        assertEquals(1, executor.getPendingSteps());
+    }
+
+    @Test
+    void stepsSubmittedDuringTickWaitForNextTick() {
+        TickBudgetExecutor executor = new TickBudgetExecutor();
+        List<String> order = new ArrayList<>();
+        executor.submit("a", () -> {
+            order.add("a1");
+            submit(executor, order, "a", "a2");
+        });
+
+        executor.runTick(UNLIMITED);
+        assertEquals(List.of("a1"), order);
+
+        executor.runTick(UNLIMITED);
+        assertEquals(List.of("a1", "a2"), order);
+    }
+
+    @Test
+    void cancelDropsOnlyEarlierSteps() {
+        TickBudgetExecutor executor = new TickBudgetExecutor();
+        List<String> order = new ArrayList<>();
+        submit(executor, order, "a", "a1");
+        submit(executor, order, "b", "b1");
+        executor.cancel("a");
+        submit(executor, order, "a", "a2");
+
+        executor.runTick(UNLIMITED);
+
+        assertEquals(List.of("b1", "a2"), order);
+        assertEquals(0, executor.getPendingSteps());
+    }
+
+    @Test
+    void failingStepDoesNotStopTick() {
+        TickBudgetExecutor executor = new TickBudgetExecutor();
+        List<String> order = new ArrayList<>();
+        executor.submit("a", () -> {
+            throw new IllegalStateException("boom");
+        });
+        submit(executor, order, "b", "b1");
+
+        executor.runTick(UNLIMITED);
+
+        assertEquals(List.of("b1"), order);
+        assertEquals(2, executor.getStepsRun());
+    }
+
+    private static void submit(TickBudgetExecutor executor, List<String> order, String owner, String name) {
+        executor.submit(owner, () -> order.add(name));
+    }
+}
@@ -0,0 +1,134 @@
+package org.pirozhok.codecraft.scripting;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimerWheelTest {
+    @Test
+    void sizeIsRoundedUpToPowerOfTwo() {
+        assertEquals(4, new TimerWheel(3).getWheelSize());
+        assertEquals(4, new TimerWheel(4).getWheelSize());
+        assertEquals(8, new TimerWheel(5).getWheelSize());
+    }
+
+    @Test
+    void millisAreRoundedUpToTicks() {
+        assertEquals(1, TimerWheel.millisToTicks(0));
+        assertEquals(1, TimerWheel.millisToTicks(50));
+        assertEquals(2, TimerWheel.millisToTicks(51));
+        assertEquals(20, TimerWheel.millisToTicks(1000));
+    }
+
+    @Test
+    void firesOnDeadline() {
+        TimerWheel wheel = new TimerWheel(4);
+        List<Long> fired = new ArrayList<>();
+        wheel.schedule(3, 0, () -> fired.add(wheel.getCurrentTick()));
+
+        advance(wheel, 5);
+
+        assertEquals(List.of(3L), fired);
+        assertEquals(0, wheel.getPendingCount());
+    }
+
+    @Test
+    void waitsForLaterTurnOfTheWheel() {
+        // Срок 10 на колесе из 4 ячеек: ячейка та же, что у тиков 2 и 6, но таймер должен их пропустить
+        TimerWheel wheel = new TimerWheel(4);
+        List<Long> fired = new ArrayList<>();
+        wheel.schedule(10, 0, () -> fired.add(wheel.getCurrentTick()));
+
+        advance(wheel, 9);
+        assertTrue(fired.isEmpty());
+        assertEquals(1, wheel.getPendingCount());
+
+        advance(wheel, 3);
+        assertEquals(List.of(10L), fired);
+    }
+
+    @Test
+    void periodicTimerIsRescheduled() {
+        TimerWheel wheel = new TimerWheel(4);
+        List<Long> fired = new ArrayList<>();
+        wheel.schedule(2, 3, () -> fired.add(wheel.getCurrentTick()));
+
+        advance(wheel, 12);
+
+        assertEquals(List.of(2L, 5L, 8L, 11L), fired);
+        assertEquals(1, wheel.getPendingCount());
+    }
+
+    @Test
+    void periodOfWholeWheelRunsOncePerTurn() {
+        // Новый срок попадает в ту же ячейку, которую колесо сейчас просматривает
+        TimerWheel wheel = new TimerWheel(4);
+        List<Long> fired = new ArrayList<>();
+        wheel.schedule(4, 4, () -> fired.add(wheel.getCurrentTick()));
+
+        advance(wheel, 12);
+
+        assertEquals(List.of(4L, 8L, 12L), fired);
+    }
+
+    @Test
+    void cancelBeforeDeadline() {
+        TimerWheel wheel = new TimerWheel(4);
+        List<Long> fired = new ArrayList<>();
+        TimerWheel.Timer queued = wheel.schedule(1, 0, () -> fired.add(1L));
+        TimerWheel.Timer placed = wheel.schedule(3, 0, () -> fired.add(3L));
+
+        // Один отменён ещё в очереди, другой - уже в колесе
+        queued.cancel();
+        advance(wheel, 1);
+        placed.cancel();
+        advance(wheel, 4);
+
+        assertTrue(fired.isEmpty());
+        assertTrue(placed.isCancelled());
+        assertEquals(0, wheel.getPendingCount());
+    }
+
+    @Test
+    void cancelPeriodicFromItsTask() {
+        TimerWheel wheel = new TimerWheel(4);
+        List<Long> fired = new ArrayList<>();
+        TimerWheel.Timer[] timer = new TimerWheel.Timer[1];
+        timer[0] = wheel.schedule(1, 1, () -> {
+            fired.add(wheel.getCurrentTick());
+            if (fired.size() == 3) {
+                timer[0].cancel();
+            }
+        });
+
+        advance(wheel, 10);
+
+        assertEquals(List.of(1L, 2L, 3L), fired);
+        assertEquals(0, wheel.getPendingCount());
+    }
+
+    @Test
+    void failingTaskDoesNotStopOthers() {
+        TimerWheel wheel = new TimerWheel(4);
+        List<Long> fired = new ArrayList<>();
+        wheel.schedule(1, 0, () -> {
+            throw new IllegalStateException("boom");
+        });
+        wheel.schedule(1, 0, () -> fired.add(wheel.getCurrentTick()));
+
+        advance(wheel, 1);
+
+        assertEquals(List.of(1L), fired);
+        assertEquals(0, wheel.getPendingCount());
+    }
+
+    private static void advance(TimerWheel wheel, int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            wheel.advance();
+        }
+    }
+}